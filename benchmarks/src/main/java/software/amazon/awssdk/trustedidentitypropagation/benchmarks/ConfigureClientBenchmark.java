@@ -0,0 +1,80 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.awssdk.trustedidentitypropagation.benchmarks;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import software.amazon.awssdk.services.sts.StsServiceClientConfiguration;
+import software.amazon.awssdk.trustedidentitypropagation.TrustedIdentityPropagationPlugin;
+import software.amazon.awssdk.utils.SdkAutoCloseable;
+
+/**
+ * Measures {@link TrustedIdentityPropagationPlugin#configureClient}, which runs for every SDK client built with the
+ * plugin.
+ * <p>
+ * The plugin keeps every configured client's credentials provider until it is closed, so each iteration uses a new
+ * plugin and a fixed batch of calls instead of running for a fixed time.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, batchSize = 10_000)
+@Measurement(iterations = 20, batchSize = 10_000)
+@Fork(1)
+public class ConfigureClientBenchmark {
+
+    private static final String WEB_TOKEN = StubClients.webToken("benchmark");
+
+    @Benchmark
+    public Object configureClient(Plugin state) {
+        StsServiceClientConfiguration.Builder configuration = StsServiceClientConfiguration.builder();
+        state.plugin.configureClient(configuration);
+        ((SdkAutoCloseable) configuration.credentialsProvider()).close();
+        return configuration;
+    }
+
+    @State(Scope.Benchmark)
+    public static class Plugin {
+        private TrustedIdentityPropagationPlugin plugin;
+
+        @Setup(Level.Iteration)
+        public void setup() {
+            plugin = TrustedIdentityPropagationPlugin.builder()
+                .stsClient(StubClients.stsClient(Duration.ofHours(1)))
+                .ssoOidcClient(StubClients.ssoOidcClient())
+                .webTokenProvider(() -> WEB_TOKEN)
+                .applicationArn(StubClients.APPLICATION_ARN)
+                .accessRoleArn(StubClients.ROLE_ARN)
+                .build();
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() {
+            plugin.close();
+        }
+    }
+}
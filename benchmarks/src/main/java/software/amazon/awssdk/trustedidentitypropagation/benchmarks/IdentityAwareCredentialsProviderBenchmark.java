@@ -0,0 +1,118 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.awssdk.trustedidentitypropagation.benchmarks;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import software.amazon.awssdk.auth.credentials.AwsCredentials;
+import software.amazon.awssdk.trustedidentitypropagation.internal.IdentityAwareCredentialsProvider;
+
+/**
+ * Measures {@link IdentityAwareCredentialsProvider#resolveCredentials()} for a single identity.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IdentityAwareCredentialsProviderBenchmark {
+
+    private static final String WEB_TOKEN = StubClients.webToken("benchmark");
+
+    /**
+     * Resolves credentials that are cached and far from their expiration.
+     */
+    @Benchmark
+    public AwsCredentials cacheHit(CachedProvider state) {
+        return state.provider.resolveCredentials();
+    }
+
+    /**
+     * Creates a provider and resolves its first credentials, including the OIDC and STS exchange.
+     */
+    @Benchmark
+    public AwsCredentials coldMiss() {
+        try (IdentityAwareCredentialsProvider provider = provider(Duration.ofHours(1)).build()) {
+            return provider.resolveCredentials();
+        }
+    }
+
+    /**
+     * Resolves credentials from many threads while every resolution finds them stale, so that callers contend on the
+     * single refresh in progress.
+     */
+    @Benchmark
+    @Threads(8)
+    public AwsCredentials refreshUnderContention(StaleProvider state) {
+        return state.provider.resolveCredentials();
+    }
+
+    private static IdentityAwareCredentialsProvider.Builder provider(Duration credentialsLifetime) {
+        return IdentityAwareCredentialsProvider.builder()
+            .stsClient(StubClients.stsClient(credentialsLifetime))
+            .ssoOidcClient(StubClients.ssoOidcClient())
+            .webTokenProvider(() -> WEB_TOKEN)
+            .applicationArn(StubClients.APPLICATION_ARN)
+            .accessRoleArn(StubClients.ROLE_ARN);
+    }
+
+    @State(Scope.Benchmark)
+    public static class CachedProvider {
+        private IdentityAwareCredentialsProvider provider;
+
+        @Setup
+        public void setup() {
+            provider = provider(Duration.ofHours(1)).build();
+            provider.resolveCredentials();
+        }
+
+        @TearDown
+        public void tearDown() {
+            provider.close();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class StaleProvider {
+        private IdentityAwareCredentialsProvider provider;
+
+        @Setup
+        public void setup() {
+            // Credentials that expire within the stale time are refreshed by every resolution.
+            provider = provider(Duration.ofSeconds(30))
+                .staleTime(Duration.ofMinutes(1))
+                .prefetchTime(Duration.ofMinutes(1))
+                .build();
+        }
+
+        @TearDown
+        public void tearDown() {
+            provider.close();
+        }
+    }
+}
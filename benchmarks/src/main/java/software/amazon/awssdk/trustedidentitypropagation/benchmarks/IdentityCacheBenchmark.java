@@ -0,0 +1,106 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.awssdk.trustedidentitypropagation.benchmarks;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import software.amazon.awssdk.auth.credentials.AwsCredentials;
+import software.amazon.awssdk.trustedidentitypropagation.internal.IdentityAwareCredentialsProvider;
+
+/**
+ * Measures {@link IdentityAwareCredentialsProvider#resolveCredentials()} with the identity cache, where every
+ * resolution reads the web token of a random cached identity.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IdentityCacheBenchmark {
+
+    private static final ThreadLocal<String> CURRENT_WEB_TOKEN = new ThreadLocal<>();
+
+    @Benchmark
+    @Threads(1)
+    public AwsCredentials oneThread(Identities identities) {
+        return identities.resolveRandomIdentity();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public AwsCredentials eightThreads(Identities identities) {
+        return identities.resolveRandomIdentity();
+    }
+
+    @Benchmark
+    @Threads(64)
+    public AwsCredentials sixtyFourThreads(Identities identities) {
+        return identities.resolveRandomIdentity();
+    }
+
+    @State(Scope.Benchmark)
+    public static class Identities {
+        @Param({"16", "1000"})
+        private int identityCount;
+
+        private String[] webTokens;
+        private IdentityAwareCredentialsProvider provider;
+
+        @Setup
+        public void setup() {
+            webTokens = new String[identityCount];
+            for (int i = 0; i < identityCount; i++) {
+                webTokens[i] = StubClients.webToken("user-" + i);
+            }
+            provider = IdentityAwareCredentialsProvider.builder()
+                .stsClient(StubClients.stsClient(Duration.ofHours(1)))
+                .ssoOidcClient(StubClients.ssoOidcClient())
+                .webTokenProvider(CURRENT_WEB_TOKEN::get)
+                .applicationArn(StubClients.APPLICATION_ARN)
+                .accessRoleArn(StubClients.ROLE_ARN)
+                .identityCacheEnabled(true)
+                .identityCacheMaxEntries(identityCount)
+                .build();
+            for (String webToken : webTokens) {
+                provider.prefetch(webToken).join();
+            }
+        }
+
+        @TearDown
+        public void tearDown() {
+            provider.close();
+        }
+
+        AwsCredentials resolveRandomIdentity() {
+            CURRENT_WEB_TOKEN.set(webTokens[ThreadLocalRandom.current().nextInt(webTokens.length)]);
+            return provider.resolveCredentials();
+        }
+    }
+}
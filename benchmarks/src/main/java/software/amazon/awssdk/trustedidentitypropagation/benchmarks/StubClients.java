@@ -0,0 +1,124 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.awssdk.trustedidentitypropagation.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import software.amazon.awssdk.services.ssooidc.SsoOidcClient;
+import software.amazon.awssdk.services.ssooidc.SsoOidcServiceClientConfiguration;
+import software.amazon.awssdk.services.ssooidc.model.AwsAdditionalDetails;
+import software.amazon.awssdk.services.ssooidc.model.CreateTokenWithIamRequest;
+import software.amazon.awssdk.services.ssooidc.model.CreateTokenWithIamResponse;
+import software.amazon.awssdk.services.sts.StsClient;
+import software.amazon.awssdk.services.sts.model.AssumeRoleRequest;
+import software.amazon.awssdk.services.sts.model.AssumeRoleResponse;
+import software.amazon.awssdk.services.sts.model.Credentials;
+
+/**
+ * In-memory OIDC and STS clients, so that the benchmarks measure the plugin rather than the network.
+ */
+final class StubClients {
+    static final String APPLICATION_ARN =
+        "arn:aws:sso::123456789101:application/ssoins-1234567891234567/apl-1234567891234567";
+    static final String ROLE_ARN = "arn:aws:iam::123456789101:role/example";
+
+    private StubClients() {
+    }
+
+    /**
+     * An STS client whose credentials expire {@code credentialsLifetime} after they are issued.
+     */
+    static StsClient stsClient(Duration credentialsLifetime) {
+        return new StubStsClient(credentialsLifetime);
+    }
+
+    /**
+     * An OIDC client whose IAM Identity Center tokens are valid for an hour.
+     */
+    static SsoOidcClient ssoOidcClient() {
+        return new StubSsoOidcClient();
+    }
+
+    /**
+     * An unsigned web token issued for the given subject.
+     */
+    static String webToken(String subject) {
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        String header = encoder.encodeToString("{\"alg\":\"none\"}".getBytes(StandardCharsets.UTF_8));
+        String payload = encoder.encodeToString(
+            ("{\"iss\":\"https://idp.example.com\",\"sub\":\"" + subject + "\"}").getBytes(StandardCharsets.UTF_8));
+        return header + "." + payload + ".";
+    }
+
+    private static final class StubStsClient implements StsClient {
+        private final Duration credentialsLifetime;
+
+        private StubStsClient(Duration credentialsLifetime) {
+            this.credentialsLifetime = credentialsLifetime;
+        }
+
+        @Override
+        public AssumeRoleResponse assumeRole(AssumeRoleRequest request) {
+            return AssumeRoleResponse.builder()
+                .credentials(Credentials.builder()
+                    .accessKeyId("akid")
+                    .secretAccessKey("skid")
+                    .sessionToken("st")
+                    .expiration(Instant.now().plus(credentialsLifetime))
+                    .build())
+                .build();
+        }
+
+        @Override
+        public String serviceName() {
+            return SERVICE_NAME;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static final class StubSsoOidcClient implements SsoOidcClient {
+        private final SsoOidcServiceClientConfiguration configuration =
+            SsoOidcServiceClientConfiguration.builder().build();
+
+        @Override
+        public CreateTokenWithIamResponse createTokenWithIAM(CreateTokenWithIamRequest request) {
+            return CreateTokenWithIamResponse.builder()
+                .expiresIn(3600)
+                .refreshToken("refresh-token")
+                .awsAdditionalDetails(AwsAdditionalDetails.builder().identityContext("idcontext").build())
+                .build();
+        }
+
+        @Override
+        public SsoOidcServiceClientConfiguration serviceClientConfiguration() {
+            return configuration;
+        }
+
+        @Override
+        public String serviceName() {
+            return SERVICE_NAME;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.awssdk.trustedidentitypropagation;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import software.amazon.awssdk.annotations.Immutable;
+import software.amazon.awssdk.annotations.Mutable;
+import software.amazon.awssdk.annotations.NotThreadSafe;
+import software.amazon.awssdk.annotations.SdkPublicApi;
+import software.amazon.awssdk.annotations.ThreadSafe;
+import software.amazon.awssdk.auth.credentials.AwsSessionCredentials;
+import software.amazon.awssdk.trustedidentitypropagation.internal.TokenBucket;
+import software.amazon.awssdk.utils.Logger;
+import software.amazon.awssdk.utils.ThreadFactoryBuilder;
+import software.amazon.awssdk.utils.Validate;
+
+/**
+ * Resolves the identity-aware credentials of many users at once, e.g. for a batch job that acts on behalf of every user
+ * of an application.
+ * <p>
+ * The web tokens are exchanged concurrently through the identity cache of a {@link TrustedIdentityPropagationPlugin},
+ * so users whose credentials are already cached are not exchanged again. At most {@code maxConcurrency} exchanges are
+ * in progress at a time, and if {@code maxExchangesPerSecond} is set, exchanges are started at no more than that rate,
+ * so that a batch stays under the OIDC and STS request quotas of the account. Exchanges run on virtual threads on Java
+ * 21 and later, and on a pool of {@code maxConcurrency} daemon threads otherwise.
+ *
+ * <pre>{@code
+ * BatchCredentialsResolver resolver = BatchCredentialsResolver.builder()
+ *     .plugin(plugin)
+ *     .maxConcurrency(32)
+ *     .maxExchangesPerSecond(20.0)
+ *     .build();
+ *
+ * Map<String, CompletableFuture<AwsSessionCredentials>> credentials = resolver.resolveCredentials(webTokens);
+ * }</pre>
+ */
+@SdkPublicApi
+@ThreadSafe
+@Immutable
+public final class BatchCredentialsResolver {
+
+    private static final Logger LOGGER = Logger.loggerFor(BatchCredentialsResolver.class);
+
+    private static final int DEFAULT_MAX_CONCURRENCY = 16;
+
+    private final TrustedIdentityPropagationPlugin plugin;
+    private final int maxConcurrency;
+    private final Double maxExchangesPerSecond;
+
+    private BatchCredentialsResolver(Builder builder) {
+        this.plugin = Validate.paramNotNull(builder.plugin, "plugin");
+        this.maxConcurrency = Validate.getOrDefault(builder.maxConcurrency, () -> DEFAULT_MAX_CONCURRENCY);
+        Validate.isPositive(maxConcurrency, "maxConcurrency");
+        this.maxExchangesPerSecond = builder.maxExchangesPerSecond;
+        Validate.isTrue(maxExchangesPerSecond == null || maxExchangesPerSecond > 0,
+                        "maxExchangesPerSecond must be positive.");
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Starts resolving the credentials of every user the given web tokens were issued for. Requires the identity cache
+     * of the plugin to be enabled.
+     *
+     * @return The credentials of each distinct web token, in the order of the given tokens. Each future completes once
+     * the token is exchanged, or exceptionally if it could not be exchanged.
+     */
+    public Map<String, CompletableFuture<AwsSessionCredentials>> resolveCredentials(Collection<String> webTokens) {
+        Validate.paramNotNull(webTokens, "webTokens");
+        Map<String, CompletableFuture<AwsSessionCredentials>> results = new LinkedHashMap<>();
+        for (String webToken : webTokens) {
+            results.putIfAbsent(Validate.paramNotNull(webToken, "webToken"), new CompletableFuture<>());
+        }
+
+        Semaphore concurrency = new Semaphore(maxConcurrency);
+        TokenBucket rateLimiter = maxExchangesPerSecond == null ? null : new TokenBucket(maxExchangesPerSecond);
+        ExecutorService executor = newExecutor();
+        try {
+            results.forEach((webToken, result) -> {
+                try {
+                    executor.execute(() -> resolve(webToken, result, concurrency, rateLimiter));
+                } catch (RejectedExecutionException e) {
+                    result.completeExceptionally(e);
+                }
+            });
+        } finally {
+            executor.shutdown();
+        }
+        return Collections.unmodifiableMap(results);
+    }
+
+    @Override
+    public String toString() {
+        return "BatchCredentialsResolver(" + plugin + ")";
+    }
+
+    private void resolve(String webToken, CompletableFuture<AwsSessionCredentials> result, Semaphore concurrency,
+                         TokenBucket rateLimiter) {
+        try {
+            concurrency.acquire();
+            try {
+                if (rateLimiter != null) {
+                    rateLimiter.acquire();
+                }
+                result.complete(plugin.resolveCredentials(webToken));
+            } finally {
+                concurrency.release();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            result.completeExceptionally(e);
+        } catch (Throwable t) {
+            result.completeExceptionally(t);
+        }
+    }
+
+    /**
+     * An executor for one batch, which is shut down once the batch is submitted. Virtual threads are created through
+     * reflection, since this library is compiled for Java 8.
+     */
+    private ExecutorService newExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOGGER.debug(() -> "Virtual threads are not available; resolving credentials on platform threads.");
+        }
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(maxConcurrency, maxConcurrency, 10, TimeUnit.SECONDS,
+                                                             new LinkedBlockingQueue<>(),
+                                                             new ThreadFactoryBuilder()
+                                                                 .threadNamePrefix("identity-aware-credentials-batch")
+                                                                 .daemonThreads(true)
+                                                                 .build());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    @SdkPublicApi
+    @NotThreadSafe
+    @Mutable
+    public static final class Builder {
+        private TrustedIdentityPropagationPlugin plugin;
+        private Integer maxConcurrency;
+        private Double maxExchangesPerSecond;
+
+        private Builder() {
+        }
+
+        /**
+         * The plugin whose credentials are resolved. Its identity cache must be enabled, and should be large enough to
+         * hold the users of a batch if their credentials are used after the batch.
+         */
+        public Builder plugin(TrustedIdentityPropagationPlugin plugin) {
+            this.plugin = plugin;
+            return this;
+        }
+
+        /**
+         * The maximum number of exchanges in progress at a time. Defaults to 16.
+         */
+        public Builder maxConcurrency(Integer maxConcurrency) {
+            this.maxConcurrency = maxConcurrency;
+            return this;
+        }
+
+        /**
+         * The maximum number of web tokens resolved per second, whether or not their users are cached. An exchange
+         * usually calls OIDC and STS once each. Defaults to no limit.
+         */
+        public Builder maxExchangesPerSecond(Double maxExchangesPerSecond) {
+            this.maxExchangesPerSecond = maxExchangesPerSecond;
+            return this;
+        }
+
+        public BatchCredentialsResolver build() {
+            return new BatchCredentialsResolver(this);
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.awssdk.trustedidentitypropagation;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+import software.amazon.awssdk.annotations.Mutable;
+import software.amazon.awssdk.annotations.NotThreadSafe;
+import software.amazon.awssdk.annotations.SdkPublicApi;
+import software.amazon.awssdk.annotations.SdkTestInternalApi;
+import software.amazon.awssdk.annotations.ThreadSafe;
+import software.amazon.awssdk.trustedidentitypropagation.internal.WebTokenClaims;
+import software.amazon.awssdk.utils.SdkAutoCloseable;
+import software.amazon.awssdk.utils.Validate;
+import software.amazon.awssdk.utils.cache.CachedSupplier;
+import software.amazon.awssdk.utils.cache.NonBlocking;
+import software.amazon.awssdk.utils.cache.OneCallerBlocks;
+import software.amazon.awssdk.utils.cache.RefreshResult;
+
+/**
+ * Caches the web token returned by a web token provider until shortly before it expires, so that the external identity
+ * provider is called once per token lifetime instead of once per credential refresh.
+ * <p>
+ * The expiration is read from the {@code exp} claim of the token, which is decoded locally without verifying its
+ * signature. The token is reused until {@code expirationSkew} before it expires, and refreshed in the background from
+ * {@code prefetchTime} before it expires. Tokens without an {@code exp} claim are not cached; the provider is called
+ * directly until it returns a token with an expiration again.
+ * <p>
+ * This caches the single token of a web token provider that returns the token of one identity. Do not use it with the
+ * identity cache, where the web token provider returns the token of the user the current request is made for.
+ *
+ * <pre>{@code
+ * TrustedIdentityPropagationPlugin.builder()
+ *     .webTokenProvider(CachingWebTokenProvider.create(() -> idp.fetchIdToken()))
+ *     ...
+ *     .build();
+ * }</pre>
+ */
+@SdkPublicApi
+@ThreadSafe
+public final class CachingWebTokenProvider implements Supplier<String>, SdkAutoCloseable {
+
+    private static final Duration DEFAULT_EXPIRATION_SKEW = Duration.ofMinutes(1);
+    private static final Duration DEFAULT_PREFETCH_TIME = Duration.ofMinutes(5);
+
+    private final Supplier<String> webTokenProvider;
+    private final Duration expirationSkew;
+    private final Duration prefetchTime;
+    private final Clock clock;
+    private final boolean asyncRefreshEnabled;
+
+    /**
+     * The cache of the current token. It is replaced once the provider issues expiring tokens again, since the cache
+     * still holds the last token without an expiration. Guarded by {@code this} for replacement.
+     */
+    private volatile CachedSupplier<String> webToken;
+    private volatile boolean expirationKnown = true;
+
+    private CachingWebTokenProvider(Builder builder) {
+        this.webTokenProvider = Validate.paramNotNull(builder.webTokenProvider, "webTokenProvider");
+        this.expirationSkew = Validate.getOrDefault(builder.expirationSkew, () -> DEFAULT_EXPIRATION_SKEW);
+        this.prefetchTime = Validate.getOrDefault(builder.prefetchTime, () -> DEFAULT_PREFETCH_TIME);
+        Validate.isNotNegative(expirationSkew, "expirationSkew");
+        Validate.isTrue(prefetchTime.compareTo(expirationSkew) >= 0,
+                        "prefetchTime must not be shorter than expirationSkew.");
+        this.clock = Validate.getOrDefault(builder.clock, Clock::systemUTC);
+
+        this.asyncRefreshEnabled = Validate.getOrDefault(builder.asyncRefreshEnabled, () -> true);
+        this.webToken = newCache(null);
+    }
+
+    public static CachingWebTokenProvider create(Supplier<String> webTokenProvider) {
+        return builder().webTokenProvider(webTokenProvider).build();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public String get() {
+        if (!expirationKnown) {
+            String token = webTokenProvider.get();
+            if (expiration(token) != null) {
+                resumeCaching(token);
+            }
+            return token;
+        }
+        return webToken.get();
+    }
+
+    @Override
+    public synchronized void close() {
+        webToken.close();
+    }
+
+    @Override
+    public String toString() {
+        return "CachingWebTokenProvider()";
+    }
+
+    /**
+     * Starts caching tokens again from the given token, which has an expiration.
+     */
+    private synchronized void resumeCaching(String token) {
+        if (expirationKnown) {
+            return;
+        }
+        CachedSupplier<String> previous = webToken;
+        webToken = newCache(token);
+        expirationKnown = true;
+        previous.close();
+    }
+
+    /**
+     * Creates a cache whose first value is the given token, or a token from the provider if it is null.
+     */
+    private CachedSupplier<String> newCache(String firstToken) {
+        AtomicReference<String> pendingToken = new AtomicReference<>(firstToken);
+        return CachedSupplier.builder(() -> refreshWebToken(pendingToken.getAndSet(null)))
+                             .cachedValueName(toString())
+                             .prefetchStrategy(asyncRefreshEnabled
+                                               ? new NonBlocking("web-token-provider")
+                                               : new OneCallerBlocks())
+                             .clock(clock)
+                             .build();
+    }
+
+    private RefreshResult<String> refreshWebToken(String pendingToken) {
+        String token = pendingToken != null
+                       ? pendingToken
+                       : Validate.notNull(webTokenProvider.get(), "The web token provider returned a null token.");
+        Instant expiration = expiration(token);
+        if (expiration == null) {
+            // Without an expiration the token cannot be reused safely, so later tokens bypass the cache until the
+            // provider returns a token with an expiration.
+            expirationKnown = false;
+            return RefreshResult.builder(token).staleTime(clock.instant()).build();
+        }
+        return RefreshResult.builder(token)
+                            .staleTime(expiration.minus(expirationSkew))
+                            .prefetchTime(expiration.minus(prefetchTime))
+                            .build();
+    }
+
+    private static Instant expiration(String token) {
+        return token == null ? null : WebTokenClaims.parse(token).flatMap(WebTokenClaims::expiration).orElse(null);
+    }
+
+    @SdkPublicApi
+    @NotThreadSafe
+    @Mutable
+    public static final class Builder {
+        private Supplier<String> webTokenProvider;
+        private Duration expirationSkew;
+        private Duration prefetchTime;
+        private Boolean asyncRefreshEnabled;
+        private Clock clock;
+
+        private Builder() {
+        }
+
+        /**
+         * The web token provider whose tokens are cached, typically one that calls the external identity provider.
+         */
+        public Builder webTokenProvider(Supplier<String> webTokenProvider) {
+            this.webTokenProvider = webTokenProvider;
+            return this;
+        }
+
+        /**
+         * How long before a token expires that it is no longer returned, so that it does not expire before it is
+         * exchanged. Defaults to 1 minute.
+         */
+        public Builder expirationSkew(Duration expirationSkew) {
+            this.expirationSkew = expirationSkew;
+            return this;
+        }
+
+        /**
+         * How long before a token expires that a new token is requested while the cached token keeps being returned.
+         * Defaults to 5 minutes.
+         */
+        public Builder prefetchTime(Duration prefetchTime) {
+            this.prefetchTime = prefetchTime;
+            return this;
+        }
+
+        /**
+         * Whether new tokens are requested on a background thread instead of the calling thread. Defaults to true.
+         */
+        public Builder asyncRefreshEnabled(Boolean asyncRefreshEnabled) {
+            this.asyncRefreshEnabled = asyncRefreshEnabled;
+            return this;
+        }
+
+        @SdkTestInternalApi
+        Builder clock(Clock clock) {
+            this.clock = clock;
+            return this;
+        }
+
+        public CachingWebTokenProvider build() {
+            return new CachingWebTokenProvider(this);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.awssdk.trustedidentitypropagation;
+
+import software.amazon.awssdk.annotations.SdkPublicApi;
+
+/**
+ * The events of the identity-aware credentials cache, as reported to an {@link ExchangeListener}.
+ */
+@SdkPublicApi
+public enum CredentialsCacheEvent {
+    /**
+     * Credentials were served from the cache without waiting.
+     */
+    HIT,
+
+    /**
+     * Credentials were served from the cache while a refresh was due.
+     */
+    HIT_REFRESH_DUE,
+
+    /**
+     * The caller waited for credentials, either on its own refresh or on another caller's. Reported with the time the
+     * caller waited.
+     */
+    MISS,
+
+    /**
+     * A refresh of the credentials of an identity succeeded.
+     */
+    REFRESH_SUCCEEDED,
+
+    /**
+     * A refresh of the credentials of an identity failed.
+     */
+    REFRESH_FAILED,
+
+    /**
+     * A refresh was not attempted because of the backoff after a failed refresh or because OIDC or STS are failing.
+     */
+    REFRESH_SKIPPED,
+
+    /**
+     * Stale credentials were served because they could not be refreshed.
+     */
+    GRACE_PERIOD_SERVED
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.awssdk.trustedidentitypropagation;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Objects;
+import software.amazon.awssdk.annotations.Immutable;
+import software.amazon.awssdk.annotations.SdkPublicApi;
+import software.amazon.awssdk.annotations.ThreadSafe;
+import software.amazon.awssdk.utils.ToString;
+import software.amazon.awssdk.utils.Validate;
+
+/**
+ * The encrypted credentials of one identity in a {@link DistributedCredentialsStore}, with the time they expire and
+ * the version that {@link DistributedCredentialsStore#compareAndSet} compares.
+ */
+@SdkPublicApi
+@Immutable
+@ThreadSafe
+public final class DistributedCredentialsEntry {
+
+    private final byte[] value;
+    private final Instant expiration;
+    private final long version;
+
+    private DistributedCredentialsEntry(byte[] value, Instant expiration, long version) {
+        this.value = Validate.paramNotNull(value, "value").clone();
+        this.expiration = Validate.paramNotNull(expiration, "expiration");
+        this.version = version;
+    }
+
+    public static DistributedCredentialsEntry create(byte[] value, Instant expiration, long version) {
+        return new DistributedCredentialsEntry(value, expiration, version);
+    }
+
+    /**
+     * The encrypted credentials.
+     */
+    public byte[] value() {
+        return value.clone();
+    }
+
+    /**
+     * When the credentials expire. The entry can be dropped from then on.
+     */
+    public Instant expiration() {
+        return expiration;
+    }
+
+    /**
+     * The version of the entry, one more than the version of the entry it replaced.
+     */
+    public long version() {
+        return version;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        DistributedCredentialsEntry that = (DistributedCredentialsEntry) o;
+        return version == that.version
+               && expiration.equals(that.expiration)
+               && Arrays.equals(value, that.value);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Objects.hash(expiration, version) + Arrays.hashCode(value);
+    }
+
+    @Override
+    public String toString() {
+        return ToString.builder("DistributedCredentialsEntry")
+                       .add("expiration", expiration)
+                       .add("version", version)
+                       .build();
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.awssdk.trustedidentitypropagation;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import software.amazon.awssdk.annotations.SdkPublicApi;
+import software.amazon.awssdk.annotations.ThreadSafe;
+
+/**
+ * A store shared by the nodes of a fleet, e.g. a cache cluster or a database table, that lets a node serve the
+ * identity-aware credentials another node already exchanged instead of calling OIDC and STS for the same identity
+ * again.
+ * <p>
+ * The plugin looks up an identity's credentials in the store before each exchange and publishes the credentials of
+ * every exchange with {@link #compareAndSet}, so that a node never replaces credentials that another node stored in the
+ * meantime. Entries are opaque to the store: the credentials are encrypted by the plugin before they are stored, and
+ * the keys are derived from the application, role and identity without revealing them. Implementations should drop
+ * entries after their {@link DistributedCredentialsEntry#expiration()}, e.g. with a time to live.
+ * <p>
+ * Since callers may be resolving credentials without blocking, e.g. on the event loop of an SDK async client,
+ * implementations must not block in their methods; they should return a future that completes with the result of the
+ * store's asynchronous client instead, or run a blocking client on an executor of their own. Futures should fail fast
+ * rather than wait long; a call that takes longer than two seconds is given up on. Failures of the store are logged and
+ * otherwise ignored, the credentials are then exchanged as if the store was empty.
+ * <p>
+ * Sharing is best-effort: nodes that refresh an identity at the same time each exchange it, and the compare-and-set only
+ * decides whose credentials are kept. {@link InMemoryDistributedCredentialsStore} is a reference implementation.
+ */
+@SdkPublicApi
+@ThreadSafe
+public interface DistributedCredentialsStore {
+
+    /**
+     * Returns a future of the entry for the key, which is empty if there is none or it has expired.
+     */
+    CompletableFuture<Optional<DistributedCredentialsEntry>> get(String key);
+
+    /**
+     * Stores the entry only if the entry currently stored for the key has the version of {@code expected}, or, if
+     * {@code expected} is null, if there is no entry for the key.
+     *
+     * @return A future of whether the entry was stored.
+     */
+    CompletableFuture<Boolean> compareAndSet(String key, DistributedCredentialsEntry expected,
+                                             DistributedCredentialsEntry replacement);
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.awssdk.trustedidentitypropagation;
+
+import software.amazon.awssdk.annotations.SdkPublicApi;
+
+/**
+ * The service APIs that the plugin calls to exchange a web token for identity-aware credentials.
+ */
+@SdkPublicApi
+public enum ExchangeApi {
+    /**
+     * The IAM Identity Center OIDC {@code CreateTokenWithIAM} API, which exchanges a web token for an IAM Identity
+     * Center token or renews one.
+     */
+    CREATE_TOKEN_WITH_IAM,
+
+    /**
+     * The STS {@code AssumeRole} API, which exchanges the identity context of an IAM Identity Center token for
+     * credentials.
+     */
+    ASSUME_ROLE
+}
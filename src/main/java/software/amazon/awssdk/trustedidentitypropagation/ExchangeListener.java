@@ -0,0 +1,56 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.awssdk.trustedidentitypropagation;
+
+import java.time.Duration;
+import software.amazon.awssdk.annotations.SdkPublicApi;
+import software.amazon.awssdk.annotations.ThreadSafe;
+
+/**
+ * Is told when each phase of a token exchange starts and ends, and about every event of the credentials cache, e.g.
+ * to trace where the time of a slow request went. See {@link OpenTelemetryExchangeListener}.
+ * <p>
+ * The listener is called on the threads that resolve credentials and complete exchanges, so it must be fast and must
+ * not block. Exceptions thrown by the listener are logged and otherwise ignored. Without a listener, no events are
+ * created.
+ */
+@SdkPublicApi
+@ThreadSafe
+public interface ExchangeListener {
+
+    /**
+     * Called when a phase of an exchange starts.
+     *
+     * @param phase The phase that started.
+     * @param parent The span of the phase this phase is nested in, or null if it is not nested, e.g. for
+     * {@link ExchangePhase#EXCHANGE}.
+     * @return The span to end once the phase completes.
+     */
+    default ExchangeSpan phaseStarted(ExchangePhase phase, ExchangeSpan parent) {
+        return (duration, failure) -> {
+        };
+    }
+
+    /**
+     * Called for every event of the credentials cache.
+     *
+     * @param event The event.
+     * @param duration How long the caller waited for credentials for {@link CredentialsCacheEvent#MISS}, otherwise
+     * {@link Duration#ZERO}.
+     */
+    default void cacheEvent(CredentialsCacheEvent event, Duration duration) {
+    }
+}
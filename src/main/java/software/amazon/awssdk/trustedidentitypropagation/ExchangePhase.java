@@ -0,0 +1,52 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.awssdk.trustedidentitypropagation;
+
+import software.amazon.awssdk.annotations.SdkPublicApi;
+
+/**
+ * The phases of exchanging a web token for identity-aware credentials, as reported to an {@link ExchangeListener}.
+ */
+@SdkPublicApi
+public enum ExchangePhase {
+    /**
+     * A whole exchange, from the first call to the identity-aware credentials. The other phases of the exchange are
+     * nested in it.
+     */
+    EXCHANGE,
+
+    /**
+     * Waiting for a permit of the rate limiter before a call.
+     */
+    RATE_LIMIT_WAIT,
+
+    /**
+     * A {@code CreateTokenWithIAM} call, which exchanges the web token for an IAM Identity Center token or renews one.
+     */
+    CREATE_TOKEN_WITH_IAM,
+
+    /**
+     * An {@code AssumeRole} call with the identity context of the IAM Identity Center token.
+     */
+    ASSUME_ROLE,
+
+    /**
+     * An {@code AssumeRoleWithWebIdentity} call that resolves the credentials of the default OIDC client. Only reported
+     * when the plugin creates the OIDC client, and without a parent, since the OIDC client resolves its credentials
+     * outside of any one exchange.
+     */
+    ASSUME_ROLE_WITH_WEB_IDENTITY
+}
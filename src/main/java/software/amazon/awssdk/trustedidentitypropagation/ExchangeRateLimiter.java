@@ -0,0 +1,39 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.awssdk.trustedidentitypropagation;
+
+import java.util.concurrent.CompletableFuture;
+import software.amazon.awssdk.annotations.SdkPublicApi;
+import software.amazon.awssdk.annotations.ThreadSafe;
+
+/**
+ * Limits the rate at which the plugin calls the OIDC and STS APIs, e.g. to keep a fleet of processes under the request
+ * quotas of the account. See {@link TokenBucketRateLimiter}.
+ * <p>
+ * The plugin asks for a permit before every call and makes the call once the returned future completes. Since callers
+ * may be resolving credentials without blocking, implementations must not block in {@link #acquire(ExchangeApi)}; they
+ * should return a future that completes when the permit becomes available instead. One rate limiter can be shared by
+ * several plugins to limit the calls of the whole process.
+ */
+@SdkPublicApi
+@ThreadSafe
+public interface ExchangeRateLimiter {
+
+    /**
+     * Returns a future that completes once a call to the given API may be made.
+     */
+    CompletableFuture<Void> acquire(ExchangeApi api);
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.awssdk.trustedidentitypropagation;
+
+import java.time.Duration;
+import software.amazon.awssdk.annotations.SdkPublicApi;
+
+/**
+ * A phase of an exchange that is in progress, as returned by {@link ExchangeListener#phaseStarted}.
+ */
+@SdkPublicApi
+public interface ExchangeSpan {
+
+    /**
+     * Called once when the phase completes.
+     *
+     * @param duration How long the phase took.
+     * @param failure Why the phase failed, or null if it succeeded.
+     */
+    void end(Duration duration, Throwable failure);
+}
@@ -0,0 +1,345 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.awssdk.trustedidentitypropagation;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.crypto.SecretKey;
+import software.amazon.awssdk.annotations.Mutable;
+import software.amazon.awssdk.annotations.NotThreadSafe;
+import software.amazon.awssdk.annotations.SdkPublicApi;
+import software.amazon.awssdk.annotations.SdkTestInternalApi;
+import software.amazon.awssdk.annotations.ThreadSafe;
+import software.amazon.awssdk.auth.credentials.AwsSessionCredentials;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.trustedidentitypropagation.internal.CredentialsCodec;
+import software.amazon.awssdk.utils.Logger;
+import software.amazon.awssdk.utils.SdkAutoCloseable;
+import software.amazon.awssdk.utils.ThreadFactoryBuilder;
+import software.amazon.awssdk.utils.Validate;
+
+/**
+ * An {@link IdentityAwareCredentialsStore} that keeps the credentials in a single file encrypted with AES-GCM.
+ * <p>
+ * The file is read once when the store is created. Stored credentials are written to the file in the background,
+ * {@code writeDelay} after the first credentials stored since the last write, so that the credentials of exchanges
+ * completing together are written at once and storing credentials never waits on the disk. Credentials stored within
+ * the delay before the process ends are lost unless the store is flushed or closed. Each write encrypts the whole store with
+ * a fresh nonce into a temporary file that then replaces the store file, so a crash never leaves a partially written
+ * store behind. Expired credentials are dropped when the file is written. A file that cannot be
+ * decrypted, e.g. because the key changed, is ignored and replaced on the next write.
+ * <p>
+ * Only the credentials are encrypted, the key must be kept separately, e.g. in a secrets manager or a hardware-backed
+ * key store. Processes that share the file must not write it at the same time.
+ *
+ * <pre>{@code
+ * TrustedIdentityPropagationPlugin.builder()
+ *     ...
+ *     .credentialsStore(FileCredentialsStore.create(Paths.get("/var/cache/app/tip-credentials"), key))
+ *     .build();
+ * }</pre>
+ */
+@SdkPublicApi
+@ThreadSafe
+public final class FileCredentialsStore implements IdentityAwareCredentialsStore, SdkAutoCloseable {
+
+    private static final Logger LOGGER = Logger.loggerFor(FileCredentialsStore.class);
+
+    private static final int MAGIC = 0x54495043;
+    private static final byte VERSION = 1;
+    private static final int HEADER_LENGTH = Integer.BYTES + 1;
+    private static final Duration DEFAULT_WRITE_DELAY = Duration.ofSeconds(1);
+
+    private final Path path;
+    private final SecretKey encryptionKey;
+    private final Clock clock;
+    private final Duration writeDelay;
+    private final Map<IdentityAwareCredentialsKey, AwsSessionCredentials> credentials = new ConcurrentHashMap<>();
+    private final Object writeLock = new Object();
+    private final AtomicBoolean writeScheduled = new AtomicBoolean();
+    private final ScheduledThreadPoolExecutor writer;
+
+    private FileCredentialsStore(Builder builder) {
+        this.path = Validate.paramNotNull(builder.path, "path").toAbsolutePath();
+        this.encryptionKey = Validate.paramNotNull(builder.encryptionKey, "encryptionKey");
+        Validate.isTrue("AES".equalsIgnoreCase(encryptionKey.getAlgorithm()), "encryptionKey must be an AES key.");
+        this.clock = Validate.getOrDefault(builder.clock, Clock::systemUTC);
+        this.writeDelay = Validate.getOrDefault(builder.writeDelay, () -> DEFAULT_WRITE_DELAY);
+        Validate.isNotNegative(writeDelay, "writeDelay");
+        this.writer = new ScheduledThreadPoolExecutor(1, new ThreadFactoryBuilder()
+            .threadNamePrefix("file-credentials-store-writer")
+            .daemonThreads(true)
+            .build());
+        writer.setKeepAliveTime(30, TimeUnit.SECONDS);
+        writer.allowCoreThreadTimeOut(true);
+        writer.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        readFile();
+    }
+
+    public static FileCredentialsStore create(Path path, SecretKey encryptionKey) {
+        return builder().path(path).encryptionKey(encryptionKey).build();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public Optional<AwsSessionCredentials> load(IdentityAwareCredentialsKey key) {
+        return Optional.ofNullable(credentials.get(key)).filter(c -> !isExpired(c, clock.instant()));
+    }
+
+    /**
+     * Stores the credentials and schedules a write of the file, unless one is already scheduled. Credentials without an
+     * expiration are not stored, since it cannot be told when they are no longer valid. Once the store is closed,
+     * credentials are only kept in memory.
+     */
+    @Override
+    public void store(IdentityAwareCredentialsKey key, AwsSessionCredentials credentials) {
+        Validate.paramNotNull(key, "key");
+        Validate.paramNotNull(credentials, "credentials");
+        if (!credentials.expirationTime().isPresent()) {
+            return;
+        }
+        this.credentials.put(key, credentials);
+        if (writeScheduled.compareAndSet(false, true)) {
+            try {
+                writer.schedule(this::writeInBackground, writeDelay.toMillis(), TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                LOGGER.debug(() -> this + " is closed; the credentials are not written to the file.");
+            }
+        }
+    }
+
+    /**
+     * Writes the stored credentials to the file now, e.g. before the process shuts down, rather than waiting for the
+     * scheduled write.
+     *
+     * @throws SdkClientException if the file could not be written.
+     */
+    public void flush() {
+        writeFile();
+    }
+
+    /**
+     * Writes the stored credentials to the file and stops the background writes.
+     *
+     * @throws SdkClientException if the file could not be written.
+     */
+    @Override
+    public void close() {
+        writer.shutdown();
+        flush();
+    }
+
+    @Override
+    public String toString() {
+        return "FileCredentialsStore(" + path + ")";
+    }
+
+    private static boolean isExpired(AwsSessionCredentials credentials, Instant now) {
+        return credentials.expirationTime().map(e -> !e.isAfter(now)).orElse(true);
+    }
+
+    private void readFile() {
+        byte[] contents;
+        try {
+            contents = Files.readAllBytes(path);
+        } catch (NoSuchFileException e) {
+            return;
+        } catch (IOException e) {
+            LOGGER.warn(() -> "Failed to read the credentials store " + path + "; starting with an empty store.", e);
+            return;
+        }
+        try {
+            credentials.putAll(decode(decrypt(contents)));
+        } catch (IOException | GeneralSecurityException | RuntimeException e) {
+            LOGGER.warn(() -> "Failed to decrypt the credentials store " + path + "; it will be replaced on the next "
+                              + "write.", e);
+        }
+    }
+
+    private void writeInBackground() {
+        // Cleared before writing, so that credentials stored during the write schedule another one.
+        writeScheduled.set(false);
+        try {
+            writeFile();
+        } catch (SdkClientException e) {
+            LOGGER.warn(() -> "Failed to write the credentials store; the credentials will be written with the next "
+                              + "stored credentials.", e);
+        }
+    }
+
+    private void writeFile() {
+        synchronized (writeLock) {
+            Instant now = clock.instant();
+            credentials.values().removeIf(c -> isExpired(c, now));
+            Path temporaryFile = null;
+            try {
+                byte[] contents = encrypt(encode(credentials));
+                Path directory = path.getParent();
+                Files.createDirectories(directory);
+                temporaryFile = Files.createTempFile(directory, path.getFileName().toString(), ".tmp",
+                                                     ownerOnlyPermissions(directory));
+                Files.write(temporaryFile, contents);
+                Files.move(temporaryFile, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException | GeneralSecurityException e) {
+                throw SdkClientException.create("Failed to write the credentials store " + path, e);
+            } finally {
+                deleteQuietly(temporaryFile);
+            }
+        }
+    }
+
+    private static FileAttribute<?>[] ownerOnlyPermissions(Path directory) {
+        if (!directory.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            return new FileAttribute<?>[0];
+        }
+        return new FileAttribute<?>[] {PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------"))};
+    }
+
+    private static void deleteQuietly(Path file) {
+        if (file == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            LOGGER.debug(() -> "Failed to delete " + file, e);
+        }
+    }
+
+    /**
+     * Encrypts the plaintext into {@code magic | version | nonce | ciphertext}, authenticating the header with it.
+     */
+    private byte[] encrypt(byte[] plaintext) throws GeneralSecurityException {
+        byte[] header = ByteBuffer.allocate(HEADER_LENGTH).putInt(MAGIC).put(VERSION).array();
+        byte[] encrypted = CredentialsCodec.encrypt(encryptionKey, plaintext, header);
+        return ByteBuffer.allocate(HEADER_LENGTH + encrypted.length)
+                         .put(header)
+                         .put(encrypted)
+                         .array();
+    }
+
+    private byte[] decrypt(byte[] contents) throws GeneralSecurityException {
+        Validate.isTrue(contents.length > HEADER_LENGTH, "The credentials store is truncated.");
+        ByteBuffer buffer = ByteBuffer.wrap(contents);
+        Validate.isTrue(buffer.getInt() == MAGIC, "The file is not a credentials store.");
+        byte version = buffer.get();
+        Validate.isTrue(version == VERSION, "Unsupported credentials store version %s.", version);
+        return CredentialsCodec.decrypt(encryptionKey, contents, HEADER_LENGTH, Arrays.copyOf(contents, HEADER_LENGTH));
+    }
+
+    private static byte[] encode(Map<IdentityAwareCredentialsKey, AwsSessionCredentials> entries) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        Map<IdentityAwareCredentialsKey, AwsSessionCredentials> snapshot = new HashMap<>(entries);
+        out.writeInt(snapshot.size());
+        for (Map.Entry<IdentityAwareCredentialsKey, AwsSessionCredentials> entry : snapshot.entrySet()) {
+            IdentityAwareCredentialsKey key = entry.getKey();
+            CredentialsCodec.writeString(out, key.applicationArn());
+            CredentialsCodec.writeString(out, key.roleArn());
+            CredentialsCodec.writeString(out, key.identity());
+            CredentialsCodec.writeCredentials(out, entry.getValue());
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static Map<IdentityAwareCredentialsKey, AwsSessionCredentials> decode(byte[] plaintext) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(plaintext));
+        int size = in.readInt();
+        Map<IdentityAwareCredentialsKey, AwsSessionCredentials> entries = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            IdentityAwareCredentialsKey key = IdentityAwareCredentialsKey.create(CredentialsCodec.readString(in),
+                                                                                 CredentialsCodec.readString(in),
+                                                                                 CredentialsCodec.readString(in));
+            entries.put(key, CredentialsCodec.readCredentials(in));
+        }
+        return entries;
+    }
+
+    @SdkPublicApi
+    @NotThreadSafe
+    @Mutable
+    public static final class Builder {
+        private Path path;
+        private SecretKey encryptionKey;
+        private Clock clock;
+        private Duration writeDelay;
+
+        private Builder() {
+        }
+
+        /**
+         * The file the credentials are kept in. Its directory is created if it does not exist.
+         */
+        public Builder path(Path path) {
+            this.path = path;
+            return this;
+        }
+
+        /**
+         * The AES key the file is encrypted with.
+         */
+        public Builder encryptionKey(SecretKey encryptionKey) {
+            this.encryptionKey = encryptionKey;
+            return this;
+        }
+
+        /**
+         * How long after credentials are stored the file is written, so that the credentials stored in the meantime
+         * are written with them. Defaults to 1 second.
+         */
+        public Builder writeDelay(Duration writeDelay) {
+            this.writeDelay = writeDelay;
+            return this;
+        }
+
+        @SdkTestInternalApi
+        Builder clock(Clock clock) {
+            this.clock = clock;
+            return this;
+        }
+
+        public FileCredentialsStore build() {
+            return new FileCredentialsStore(this);
+        }
+    }
+}
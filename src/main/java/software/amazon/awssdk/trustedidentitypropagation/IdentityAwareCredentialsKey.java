@@ -0,0 +1,99 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.awssdk.trustedidentitypropagation;
+
+import java.util.Objects;
+import software.amazon.awssdk.annotations.Immutable;
+import software.amazon.awssdk.annotations.SdkPublicApi;
+import software.amazon.awssdk.annotations.ThreadSafe;
+import software.amazon.awssdk.utils.ToString;
+import software.amazon.awssdk.utils.Validate;
+
+/**
+ * Identifies one set of identity-aware credentials: the IAM Identity Center application the web token was exchanged
+ * with, the role that was assumed, and the identity the credentials were issued for.
+ * <p>
+ * With the identity cache, the identity is a SHA-256 digest of the web token, so the credentials are only ever served
+ * to the exact token they were exchanged for. Otherwise it is the identity label of the provider.
+ */
+@SdkPublicApi
+@Immutable
+@ThreadSafe
+public final class IdentityAwareCredentialsKey {
+
+    private final String applicationArn;
+    private final String roleArn;
+    private final String identity;
+
+    private IdentityAwareCredentialsKey(String applicationArn, String roleArn, String identity) {
+        this.applicationArn = Validate.paramNotNull(applicationArn, "applicationArn");
+        this.roleArn = Validate.paramNotNull(roleArn, "roleArn");
+        this.identity = Validate.paramNotNull(identity, "identity");
+    }
+
+    public static IdentityAwareCredentialsKey create(String applicationArn, String roleArn, String identity) {
+        return new IdentityAwareCredentialsKey(applicationArn, roleArn, identity);
+    }
+
+    /**
+     * The ARN of the IAM Identity Center application the web token was exchanged with.
+     */
+    public String applicationArn() {
+        return applicationArn;
+    }
+
+    /**
+     * The ARN of the role the credentials were issued for.
+     */
+    public String roleArn() {
+        return roleArn;
+    }
+
+    /**
+     * The identity the credentials were issued for.
+     */
+    public String identity() {
+        return identity;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        IdentityAwareCredentialsKey that = (IdentityAwareCredentialsKey) o;
+        return applicationArn.equals(that.applicationArn)
+               && roleArn.equals(that.roleArn)
+               && identity.equals(that.identity);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(applicationArn, roleArn, identity);
+    }
+
+    @Override
+    public String toString() {
+        return ToString.builder("IdentityAwareCredentialsKey")
+                       .add("applicationArn", applicationArn)
+                       .add("roleArn", roleArn)
+                       .add("identity", identity)
+                       .build();
+    }
+}
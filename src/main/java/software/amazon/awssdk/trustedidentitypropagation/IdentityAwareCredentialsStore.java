@@ -0,0 +1,51 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.awssdk.trustedidentitypropagation;
+
+import java.util.Optional;
+import software.amazon.awssdk.annotations.SdkPublicApi;
+import software.amazon.awssdk.annotations.ThreadSafe;
+import software.amazon.awssdk.auth.credentials.AwsSessionCredentials;
+
+/**
+ * Keeps identity-aware credentials beyond the lifetime of the process that obtained them, so that a restarted process
+ * can serve still-valid credentials without exchanging web tokens again.
+ * <p>
+ * The plugin looks up the credentials of an identity before its first exchange and stores the credentials of every
+ * exchange as it completes. Stored credentials are only used until they become stale, and are refreshed like any
+ * other cached credentials. Failures of the store are logged and otherwise ignored, so that the store can never fail a
+ * request.
+ * <p>
+ * The credentials are secrets: implementations must protect them at rest, e.g. by encrypting them as
+ * {@link FileCredentialsStore} does.
+ */
+@SdkPublicApi
+@ThreadSafe
+public interface IdentityAwareCredentialsStore {
+
+    /**
+     * Returns the stored credentials for the key, or an empty optional if there are none. The returned credentials
+     * may have expired; the plugin discards those.
+     */
+    Optional<AwsSessionCredentials> load(IdentityAwareCredentialsKey key);
+
+    /**
+     * Stores the credentials of a completed exchange, replacing any credentials stored for the key. It is called after
+     * the callers waiting on the exchange have been served, but on the thread that completed it, so implementations
+     * should persist the credentials in the background rather than block.
+     */
+    void store(IdentityAwareCredentialsKey key, AwsSessionCredentials credentials);
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.awssdk.trustedidentitypropagation;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import software.amazon.awssdk.annotations.SdkPublicApi;
+import software.amazon.awssdk.annotations.SdkTestInternalApi;
+import software.amazon.awssdk.annotations.ThreadSafe;
+import software.amazon.awssdk.utils.Validate;
+
+/**
+ * A {@link DistributedCredentialsStore} that keeps the entries in memory, as a reference for implementations backed by
+ * a shared service. It only shares credentials between the plugins that use the same instance, e.g. in tests.
+ * <p>
+ * Every call completes before it returns. Expired entries are dropped when they are read or replaced, and by
+ * {@link #removeExpired()}.
+ */
+@SdkPublicApi
+@ThreadSafe
+public final class InMemoryDistributedCredentialsStore implements DistributedCredentialsStore {
+
+    private final Map<String, DistributedCredentialsEntry> entries = new ConcurrentHashMap<>();
+    private final Clock clock;
+
+    private InMemoryDistributedCredentialsStore(Clock clock) {
+        this.clock = clock;
+    }
+
+    public static InMemoryDistributedCredentialsStore create() {
+        return new InMemoryDistributedCredentialsStore(Clock.systemUTC());
+    }
+
+    @SdkTestInternalApi
+    static InMemoryDistributedCredentialsStore create(Clock clock) {
+        return new InMemoryDistributedCredentialsStore(clock);
+    }
+
+    @Override
+    public CompletableFuture<Optional<DistributedCredentialsEntry>> get(String key) {
+        Validate.paramNotNull(key, "key");
+        DistributedCredentialsEntry entry = entries.get(key);
+        if (entry != null && isExpired(entry, clock.instant())) {
+            entries.remove(key, entry);
+            return CompletableFuture.completedFuture(Optional.empty());
+        }
+        return CompletableFuture.completedFuture(Optional.ofNullable(entry));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> compareAndSet(String key, DistributedCredentialsEntry expected,
+                                                    DistributedCredentialsEntry replacement) {
+        Validate.paramNotNull(key, "key");
+        Validate.paramNotNull(replacement, "replacement");
+        Instant now = clock.instant();
+        boolean[] replaced = new boolean[1];
+        entries.compute(key, (k, current) -> {
+            DistributedCredentialsEntry live = current == null || isExpired(current, now) ? null : current;
+            boolean matches = expected == null ? live == null : live != null && live.version() == expected.version();
+            replaced[0] = matches;
+            return matches ? replacement : live;
+        });
+        return CompletableFuture.completedFuture(replaced[0]);
+    }
+
+    /**
+     * Drops the entries that have expired.
+     */
+    public void removeExpired() {
+        Instant now = clock.instant();
+        entries.values().removeIf(e -> isExpired(e, now));
+    }
+
+    /**
+     * The number of entries, including expired ones that have not been dropped yet.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    @Override
+    public String toString() {
+        return "InMemoryDistributedCredentialsStore(" + entries.size() + " entries)";
+    }
+
+    private static boolean isExpired(DistributedCredentialsEntry entry, Instant now) {
+        return !entry.expiration().isAfter(now);
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.awssdk.trustedidentitypropagation;
+
+import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.context.Context;
+import java.time.Duration;
+import java.time.Instant;
+import software.amazon.awssdk.annotations.SdkPublicApi;
+import software.amazon.awssdk.annotations.ThreadSafe;
+import software.amazon.awssdk.utils.Validate;
+
+/**
+ * An {@link ExchangeListener} that records the phases of every exchange as OpenTelemetry spans.
+ * <p>
+ * An exchange is a span named {@code TrustedIdentityPropagation.Exchange}, a child of the span current on the thread
+ * that started it, with a client span for each OIDC and STS call and an internal span for each wait on the rate
+ * limiter nested in it. Failed phases record the exception and have an error status. The time a request waited for
+ * credentials is an internal span named {@code TrustedIdentityPropagation.WaitForCredentials}, and the other cache
+ * events are added to the current span as events, e.g. {@code TrustedIdentityPropagation.CacheHit}.
+ * <p>
+ * OpenTelemetry is an optional dependency of the plugin. Add {@code io.opentelemetry:opentelemetry-api} to use this
+ * listener.
+ *
+ * <pre>{@code
+ * TrustedIdentityPropagationPlugin.builder()
+ *     ...
+ *     .exchangeListener(OpenTelemetryExchangeListener.create(GlobalOpenTelemetry.get()))
+ *     .build();
+ * }</pre>
+ */
+@SdkPublicApi
+@ThreadSafe
+public final class OpenTelemetryExchangeListener implements ExchangeListener {
+
+    /**
+     * The name of the tracer that records the spans, for {@link #create(OpenTelemetry)}.
+     */
+    public static final String INSTRUMENTATION_SCOPE_NAME = "software.amazon.awssdk.trustedidentitypropagation";
+
+    private static final String SPAN_NAME_PREFIX = "TrustedIdentityPropagation.";
+    private static final String WAIT_FOR_CREDENTIALS_SPAN_NAME = SPAN_NAME_PREFIX + "WaitForCredentials";
+
+    private final Tracer tracer;
+
+    private OpenTelemetryExchangeListener(Tracer tracer) {
+        this.tracer = Validate.paramNotNull(tracer, "tracer");
+    }
+
+    /**
+     * Creates a listener that records spans with the plugin's tracer of the given OpenTelemetry instance.
+     */
+    public static OpenTelemetryExchangeListener create(OpenTelemetry openTelemetry) {
+        Validate.paramNotNull(openTelemetry, "openTelemetry");
+        return new OpenTelemetryExchangeListener(openTelemetry.getTracer(INSTRUMENTATION_SCOPE_NAME, Helpers.getVersion()));
+    }
+
+    /**
+     * Creates a listener that records spans with the given tracer.
+     */
+    public static OpenTelemetryExchangeListener create(Tracer tracer) {
+        return new OpenTelemetryExchangeListener(tracer);
+    }
+
+    @Override
+    public ExchangeSpan phaseStarted(ExchangePhase phase, ExchangeSpan parent) {
+        Context parentContext = parent instanceof OpenTelemetrySpan
+                                ? Context.current().with(((OpenTelemetrySpan) parent).span)
+                                : Context.current();
+        Span span = tracer.spanBuilder(spanName(phase))
+                          .setParent(parentContext)
+                          .setSpanKind(spanKind(phase))
+                          .startSpan();
+        return new OpenTelemetrySpan(span);
+    }
+
+    @Override
+    public void cacheEvent(CredentialsCacheEvent event, Duration duration) {
+        if (event == CredentialsCacheEvent.MISS) {
+            tracer.spanBuilder(WAIT_FOR_CREDENTIALS_SPAN_NAME)
+                  .setSpanKind(SpanKind.INTERNAL)
+                  .setStartTimestamp(Instant.now().minus(duration))
+                  .startSpan()
+                  .end();
+            return;
+        }
+        Span current = Span.current();
+        if (current.isRecording()) {
+            current.addEvent(eventName(event));
+        }
+    }
+
+    private static String spanName(ExchangePhase phase) {
+        switch (phase) {
+            case EXCHANGE:
+                return SPAN_NAME_PREFIX + "Exchange";
+            case RATE_LIMIT_WAIT:
+                return SPAN_NAME_PREFIX + "RateLimitWait";
+            case CREATE_TOKEN_WITH_IAM:
+                return SPAN_NAME_PREFIX + "CreateTokenWithIAM";
+            case ASSUME_ROLE:
+                return SPAN_NAME_PREFIX + "AssumeRole";
+            case ASSUME_ROLE_WITH_WEB_IDENTITY:
+                return SPAN_NAME_PREFIX + "AssumeRoleWithWebIdentity";
+            default:
+                throw new IllegalArgumentException("Unknown exchange phase: " + phase);
+        }
+    }
+
+    private static SpanKind spanKind(ExchangePhase phase) {
+        switch (phase) {
+            case CREATE_TOKEN_WITH_IAM:
+            case ASSUME_ROLE:
+            case ASSUME_ROLE_WITH_WEB_IDENTITY:
+                return SpanKind.CLIENT;
+            default:
+                return SpanKind.INTERNAL;
+        }
+    }
+
+    private static String eventName(CredentialsCacheEvent event) {
+        switch (event) {
+            case HIT:
+                return SPAN_NAME_PREFIX + "CacheHit";
+            case HIT_REFRESH_DUE:
+                return SPAN_NAME_PREFIX + "CacheHitRefreshDue";
+            case REFRESH_SUCCEEDED:
+                return SPAN_NAME_PREFIX + "RefreshSucceeded";
+            case REFRESH_FAILED:
+                return SPAN_NAME_PREFIX + "RefreshFailed";
+            case REFRESH_SKIPPED:
+                return SPAN_NAME_PREFIX + "RefreshSkipped";
+            case GRACE_PERIOD_SERVED:
+                return SPAN_NAME_PREFIX + "GracePeriodServed";
+            default:
+                return SPAN_NAME_PREFIX + event;
+        }
+    }
+
+    private static final class OpenTelemetrySpan implements ExchangeSpan {
+        private final Span span;
+
+        private OpenTelemetrySpan(Span span) {
+            this.span = span;
+        }
+
+        @Override
+        public void end(Duration duration, Throwable failure) {
+            if (failure != null) {
+                span.recordException(failure);
+                span.setStatus(StatusCode.ERROR);
+            }
+            span.end();
+        }
+    }
+}
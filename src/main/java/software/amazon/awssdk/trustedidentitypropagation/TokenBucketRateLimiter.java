@@ -0,0 +1,134 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.awssdk.trustedidentitypropagation;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import software.amazon.awssdk.annotations.Mutable;
+import software.amazon.awssdk.annotations.NotThreadSafe;
+import software.amazon.awssdk.annotations.SdkPublicApi;
+import software.amazon.awssdk.annotations.ThreadSafe;
+import software.amazon.awssdk.trustedidentitypropagation.internal.TokenBucket;
+import software.amazon.awssdk.utils.Validate;
+
+/**
+ * An {@link ExchangeRateLimiter} with a token bucket per API, which allows bursts of up to one second's worth of calls.
+ * <p>
+ * Callers that have to wait reserve their permit right away and are completed in the order they asked, on the
+ * configured executor, so waiting neither spins nor holds a thread. A caller that would have to wait longer than the
+ * maximum wait fails right away with an {@code SdkClientException} instead, so a backlog of callers cannot push the
+ * wait of later callers without bound. APIs without a configured rate are not limited.
+ *
+ * <pre>{@code
+ * TokenBucketRateLimiter rateLimiter = TokenBucketRateLimiter.builder()
+ *     .permitsPerSecond(ExchangeApi.CREATE_TOKEN_WITH_IAM, 10)
+ *     .permitsPerSecond(ExchangeApi.ASSUME_ROLE, 20)
+ *     .build();
+ * }</pre>
+ */
+@SdkPublicApi
+@ThreadSafe
+public final class TokenBucketRateLimiter implements ExchangeRateLimiter {
+
+    private static final Duration DEFAULT_MAX_WAIT = Duration.ofSeconds(10);
+
+    private final Map<ExchangeApi, TokenBucket> buckets;
+
+    private TokenBucketRateLimiter(Builder builder) {
+        Map<ExchangeApi, TokenBucket> buckets = new EnumMap<>(ExchangeApi.class);
+        Executor executor = builder.executor != null ? builder.executor : ForkJoinPool.commonPool();
+        Duration maxWait = builder.maxWait != null ? builder.maxWait : DEFAULT_MAX_WAIT;
+        builder.permitsPerSecond.forEach((api, rate) -> buckets.put(api, new TokenBucket(rate, maxWait, executor)));
+        this.buckets = Collections.unmodifiableMap(buckets);
+    }
+
+    /**
+     * Creates a rate limiter that limits the calls to every API to the given rate.
+     */
+    public static TokenBucketRateLimiter create(double permitsPerSecond) {
+        Builder builder = builder();
+        for (ExchangeApi api : ExchangeApi.values()) {
+            builder.permitsPerSecond(api, permitsPerSecond);
+        }
+        return builder.build();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public CompletableFuture<Void> acquire(ExchangeApi api) {
+        TokenBucket bucket = buckets.get(api);
+        return bucket == null ? CompletableFuture.completedFuture(null) : bucket.acquireAsync();
+    }
+
+    @Override
+    public String toString() {
+        return "TokenBucketRateLimiter(" + buckets.keySet() + ")";
+    }
+
+    @SdkPublicApi
+    @NotThreadSafe
+    @Mutable
+    public static final class Builder {
+        private final Map<ExchangeApi, Double> permitsPerSecond = new EnumMap<>(ExchangeApi.class);
+        private Duration maxWait;
+        private Executor executor;
+
+        private Builder() {
+        }
+
+        /**
+         * The maximum rate of calls to the API, in calls per second.
+         */
+        public Builder permitsPerSecond(ExchangeApi api, double permitsPerSecond) {
+            Validate.paramNotNull(api, "api");
+            Validate.isTrue(permitsPerSecond > 0, "permitsPerSecond must be positive.");
+            this.permitsPerSecond.put(api, permitsPerSecond);
+            return this;
+        }
+
+        /**
+         * The longest a caller may have to wait for a permit. A caller that would have to wait longer fails right away.
+         * Defaults to 10 seconds.
+         */
+        public Builder maxWait(Duration maxWait) {
+            Validate.paramNotNull(maxWait, "maxWait");
+            Validate.isTrue(!maxWait.isNegative(), "maxWait must not be negative.");
+            this.maxWait = maxWait;
+            return this;
+        }
+
+        /**
+         * The executor that the permits of waiting callers are completed on, and so that their calls are started on.
+         * Defaults to the common fork-join pool.
+         */
+        public Builder executor(Executor executor) {
+            this.executor = Validate.paramNotNull(executor, "executor");
+            return this;
+        }
+
+        public TokenBucketRateLimiter build() {
+            return new TokenBucketRateLimiter(this);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.awssdk.trustedidentitypropagation;
+
+import java.time.Duration;
+import software.amazon.awssdk.annotations.SdkPublicApi;
+import software.amazon.awssdk.metrics.MetricCategory;
+import software.amazon.awssdk.metrics.MetricLevel;
+import software.amazon.awssdk.metrics.SdkMetric;
+
+/**
+ * Metrics reported by the plugin about its identity-aware credentials to the metric publishers configured on the
+ * plugin.
+ * <p>
+ * Each exchange of a web token for credentials is published as a collection named
+ * {@value #EXCHANGE_COLLECTION_NAME} as soon as it completes. The cache metrics are counted between publications and
+ * published once a minute, and when the plugin is closed, as a collection named {@value #CACHE_COLLECTION_NAME}.
+ */
+@SdkPublicApi
+public final class TrustedIdentityPropagationMetric {
+
+    /**
+     * The name of the metric collection published for every credential exchange.
+     */
+    public static final String EXCHANGE_COLLECTION_NAME = "IdentityAwareCredentialsExchange";
+
+    /**
+     * The name of the metric collection periodically published with the cache metrics.
+     */
+    public static final String CACHE_COLLECTION_NAME = "IdentityAwareCredentials";
+
+    /**
+     * The duration of the {@code CreateTokenWithIAM} call of an exchange. Not reported if the exchange reused a cached
+     * IAM Identity Center token.
+     */
+    public static final SdkMetric<Duration> OIDC_EXCHANGE_DURATION =
+        metric("OidcExchangeDuration", Duration.class);
+
+    /**
+     * The duration of the {@code AssumeRole} call of an exchange.
+     */
+    public static final SdkMetric<Duration> STS_EXCHANGE_DURATION =
+        metric("StsExchangeDuration", Duration.class);
+
+    /**
+     * How long the {@code CreateTokenWithIAM} call of an exchange waited for a permit of the rate limiter. Only reported
+     * if a rate limiter is configured.
+     */
+    public static final SdkMetric<Duration> OIDC_RATE_LIMIT_WAIT_DURATION =
+        metric("OidcRateLimitWaitDuration", Duration.class);
+
+    /**
+     * How long the {@code AssumeRole} call of an exchange waited for a permit of the rate limiter. Only reported if a
+     * rate limiter is configured.
+     */
+    public static final SdkMetric<Duration> STS_RATE_LIMIT_WAIT_DURATION =
+        metric("StsRateLimitWaitDuration", Duration.class);
+
+    /**
+     * Whether an exchange resulted in credentials.
+     */
+    public static final SdkMetric<Boolean> EXCHANGE_SUCCESSFUL =
+        metric("ExchangeSuccessful", Boolean.class);
+
+    /**
+     * The number of resolutions served from the cache without waiting.
+     */
+    public static final SdkMetric<Long> CACHE_HIT_COUNT =
+        metric("CredentialsCacheHitCount", Long.class);
+
+    /**
+     * The number of resolutions that waited for credentials, because the cache was empty or the credentials were
+     * stale.
+     */
+    public static final SdkMetric<Long> CACHE_MISS_COUNT =
+        metric("CredentialsCacheMissCount", Long.class);
+
+    /**
+     * The number of resolutions served from the cache while the credentials were due to be refreshed, i.e. past their
+     * prefetch time. Included in {@link #CACHE_HIT_COUNT}.
+     */
+    public static final SdkMetric<Long> STALE_SERVED_COUNT =
+        metric("CredentialsStaleServedCount", Long.class);
+
+    /**
+     * The number of completed credential refreshes, successful or not.
+     */
+    public static final SdkMetric<Long> REFRESH_COUNT =
+        metric("CredentialsRefreshCount", Long.class);
+
+    /**
+     * The number of credential refreshes that failed.
+     */
+    public static final SdkMetric<Long> REFRESH_FAILURE_COUNT =
+        metric("CredentialsRefreshFailureCount", Long.class);
+
+    /**
+     * The number of credential refreshes that were not attempted, because an earlier refresh failed and its backoff has
+     * not elapsed or because the circuit breaker is open.
+     */
+    public static final SdkMetric<Long> REFRESH_SKIPPED_COUNT =
+        metric("CredentialsRefreshSkippedCount", Long.class);
+
+    /**
+     * The number of resolutions served with stale credentials in their grace period, because they could not be
+     * refreshed.
+     */
+    public static final SdkMetric<Long> GRACE_PERIOD_SERVED_COUNT =
+        metric("CredentialsGracePeriodServedCount", Long.class);
+
+    /**
+     * The total time resolutions spent waiting for credentials.
+     */
+    public static final SdkMetric<Duration> BLOCKED_DURATION =
+        metric("CredentialsBlockedDuration", Duration.class);
+
+    /**
+     * The longest time a single resolution spent waiting for credentials.
+     */
+    public static final SdkMetric<Duration> MAX_BLOCKED_DURATION =
+        metric("CredentialsMaxBlockedDuration", Duration.class);
+
+    /**
+     * The number of identities with cached credentials.
+     */
+    public static final SdkMetric<Integer> CACHE_SIZE =
+        metric("CredentialsCacheSize", Integer.class);
+
+    private TrustedIdentityPropagationMetric() {
+    }
+
+    private static <T> SdkMetric<T> metric(String name, Class<T> type) {
+        return SdkMetric.create(name, type, MetricLevel.INFO, MetricCategory.CUSTOM);
+    }
+}
@@ -17,27 +17,56 @@ package software.amazon.awssdk.trustedidentitypropagation;
 
 import static software.amazon.awssdk.trustedidentitypropagation.Helpers.getBootstrapSessionName;
 
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executor;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
+import javax.crypto.SecretKey;
 import software.amazon.awssdk.annotations.Immutable;
 import software.amazon.awssdk.annotations.Mutable;
 import software.amazon.awssdk.annotations.NotThreadSafe;
 import software.amazon.awssdk.annotations.SdkPublicApi;
 import software.amazon.awssdk.annotations.ThreadSafe;
 import software.amazon.awssdk.auth.credentials.AnonymousCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.AwsSessionCredentials;
+import software.amazon.awssdk.awscore.AwsRequestOverrideConfiguration;
 import software.amazon.awssdk.awscore.AwsServiceClientConfiguration;
 import software.amazon.awssdk.core.SdkPlugin;
 import software.amazon.awssdk.core.SdkServiceClientConfiguration;
-import software.amazon.awssdk.identity.spi.IdentityProvider;
+import software.amazon.awssdk.core.client.builder.SdkSyncClientBuilder;
+import software.amazon.awssdk.core.internal.http.loader.DefaultSdkHttpClientBuilder;
+import software.amazon.awssdk.http.SdkHttpClient;
+import software.amazon.awssdk.http.SdkHttpConfigurationOption;
+import software.amazon.awssdk.metrics.MetricPublisher;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.ssooidc.SsoOidcAsyncClient;
 import software.amazon.awssdk.services.ssooidc.SsoOidcClient;
+import software.amazon.awssdk.services.sts.StsAsyncClient;
 import software.amazon.awssdk.services.sts.StsClient;
+import software.amazon.awssdk.services.sts.StsClientBuilder;
 import software.amazon.awssdk.services.sts.auth.StsAssumeRoleWithWebIdentityCredentialsProvider;
 import software.amazon.awssdk.services.sts.model.AssumeRoleWithWebIdentityRequest;
+import software.amazon.awssdk.trustedidentitypropagation.internal.BootstrapExchangeInterceptor;
 import software.amazon.awssdk.trustedidentitypropagation.internal.IdentityAwareCredentialsProvider;
+import software.amazon.awssdk.trustedidentitypropagation.internal.RegionalStsClient;
+import software.amazon.awssdk.trustedidentitypropagation.internal.SharedIdentityAwareCredentials;
+import software.amazon.awssdk.utils.AttributeMap;
+import software.amazon.awssdk.utils.CompletableFutureUtils;
 import software.amazon.awssdk.utils.IoUtils;
+import software.amazon.awssdk.utils.Lazy;
 import software.amazon.awssdk.utils.Logger;
+import software.amazon.awssdk.utils.SdkAutoCloseable;
 import software.amazon.awssdk.utils.Validate;
 import software.amazon.awssdk.utils.builder.CopyableBuilder;
 import software.amazon.awssdk.utils.builder.ToCopyableBuilder;
@@ -63,7 +92,28 @@ public class TrustedIdentityPropagationPlugin implements SdkPlugin,
      * be instantiated and used.
      */
     private final StsClient stsClient;
-    private final List<AutoCloseable> resourcesToClose;
+    /**
+     * Custom asynchronous OIDC client, used with `stsAsyncClient` to resolve credentials for SDK
+     * async clients without blocking their threads.
+     * <p>
+     * This field is optional. If only asynchronous clients are provided, no synchronous ones are
+     * created.
+     */
+    private final SsoOidcAsyncClient ssoOidcAsyncClient;
+    /**
+     * Custom asynchronous STS client, used together with `ssoOidcAsyncClient`.
+     * <p>
+     * This field is optional. It must be provided if `ssoOidcAsyncClient` is.
+     */
+    private final StsAsyncClient stsAsyncClient;
+    /**
+     * The OIDC and STS clients used for the exchange: the custom clients if provided, otherwise
+     * default clients created on first credential resolution. Null if only asynchronous clients
+     * are provided.
+     */
+    private final Supplier<SsoOidcClient> ssoOidcClientSupplier;
+    private final Supplier<StsClient> stsClientSupplier;
+    private final Deque<AutoCloseable> resourcesToClose;
 
     /**
      * The unique identifier string for the client or application. This value is an application ARN
@@ -90,55 +140,415 @@ public class TrustedIdentityPropagationPlugin implements SdkPlugin,
      */
     private final String applicationRoleArn;
 
+    /**
+     * The web token exchanged for the bootstrap credentials of the OIDC client created by the
+     * plugin. It is called without a request context, so it must not depend on the current user.
+     * <p>
+     * This field is optional, and required with the identity cache if no OIDC client is provided.
+     * If this is not provided, the `webTokenProvider` is used.
+     */
+    private final Supplier<String> bootstrapWebTokenProvider;
+
+    /**
+     * Whether the bootstrap credentials of the OIDC client created by the plugin are refreshed on a
+     * background thread ahead of their expiration.
+     * <p>
+     * This field is optional. If this is not provided, it defaults to true.
+     */
+    private final Boolean bootstrapAsyncCredentialUpdateEnabled;
+
+    /**
+     * How long before the bootstrap credentials expire that they are refreshed while still being
+     * served. Unused if an OIDC client is provided.
+     * <p>
+     * This field is optional. If this is not provided, it defaults to 5 minutes.
+     */
+    private final Duration bootstrapPrefetchTime;
+
+    /**
+     * How long before the bootstrap credentials expire that identity exchanges block on their
+     * refresh. Unused if an OIDC client is provided.
+     * <p>
+     * This field is optional. If this is not provided, it defaults to 1 minute.
+     */
+    private final Duration bootstrapStaleTime;
+
+    /**
+     * The regions that the STS clients created by the plugin call STS in, each call going to the
+     * region expected to answer fastest and failing over to the others.
+     * <p>
+     * This field is optional, and can only be set if no STS client is provided. If this is not
+     * provided, STS is called in the region of the default region provider chain.
+     */
+    private final List<Region> stsRegions;
+
+    /**
+     * The HTTP client of the OIDC and STS clients created by the plugin. It is not closed by the
+     * plugin.
+     * <p>
+     * This field is optional. If this is not provided, the plugin creates and closes one shared
+     * HTTP client, configured with the {@code httpClient*} options.
+     */
+    private final SdkHttpClient httpClient;
+
+    /**
+     * The maximum number of connections of the HTTP client created by the plugin.
+     * <p>
+     * This field is optional. If this is not provided, the HTTP implementation's default is used.
+     */
+    private final Integer httpClientMaxConnections;
+
+    /**
+     * How long a connection of the HTTP client created by the plugin is kept open without being
+     * used.
+     * <p>
+     * This field is optional. If this is not provided, the HTTP implementation's default is used.
+     */
+    private final Duration httpClientConnectionMaxIdleTime;
+
+    /**
+     * Whether the HTTP client created by the plugin sends TCP keep-alive probes on idle connections.
+     * <p>
+     * This field is optional. If this is not provided, it defaults to true.
+     */
+    private final Boolean httpClientTcpKeepAliveEnabled;
+
+    /**
+     * The HTTP client that the OIDC and STS clients created by the plugin share, created with the
+     * first of them.
+     */
+    private final Lazy<SdkHttpClient> sharedHttpClient;
+
+    /**
+     * How long before the identity-aware credentials expire that callers block on a refresh.
+     * <p>
+     * This field is optional. If this is not provided, it defaults to 1 minute.
+     */
+    private final Duration staleTime;
+
+    /**
+     * How long before the identity-aware credentials expire that a refresh is started while the
+     * cached credentials keep being served.
+     * <p>
+     * This field is optional. If this is not provided, it defaults to 5 minutes.
+     */
+    private final Duration prefetchTime;
+
+    /**
+     * Whether identity-aware credentials are refreshed on a background thread, so that request
+     * threads are not blocked while the credentials are prefetched.
+     * <p>
+     * This field is optional. If this is not provided, it defaults to true.
+     */
+    private final Boolean asyncCredentialUpdateEnabled;
+
+    /**
+     * The duration the access role is assumed for, up to the maximum session duration of the role.
+     * <p>
+     * This field is optional. If this is not provided, it defaults to 15 minutes.
+     */
+    private final Duration sessionDuration;
+
+    /**
+     * Whether a session duration that STS rejects is retried with a shorter one. The accepted
+     * duration is used for all later exchanges.
+     * <p>
+     * This field is optional. If this is not provided, it defaults to false.
+     */
+    private final Boolean adaptiveSessionDurationEnabled;
+
+    /**
+     * How long past their stale time credentials keep being served while refreshes fail. They are
+     * never served past their expiration.
+     * <p>
+     * This field is optional. If this is not provided, it defaults to 30 seconds.
+     */
+    private final Duration staleCredentialsGracePeriod;
+
+    /**
+     * The executor that refreshes credentials ahead of their expiration when no asynchronous clients
+     * are configured. A refresh it rejects is skipped.
+     * <p>
+     * This field is optional. If this is not provided, a pool shared by every plugin is used.
+     */
+    private final Executor backgroundRefreshExecutor;
+
+    /**
+     * Whether credentials are cached per web token, so that one SDK client can serve many users.
+     * The web token provider is then called on every credential resolution.
+     * <p>
+     * This field is optional. If this is not provided, it defaults to false.
+     */
+    private final Boolean identityCacheEnabled;
+
+    /**
+     * The maximum number of users whose credentials are cached when the identity cache is enabled.
+     * Users that have not been used recently are evicted first.
+     * <p>
+     * This field is optional. If this is not provided, it defaults to 1000.
+     */
+    private final Integer identityCacheMaxEntries;
+
+    /**
+     * How long the credentials of a user are cached without being used when the identity cache is
+     * enabled. Credentials that expire without being used are evicted as well.
+     * <p>
+     * This field is optional. If this is not provided, it defaults to 30 minutes.
+     */
+    private final Duration identityCacheIdleTimeout;
+
+    /**
+     * The name the credentials of the single identity served without the identity cache are stored
+     * and shared under.
+     * <p>
+     * This field is optional. If this is not provided, it defaults to "default".
+     */
+    private final String identityLabel;
+
+    /**
+     * The publishers of the plugin's metrics, see {@link TrustedIdentityPropagationMetric}. They are
+     * not closed by the plugin.
+     * <p>
+     * This field is optional. If this is not provided, the plugin publishes no metrics of its own.
+     */
+    private final List<MetricPublisher> metricPublishers;
+
+    /**
+     * The store that keeps credentials across restarts, e.g. a {@link FileCredentialsStore}. A store
+     * that is {@link SdkAutoCloseable} is closed with the plugin.
+     * <p>
+     * This field is optional. If this is not provided, the credentials are only cached in memory.
+     */
+    private final IdentityAwareCredentialsStore credentialsStore;
+
+    /**
+     * Whether the plugin shares its exchanges with the other plugins of the JVM that have the same
+     * application and access role ARNs.
+     * <p>
+     * This field is optional. If this is not provided, it defaults to false.
+     */
+    private final Boolean processWideSharingEnabled;
+
+    /**
+     * The store that the plugin shares its credentials through with the other nodes of a fleet.
+     * <p>
+     * This field is optional. If this is not provided, credentials are not shared between nodes.
+     */
+    private final DistributedCredentialsStore distributedCredentialsStore;
+
+    /**
+     * The AES key that the credentials are encrypted with before they are put in the
+     * {@link #distributedCredentialsStore}. All nodes sharing the store must use the same key.
+     * <p>
+     * This field is required if there is a distributed credentials store.
+     */
+    private final SecretKey distributedCredentialsEncryptionKey;
+
+    /**
+     * How long credentials read from or written to the {@link #distributedCredentialsStore} are
+     * served from the memory of the node without reading the store again.
+     * <p>
+     * This field is optional. If this is not provided, it defaults to 10 seconds.
+     */
+    private final Duration distributedCredentialsNearCacheTtl;
+
+    /**
+     * Limits the rate at which the plugin calls OIDC and STS, e.g. a {@link TokenBucketRateLimiter}.
+     * Share one rate limiter between plugins to limit the calls of the whole process.
+     * <p>
+     * This field is optional. If this is not provided, the calls are not limited.
+     */
+    private final ExchangeRateLimiter rateLimiter;
+
+    /**
+     * The listener that the phases of exchanges and the cache events are reported to, e.g. an
+     * {@link OpenTelemetryExchangeListener}.
+     * <p>
+     * This field is optional. If this is not provided, nothing is reported.
+     */
+    private final ExchangeListener exchangeListener;
+
+    /**
+     * The credentials provider shared by all clients configured by this plugin, so that one
+     * exchange and one cache serve all of them.
+     */
+    private final SharedIdentityAwareCredentials sharedCredentials;
+
+    /**
+     * The plugin's own reference to the shared credentials, acquired on the first prefetch so that
+     * prefetched credentials stay cached until the plugin is closed.
+     */
+    private final Lazy<SharedIdentityAwareCredentials.Reference> prefetchReference;
+
     private TrustedIdentityPropagationPlugin(Builder builder) {
 
         Validate.notNull(builder.applicationArn, "Application Arn must be provided.");
         Validate.notNull(builder.accessRoleArn, "Access Role Arn must be provided.");
         Validate.notNull(builder.webTokenProvider, "ID token supplier must be provided.");
-
-        this.resourcesToClose = new ArrayList<>();
+        Validate.isTrue((builder.ssoOidcAsyncClient == null) == (builder.stsAsyncClient == null),
+            "Asynchronous OIDC and STS clients must be provided together.");
+        Validate.isTrue(builder.bootstrapWebTokenProvider != null
+                        || !Boolean.TRUE.equals(builder.identityCacheEnabled)
+                        || builder.ssoOidcClient != null || builder.ssoOidcAsyncClient != null,
+            "A bootstrap web token provider must be provided if the identity cache is enabled.");
+        Validate.isTrue(builder.bootstrapPrefetchTime == null || builder.bootstrapStaleTime == null
+                        || builder.bootstrapPrefetchTime.compareTo(builder.bootstrapStaleTime) >= 0,
+            "bootstrapPrefetchTime must not be shorter than bootstrapStaleTime.");
+        Validate.isTrue(builder.httpClient == null
+                        || (builder.httpClientMaxConnections == null
+                            && builder.httpClientConnectionMaxIdleTime == null
+                            && builder.httpClientTcpKeepAliveEnabled == null),
+            "The httpClient options can only be set if no httpClient is provided.");
+        Validate.isTrue(builder.stsRegions == null || (builder.stsClient == null && builder.stsAsyncClient == null),
+            "stsRegions can only be set if no STS client is provided.");
+
+        this.resourcesToClose = new ConcurrentLinkedDeque<>();
 
         this.applicationArn = builder.applicationArn;
         this.accessRoleArn = builder.accessRoleArn;
         this.webTokenProvider = builder.webTokenProvider;
         this.applicationRoleArn = builder.applicationRoleArn;
+        this.bootstrapWebTokenProvider = builder.bootstrapWebTokenProvider;
+        this.bootstrapAsyncCredentialUpdateEnabled = builder.bootstrapAsyncCredentialUpdateEnabled;
+        this.bootstrapPrefetchTime = builder.bootstrapPrefetchTime;
+        this.bootstrapStaleTime = builder.bootstrapStaleTime;
+        this.stsRegions = builder.stsRegions == null ? null
+            : Collections.unmodifiableList(
+                new ArrayList<>(Validate.notEmpty(builder.stsRegions, "stsRegions must not be empty.")));
+        this.httpClient = builder.httpClient;
+        this.httpClientMaxConnections = builder.httpClientMaxConnections;
+        this.httpClientConnectionMaxIdleTime = builder.httpClientConnectionMaxIdleTime;
+        this.httpClientTcpKeepAliveEnabled = builder.httpClientTcpKeepAliveEnabled;
+        this.sharedHttpClient = new Lazy<>(this::createHttpClient);
+        this.staleTime = builder.staleTime;
+        this.prefetchTime = builder.prefetchTime;
+        this.asyncCredentialUpdateEnabled = builder.asyncCredentialUpdateEnabled;
+        this.sessionDuration = builder.sessionDuration;
+        this.adaptiveSessionDurationEnabled = builder.adaptiveSessionDurationEnabled;
+        this.staleCredentialsGracePeriod = builder.staleCredentialsGracePeriod;
+        this.backgroundRefreshExecutor = builder.backgroundRefreshExecutor;
+        this.identityCacheEnabled = builder.identityCacheEnabled;
+        this.identityCacheMaxEntries = builder.identityCacheMaxEntries;
+        this.identityCacheIdleTimeout = builder.identityCacheIdleTimeout;
+        this.identityLabel = builder.identityLabel;
+        this.metricPublishers = builder.metricPublishers == null ? null
+            : Collections.unmodifiableList(new ArrayList<>(builder.metricPublishers));
+        this.credentialsStore = builder.credentialsStore;
+        if (credentialsStore instanceof SdkAutoCloseable) {
+            // Registered first, so that it is closed after the providers that store credentials in it.
+            resourcesToClose.add((SdkAutoCloseable) credentialsStore);
+        }
+        this.processWideSharingEnabled = builder.processWideSharingEnabled;
+        this.distributedCredentialsStore = builder.distributedCredentialsStore;
+        this.distributedCredentialsEncryptionKey = builder.distributedCredentialsEncryptionKey;
+        this.distributedCredentialsNearCacheTtl = builder.distributedCredentialsNearCacheTtl;
+        this.rateLimiter = builder.rateLimiter;
+        this.exchangeListener = builder.exchangeListener;
+
+        this.ssoOidcAsyncClient = builder.ssoOidcAsyncClient;
+        this.stsAsyncClient = builder.stsAsyncClient;
+
+        this.ssoOidcClient = builder.ssoOidcClient;
+        this.stsClient = builder.stsClient;
+
+        boolean asyncClientsOnly = ssoOidcAsyncClient != null
+            && ssoOidcClient == null && stsClient == null;
+        if (asyncClientsOnly) {
+            this.ssoOidcClientSupplier = null;
+            this.stsClientSupplier = null;
+        } else {
+            // Creating the default clients is deferred to the first exchange, which keeps HTTP client
+            // startup out of plugin construction.
+            this.ssoOidcClientSupplier = new Lazy<>(
+                () -> ssoOidcClient != null ? ssoOidcClient : createSsoOidcClient())::getValue;
+            this.stsClientSupplier = new Lazy<>(
+                () -> stsClient != null ? stsClient : createStsClient())::getValue;
+        }
 
-        this.ssoOidcClient = Validate.getOrDefault(builder.ssoOidcClient,
-            getSsoOidcClientSupplier());
+        this.sharedCredentials = new SharedIdentityAwareCredentials(this::createCredentialsProvider);
+        this.prefetchReference = new Lazy<>(() -> {
+            SharedIdentityAwareCredentials.Reference reference = sharedCredentials.acquire(resourcesToClose::remove);
+            resourcesToClose.add(reference);
+            return reference;
+        });
 
-        this.stsClient = Validate.getOrDefault(builder.stsClient, getStsClientSupplier());
+    }
 
+    private SdkHttpClient createHttpClient() {
+        if (httpClient != null) {
+            return httpClient;
+        }
+        AttributeMap.Builder configuration = AttributeMap.builder()
+            .put(SdkHttpConfigurationOption.TCP_KEEPALIVE, !Boolean.FALSE.equals(httpClientTcpKeepAliveEnabled));
+        if (httpClientMaxConnections != null) {
+            configuration.put(SdkHttpConfigurationOption.MAX_CONNECTIONS, httpClientMaxConnections);
+        }
+        if (httpClientConnectionMaxIdleTime != null) {
+            configuration.put(SdkHttpConfigurationOption.CONNECTION_MAX_IDLE_TIMEOUT, httpClientConnectionMaxIdleTime);
+        }
+        // The HTTP implementation is found the way the SDK finds the one of a client without an HTTP client.
+        SdkHttpClient client = new DefaultSdkHttpClientBuilder().buildWithDefaults(configuration.build());
+        resourcesToClose.add(client);
+        return client;
     }
 
-    private Supplier<StsClient> getStsClientSupplier() {
-        return () -> {
-            StsClient client = StsClient.builder()
-                .credentialsProvider(AnonymousCredentialsProvider.create()).build();
-            resourcesToClose.add(client);
-            return client;
-        };
+    /**
+     * Configures a client created by the plugin with the shared HTTP client.
+     */
+    private <B extends SdkSyncClientBuilder<B, ?>> B withSharedHttpClient(B builder) {
+        return builder.httpClient(sharedHttpClient.getValue());
     }
 
-    private Supplier<SsoOidcClient> getSsoOidcClientSupplier() {
-        return () -> getSsoOidcClient();
+    /**
+     * Creates an STS client of the default region, or, if there are {@link #stsRegions}, a client of
+     * each of them behind one client that routes to the fastest.
+     */
+    private StsClient buildStsClient(Supplier<StsClientBuilder> builder) {
+        if (stsRegions == null) {
+            return withSharedHttpClient(builder.get()).build();
+        }
+        Map<Region, StsClient> clients = new LinkedHashMap<>();
+        stsRegions.forEach(region -> clients.put(region, withSharedHttpClient(builder.get()).region(region).build()));
+        return new RegionalStsClient(clients, rateLimiter);
     }
 
-    private SsoOidcClient getSsoOidcClient() {
-        StsClient noAuthStsClient = StsClient.builder()
-            .credentialsProvider(AnonymousCredentialsProvider.create()).build();
-        IdentityProvider credentialsProvider =
+    private StsClient createStsClient() {
+        StsClient client = buildStsClient(
+            () -> StsClient.builder().credentialsProvider(AnonymousCredentialsProvider.create()));
+        resourcesToClose.add(client);
+        return client;
+    }
+
+    private SsoOidcClient createSsoOidcClient() {
+        StsClient noAuthStsClient = buildStsClient(() -> {
+            StsClientBuilder noAuthStsClientBuilder = StsClient.builder()
+                .credentialsProvider(AnonymousCredentialsProvider.create());
+            if (exchangeListener != null) {
+                noAuthStsClientBuilder.overrideConfiguration(
+                    c -> c.addExecutionInterceptor(new BootstrapExchangeInterceptor(exchangeListener)));
+            }
+            return noAuthStsClientBuilder;
+        });
+        resourcesToClose.add(noAuthStsClient);
+        // The request is rebuilt for every refresh so that each one uses a fresh web token.
+        StsAssumeRoleWithWebIdentityCredentialsProvider credentialsProvider =
             StsAssumeRoleWithWebIdentityCredentialsProvider.builder()
                 .stsClient(noAuthStsClient)
-                .refreshRequest(
+                .refreshRequest(() ->
                     AssumeRoleWithWebIdentityRequest.builder()
-                        .webIdentityToken(webTokenProvider.get())
+                        .webIdentityToken(bootstrapWebTokenProvider != null
+                                          ? bootstrapWebTokenProvider.get() : webTokenProvider.get())
                         .roleArn(
                             applicationRoleArn != null ? applicationRoleArn : accessRoleArn)
                         .roleSessionName(getBootstrapSessionName(applicationArn)).build())
+                .asyncCredentialUpdateEnabled(!Boolean.FALSE.equals(bootstrapAsyncCredentialUpdateEnabled))
+                .prefetchTime(bootstrapPrefetchTime)
+                .staleTime(bootstrapStaleTime)
                 .build();
-        SsoOidcClient client = SsoOidcClient.builder()
-            .credentialsProvider(credentialsProvider).build();
-        resourcesToClose.add(noAuthStsClient);
+        resourcesToClose.add(credentialsProvider);
+        SsoOidcClient client = withSharedHttpClient(SsoOidcClient.builder())
+            .credentialsProvider(credentialsProvider)
+            .build();
         resourcesToClose.add(client);
         return client;
     }
@@ -160,23 +570,188 @@ public class TrustedIdentityPropagationPlugin implements SdkPlugin,
         }
         AwsServiceClientConfiguration.Builder awsConfiguration = (AwsServiceClientConfiguration.Builder) sdkConfiguration;
 
-        IdentityAwareCredentialsProvider identityAwareCredentialsProvider = new IdentityAwareCredentialsProvider(
-            stsClient, ssoOidcClient, webTokenProvider, applicationArn, accessRoleArn);
+        // A client that is closed before the plugin releases its reference itself, which also stops the plugin from
+        // holding on to it.
+        SharedIdentityAwareCredentials.Reference identityAwareCredentialsProvider =
+            sharedCredentials.acquire(resourcesToClose::remove);
+        resourcesToClose.add(identityAwareCredentialsProvider);
 
         awsConfiguration.credentialsProvider(identityAwareCredentialsProvider);
 
     }
 
+    private IdentityAwareCredentialsProvider createCredentialsProvider() {
+        return IdentityAwareCredentialsProvider.builder()
+            .stsClient(stsClientSupplier)
+            .ssoOidcClient(ssoOidcClientSupplier)
+            .stsAsyncClient(stsAsyncClient)
+            .ssoOidcAsyncClient(ssoOidcAsyncClient)
+            .webTokenProvider(webTokenProvider)
+            .applicationArn(applicationArn)
+            .accessRoleArn(accessRoleArn)
+            .staleTime(staleTime)
+            .prefetchTime(prefetchTime)
+            .asyncCredentialUpdateEnabled(asyncCredentialUpdateEnabled)
+            .sessionDuration(sessionDuration)
+            .adaptiveSessionDurationEnabled(adaptiveSessionDurationEnabled)
+            .staleCredentialsGracePeriod(staleCredentialsGracePeriod)
+            .backgroundRefreshExecutor(backgroundRefreshExecutor)
+            .identityCacheEnabled(identityCacheEnabled)
+            .identityCacheMaxEntries(identityCacheMaxEntries)
+            .identityCacheIdleTimeout(identityCacheIdleTimeout)
+            .identityLabel(identityLabel)
+            .metricPublishers(metricPublishers)
+            .credentialsStore(credentialsStore)
+            .processWideSharingEnabled(processWideSharingEnabled)
+            .distributedCredentialsStore(distributedCredentialsStore)
+            .distributedCredentialsEncryptionKey(distributedCredentialsEncryptionKey)
+            .distributedCredentialsNearCacheTtl(distributedCredentialsNearCacheTtl)
+            .rateLimiter(rateLimiter)
+            .exchangeListener(exchangeListener)
+            .build();
+    }
+
+    /**
+     * Starts resolving the identity-aware credentials of the identity returned by the web token
+     * provider, so that the first request of a client configured by this plugin does not wait on
+     * the token exchange.
+     *
+     * @return A future that completes once the credentials are cached, or exceptionally if they
+     * could not be resolved.
+     */
+    public CompletableFuture<Void> prefetchCredentials() {
+        return prefetchReference.getValue().prefetch();
+    }
+
+    /**
+     * Starts resolving the identity-aware credentials of the user the given web token was issued
+     * for, e.g. when the user logs in, so that their first request does not wait on the token
+     * exchange. Requires the identity cache to be enabled.
+     *
+     * @return A future that completes once the credentials are cached, or exceptionally if they
+     * could not be resolved.
+     */
+    public CompletableFuture<Void> prefetchCredentials(String webToken) {
+        return prefetchReference.getValue().prefetch(webToken);
+    }
+
+    /**
+     * Starts resolving the identity-aware credentials of every user the given web tokens were
+     * issued for. Requires the identity cache to be enabled, and should not exceed its maximum
+     * number of entries.
+     *
+     * @return A future that completes once all credentials are cached, or exceptionally if any of
+     * them could not be resolved.
+     */
+    public CompletableFuture<Void> prefetchCredentials(Collection<String> webTokens) {
+        Validate.paramNotNull(webTokens, "webTokens");
+        SharedIdentityAwareCredentials.Reference reference = prefetchReference.getValue();
+        return CompletableFuture.allOf(webTokens.stream()
+            .map(reference::prefetch)
+            .toArray(CompletableFuture[]::new));
+    }
+
+    /**
+     * Starts resolving the identity-aware credentials of every user whose web token is returned by
+     * the given supplier, e.g. the users of requests that are queued but not yet handled. Requires
+     * the identity cache to be enabled.
+     *
+     * @return A future that completes once all credentials are cached, or exceptionally if any of
+     * them could not be resolved.
+     */
+    public CompletableFuture<Void> prefetchCredentials(
+        Supplier<? extends Collection<String>> upcomingWebTokens) {
+        Validate.paramNotNull(upcomingWebTokens, "upcomingWebTokens");
+        Collection<String> webTokens;
+        try {
+            webTokens = upcomingWebTokens.get();
+        } catch (RuntimeException e) {
+            return CompletableFutureUtils.failedFuture(e);
+        }
+        return prefetchCredentials(webTokens);
+    }
+
+    /**
+     * Returns a request override that makes the request on behalf of the user the given web token
+     * was issued for, so that one SDK client can serve every user without a client per user.
+     * Requires the identity cache to be enabled; the identity-aware credentials of the user are
+     * resolved through it and shared with every other request of the same user.
+     * <p>
+     * For example:
+     * <pre>{@code
+     * s3.getObject(r -> r.bucket(bucket)
+     *                    .key(key)
+     *                    .overrideConfiguration(plugin.identityOverride(webToken)));
+     * }</pre>
+     * The client does not need to be configured by this plugin. The override can be used until
+     * the plugin is closed.
+     */
+    public Consumer<AwsRequestOverrideConfiguration.Builder> identityOverride(String webToken) {
+        AwsCredentialsProvider credentialsProvider = credentialsProvider(webToken);
+        return c -> c.credentialsProvider(credentialsProvider);
+    }
+
+    /**
+     * Returns a provider of the identity-aware credentials of the user the given web token was
+     * issued for. Requires the identity cache to be enabled. See
+     * {@link #identityOverride(String)}.
+     */
+    public AwsCredentialsProvider credentialsProvider(String webToken) {
+        Validate.validState(Boolean.TRUE.equals(identityCacheEnabled),
+            "Per-request web tokens require the identity cache to be enabled.");
+        return prefetchReference.getValue().forWebToken(webToken);
+    }
+
+    /**
+     * Resolves the identity-aware credentials of the user the given web token was issued for on
+     * the calling thread. Requires the identity cache to be enabled. Used by
+     * {@link BatchCredentialsResolver}.
+     */
+    AwsSessionCredentials resolveCredentials(String webToken) {
+        return prefetchReference.getValue().resolveCredentials(webToken);
+    }
+
     @Override
     public void close() {
-        resourcesToClose.forEach(resource -> IoUtils.closeQuietly(resource, null));
+        // Resources are closed in the reverse order they were created in, so that the shared HTTP client is closed
+        // after the clients that use it.
+        for (AutoCloseable resource = resourcesToClose.pollLast(); resource != null;
+             resource = resourcesToClose.pollLast()) {
+            IoUtils.closeQuietly(resource, null);
+        }
     }
 
     @Override
     public Builder toBuilder() {
         return builder().accessRoleArn(accessRoleArn).applicationArn(applicationArn)
             .webTokenProvider(webTokenProvider).applicationRoleArn(applicationRoleArn)
-            .ssoOidcClient(ssoOidcClient).stsClient(stsClient);
+            .bootstrapWebTokenProvider(bootstrapWebTokenProvider)
+            .bootstrapAsyncCredentialUpdateEnabled(bootstrapAsyncCredentialUpdateEnabled)
+            .bootstrapPrefetchTime(bootstrapPrefetchTime).bootstrapStaleTime(bootstrapStaleTime)
+            .stsRegions(stsRegions)
+            .httpClient(httpClient).httpClientMaxConnections(httpClientMaxConnections)
+            .httpClientConnectionMaxIdleTime(httpClientConnectionMaxIdleTime)
+            .httpClientTcpKeepAliveEnabled(httpClientTcpKeepAliveEnabled)
+            .ssoOidcClient(ssoOidcClient).stsClient(stsClient)
+            .ssoOidcAsyncClient(ssoOidcAsyncClient).stsAsyncClient(stsAsyncClient)
+            .staleTime(staleTime).prefetchTime(prefetchTime)
+            .asyncCredentialUpdateEnabled(asyncCredentialUpdateEnabled)
+            .sessionDuration(sessionDuration)
+            .adaptiveSessionDurationEnabled(adaptiveSessionDurationEnabled)
+            .staleCredentialsGracePeriod(staleCredentialsGracePeriod)
+            .backgroundRefreshExecutor(backgroundRefreshExecutor)
+            .identityCacheEnabled(identityCacheEnabled)
+            .identityCacheMaxEntries(identityCacheMaxEntries)
+            .identityCacheIdleTimeout(identityCacheIdleTimeout)
+            .identityLabel(identityLabel)
+            .metricPublishers(metricPublishers)
+            .credentialsStore(credentialsStore)
+            .processWideSharingEnabled(processWideSharingEnabled)
+            .distributedCredentialsStore(distributedCredentialsStore)
+            .distributedCredentialsEncryptionKey(distributedCredentialsEncryptionKey)
+            .distributedCredentialsNearCacheTtl(distributedCredentialsNearCacheTtl)
+            .rateLimiter(rateLimiter)
+            .exchangeListener(exchangeListener);
     }
 
     @Override
@@ -197,8 +772,38 @@ public class TrustedIdentityPropagationPlugin implements SdkPlugin,
         private Supplier<String> webTokenProvider;
 
         private String applicationRoleArn;
+        private Supplier<String> bootstrapWebTokenProvider;
+        private Boolean bootstrapAsyncCredentialUpdateEnabled;
+        private Duration bootstrapPrefetchTime;
+        private Duration bootstrapStaleTime;
+        private List<Region> stsRegions;
+        private SdkHttpClient httpClient;
+        private Integer httpClientMaxConnections;
+        private Duration httpClientConnectionMaxIdleTime;
+        private Boolean httpClientTcpKeepAliveEnabled;
         private StsClient stsClient;
         private SsoOidcClient ssoOidcClient;
+        private StsAsyncClient stsAsyncClient;
+        private SsoOidcAsyncClient ssoOidcAsyncClient;
+        private Duration staleTime;
+        private Duration prefetchTime;
+        private Boolean asyncCredentialUpdateEnabled;
+        private Duration sessionDuration;
+        private Boolean adaptiveSessionDurationEnabled;
+        private Duration staleCredentialsGracePeriod;
+        private Executor backgroundRefreshExecutor;
+        private Boolean identityCacheEnabled;
+        private Integer identityCacheMaxEntries;
+        private Duration identityCacheIdleTimeout;
+        private String identityLabel;
+        private List<MetricPublisher> metricPublishers;
+        private IdentityAwareCredentialsStore credentialsStore;
+        private Boolean processWideSharingEnabled;
+        private DistributedCredentialsStore distributedCredentialsStore;
+        private SecretKey distributedCredentialsEncryptionKey;
+        private Duration distributedCredentialsNearCacheTtl;
+        private ExchangeRateLimiter rateLimiter;
+        private ExchangeListener exchangeListener;
 
         private Builder() {
         }
@@ -218,6 +823,55 @@ public class TrustedIdentityPropagationPlugin implements SdkPlugin,
             return this;
         }
 
+        public Builder bootstrapWebTokenProvider(Supplier<String> bootstrapWebTokenProvider) {
+            this.bootstrapWebTokenProvider = bootstrapWebTokenProvider;
+            return this;
+        }
+
+        public Builder bootstrapAsyncCredentialUpdateEnabled(Boolean bootstrapAsyncCredentialUpdateEnabled) {
+            this.bootstrapAsyncCredentialUpdateEnabled = bootstrapAsyncCredentialUpdateEnabled;
+            return this;
+        }
+
+        public Builder bootstrapPrefetchTime(Duration bootstrapPrefetchTime) {
+            this.bootstrapPrefetchTime = bootstrapPrefetchTime;
+            return this;
+        }
+
+        public Builder bootstrapStaleTime(Duration bootstrapStaleTime) {
+            this.bootstrapStaleTime = bootstrapStaleTime;
+            return this;
+        }
+
+        public Builder stsRegions(List<Region> stsRegions) {
+            this.stsRegions = stsRegions;
+            return this;
+        }
+
+        public Builder stsRegions(Region... stsRegions) {
+            return stsRegions(Arrays.asList(stsRegions));
+        }
+
+        public Builder httpClient(SdkHttpClient httpClient) {
+            this.httpClient = httpClient;
+            return this;
+        }
+
+        public Builder httpClientMaxConnections(Integer httpClientMaxConnections) {
+            this.httpClientMaxConnections = httpClientMaxConnections;
+            return this;
+        }
+
+        public Builder httpClientConnectionMaxIdleTime(Duration httpClientConnectionMaxIdleTime) {
+            this.httpClientConnectionMaxIdleTime = httpClientConnectionMaxIdleTime;
+            return this;
+        }
+
+        public Builder httpClientTcpKeepAliveEnabled(Boolean httpClientTcpKeepAliveEnabled) {
+            this.httpClientTcpKeepAliveEnabled = httpClientTcpKeepAliveEnabled;
+            return this;
+        }
+
         public Builder idTokenSupplier(Supplier<String> idTokenSupplier) {
             this.webTokenProvider = idTokenSupplier;
             return this;
@@ -238,6 +892,119 @@ public class TrustedIdentityPropagationPlugin implements SdkPlugin,
             return this;
         }
 
+        public Builder stsAsyncClient(StsAsyncClient stsAsyncClient) {
+            this.stsAsyncClient = stsAsyncClient;
+            return this;
+        }
+
+        public Builder ssoOidcAsyncClient(SsoOidcAsyncClient ssoOidcAsyncClient) {
+            this.ssoOidcAsyncClient = ssoOidcAsyncClient;
+            return this;
+        }
+
+        public Builder staleTime(Duration staleTime) {
+            this.staleTime = staleTime;
+            return this;
+        }
+
+        public Builder prefetchTime(Duration prefetchTime) {
+            this.prefetchTime = prefetchTime;
+            return this;
+        }
+
+        public Builder asyncCredentialUpdateEnabled(Boolean asyncCredentialUpdateEnabled) {
+            this.asyncCredentialUpdateEnabled = asyncCredentialUpdateEnabled;
+            return this;
+        }
+
+        public Builder sessionDuration(Duration sessionDuration) {
+            this.sessionDuration = sessionDuration;
+            return this;
+        }
+
+        public Builder adaptiveSessionDurationEnabled(Boolean adaptiveSessionDurationEnabled) {
+            this.adaptiveSessionDurationEnabled = adaptiveSessionDurationEnabled;
+            return this;
+        }
+
+        public Builder staleCredentialsGracePeriod(Duration staleCredentialsGracePeriod) {
+            this.staleCredentialsGracePeriod = staleCredentialsGracePeriod;
+            return this;
+        }
+
+        public Builder backgroundRefreshExecutor(Executor backgroundRefreshExecutor) {
+            this.backgroundRefreshExecutor = backgroundRefreshExecutor;
+            return this;
+        }
+
+        public Builder identityCacheEnabled(Boolean identityCacheEnabled) {
+            this.identityCacheEnabled = identityCacheEnabled;
+            return this;
+        }
+
+        public Builder identityCacheMaxEntries(Integer identityCacheMaxEntries) {
+            this.identityCacheMaxEntries = identityCacheMaxEntries;
+            return this;
+        }
+
+        public Builder identityCacheIdleTimeout(Duration identityCacheIdleTimeout) {
+            this.identityCacheIdleTimeout = identityCacheIdleTimeout;
+            return this;
+        }
+
+        public Builder identityLabel(String identityLabel) {
+            this.identityLabel = identityLabel;
+            return this;
+        }
+
+        public Builder metricPublishers(List<MetricPublisher> metricPublishers) {
+            this.metricPublishers = metricPublishers == null ? null : new ArrayList<>(metricPublishers);
+            return this;
+        }
+
+        public Builder addMetricPublisher(MetricPublisher metricPublisher) {
+            if (metricPublishers == null) {
+                metricPublishers = new ArrayList<>();
+            }
+            metricPublishers.add(metricPublisher);
+            return this;
+        }
+
+        public Builder credentialsStore(IdentityAwareCredentialsStore credentialsStore) {
+            this.credentialsStore = credentialsStore;
+            return this;
+        }
+
+        public Builder processWideSharingEnabled(Boolean processWideSharingEnabled) {
+            this.processWideSharingEnabled = processWideSharingEnabled;
+            return this;
+        }
+
+        public Builder distributedCredentialsStore(DistributedCredentialsStore distributedCredentialsStore) {
+            this.distributedCredentialsStore = distributedCredentialsStore;
+            return this;
+        }
+
+        public Builder distributedCredentialsEncryptionKey(SecretKey distributedCredentialsEncryptionKey) {
+            this.distributedCredentialsEncryptionKey = distributedCredentialsEncryptionKey;
+            return this;
+        }
+
+        public Builder distributedCredentialsNearCacheTtl(Duration distributedCredentialsNearCacheTtl) {
+            this.distributedCredentialsNearCacheTtl = distributedCredentialsNearCacheTtl;
+            return this;
+        }
+
+        public Builder rateLimiter(ExchangeRateLimiter rateLimiter) {
+            this.rateLimiter = rateLimiter;
+            return this;
+        }
+
+        public Builder exchangeListener(ExchangeListener exchangeListener) {
+            this.exchangeListener = exchangeListener;
+            return this;
+        }
+
         public TrustedIdentityPropagationPlugin build() {
             return new TrustedIdentityPropagationPlugin(this);
         }
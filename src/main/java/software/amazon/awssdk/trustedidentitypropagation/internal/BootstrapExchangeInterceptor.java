@@ -0,0 +1,71 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.awssdk.trustedidentitypropagation.internal;
+
+import software.amazon.awssdk.annotations.SdkInternalApi;
+import software.amazon.awssdk.annotations.ThreadSafe;
+import software.amazon.awssdk.core.interceptor.Context;
+import software.amazon.awssdk.core.interceptor.ExecutionAttribute;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.core.interceptor.ExecutionInterceptor;
+import software.amazon.awssdk.trustedidentitypropagation.ExchangeListener;
+import software.amazon.awssdk.trustedidentitypropagation.ExchangePhase;
+import software.amazon.awssdk.trustedidentitypropagation.ExchangeSpan;
+
+/**
+ * Reports the {@code AssumeRoleWithWebIdentity} calls of the STS client that the default OIDC client gets its
+ * bootstrap credentials from as {@link ExchangePhase#ASSUME_ROLE_WITH_WEB_IDENTITY} phases. The bootstrap credentials
+ * are refreshed by the SDK rather than by an exchange, so the phase has no parent.
+ */
+@SdkInternalApi
+@ThreadSafe
+public final class BootstrapExchangeInterceptor implements ExecutionInterceptor {
+
+    private static final ExecutionAttribute<ExchangeSpan> SPAN =
+        new ExecutionAttribute<>("TrustedIdentityPropagation.BootstrapExchangeSpan");
+    private static final ExecutionAttribute<Long> START_NANOS =
+        new ExecutionAttribute<>("TrustedIdentityPropagation.BootstrapExchangeStartNanos");
+
+    private final ExchangeListener listener;
+
+    public BootstrapExchangeInterceptor(ExchangeListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void beforeExecution(Context.BeforeExecution context, ExecutionAttributes executionAttributes) {
+        executionAttributes.putAttribute(START_NANOS, System.nanoTime());
+        executionAttributes.putAttribute(SPAN,
+                                         ExchangeContext.startSpan(listener, ExchangePhase.ASSUME_ROLE_WITH_WEB_IDENTITY, null));
+    }
+
+    @Override
+    public void afterExecution(Context.AfterExecution context, ExecutionAttributes executionAttributes) {
+        end(executionAttributes, null);
+    }
+
+    @Override
+    public void onExecutionFailure(Context.FailedExecution context, ExecutionAttributes executionAttributes) {
+        end(executionAttributes, context.exception());
+    }
+
+    private static void end(ExecutionAttributes executionAttributes, Throwable failure) {
+        Long startNanos = executionAttributes.getAttribute(START_NANOS);
+        if (startNanos != null) {
+            ExchangeContext.endSpan(executionAttributes.getAttribute(SPAN), startNanos, failure);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.awssdk.trustedidentitypropagation.internal;
+
+import java.time.Instant;
+import software.amazon.awssdk.annotations.Immutable;
+import software.amazon.awssdk.annotations.SdkInternalApi;
+import software.amazon.awssdk.auth.credentials.AwsSessionCredentials;
+
+/**
+ * An immutable snapshot of identity-aware credentials together with the points in time at which they should be
+ * prefetched and at which they become stale. A new instance is published for every refresh, so readers never observe
+ * a partially updated value.
+ */
+@SdkInternalApi
+@Immutable
+final class CachedCredentials {
+
+    private final AwsSessionCredentials credentials;
+    private final Instant prefetchTime;
+    private final Instant staleTime;
+
+    CachedCredentials(AwsSessionCredentials credentials, Instant prefetchTime, Instant staleTime) {
+        this.credentials = credentials;
+        this.prefetchTime = prefetchTime;
+        this.staleTime = staleTime;
+    }
+
+    AwsSessionCredentials credentials() {
+        return credentials;
+    }
+
+    Instant prefetchTime() {
+        return prefetchTime;
+    }
+
+    Instant staleTime() {
+        return staleTime;
+    }
+
+    boolean shouldPrefetch(Instant now) {
+        return !now.isBefore(prefetchTime);
+    }
+
+    boolean isStale(Instant now) {
+        return !now.isBefore(staleTime);
+    }
+}
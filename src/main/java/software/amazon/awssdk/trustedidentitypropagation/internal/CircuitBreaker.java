@@ -0,0 +1,114 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.awssdk.trustedidentitypropagation.internal;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import software.amazon.awssdk.annotations.SdkInternalApi;
+import software.amazon.awssdk.annotations.ThreadSafe;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.utils.Logger;
+
+/**
+ * Stops all caches of a provider from calling OIDC and STS while those services are throttling or unavailable.
+ * <p>
+ * The breaker opens once {@code failureThreshold} consecutive refreshes failed with throttling, a server error or a
+ * client-side error such as a timeout. Failures caused by the request, e.g. an invalid web token, do not count, so one
+ * user's token cannot lock out the others. While the breaker is open no refresh is attempted. Once
+ * {@code openDuration} has elapsed a single refresh is let through: if it succeeds the breaker closes, otherwise it
+ * stays open for another {@code openDuration}.
+ */
+@SdkInternalApi
+@ThreadSafe
+final class CircuitBreaker {
+
+    private static final Logger LOGGER = Logger.loggerFor(CircuitBreaker.class);
+
+    private final int failureThreshold;
+    private final Duration openDuration;
+
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final AtomicReference<Instant> openUntil = new AtomicReference<>(Instant.MIN);
+
+    CircuitBreaker(int failureThreshold, Duration openDuration) {
+        this.failureThreshold = failureThreshold;
+        this.openDuration = openDuration;
+    }
+
+    /**
+     * Whether a refresh may be attempted at {@code now}. When the open duration has elapsed only the first caller is
+     * let through, to probe whether the services have recovered.
+     */
+    boolean tryAcquire(Instant now) {
+        Instant until = openUntil.get();
+        if (now.isBefore(until)) {
+            return false;
+        }
+        if (consecutiveFailures.get() < failureThreshold) {
+            return true;
+        }
+        return openUntil.compareAndSet(until, now.plus(openDuration));
+    }
+
+    /**
+     * Whether the breaker is open at {@code now}. Unlike {@link #tryAcquire(Instant)}, this never lets a probe through.
+     */
+    boolean isOpen(Instant now) {
+        return now.isBefore(openUntil.get());
+    }
+
+    /**
+     * The time until which the breaker is open.
+     */
+    Instant openUntil() {
+        return openUntil.get();
+    }
+
+    void onSuccess() {
+        if (consecutiveFailures.getAndSet(0) >= failureThreshold) {
+            LOGGER.info(() -> "Identity-aware credentials were refreshed again; closing the circuit breaker.");
+        }
+        openUntil.set(Instant.MIN);
+    }
+
+    void onFailure(Throwable cause, Instant now) {
+        if (!isServiceUnavailable(cause)) {
+            return;
+        }
+        int failures = consecutiveFailures.incrementAndGet();
+        if (failures >= failureThreshold) {
+            openUntil.set(now.plus(openDuration));
+            if (failures == failureThreshold) {
+                LOGGER.warn(() -> failures + " consecutive refreshes of identity-aware credentials failed; no refresh "
+                                  + "is attempted for " + openDuration + ".", cause);
+            }
+        }
+    }
+
+    /**
+     * Whether the failure says that the services are throttling or unavailable, rather than that the request was bad.
+     */
+    private static boolean isServiceUnavailable(Throwable cause) {
+        if (cause instanceof AwsServiceException) {
+            AwsServiceException e = (AwsServiceException) cause;
+            return e.isThrottlingException() || e.statusCode() >= 500;
+        }
+        return cause instanceof SdkClientException;
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.awssdk.trustedidentitypropagation.internal;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.time.Instant;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import software.amazon.awssdk.annotations.SdkInternalApi;
+import software.amazon.awssdk.annotations.ThreadSafe;
+import software.amazon.awssdk.auth.credentials.AwsSessionCredentials;
+import software.amazon.awssdk.utils.Validate;
+
+/**
+ * Encodes identity-aware credentials and encrypts them with AES-GCM, for the stores that keep credentials outside of
+ * the process.
+ */
+@SdkInternalApi
+@ThreadSafe
+public final class CredentialsCodec {
+
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int NONCE_LENGTH = 12;
+    private static final int TAG_LENGTH_BITS = 128;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private CredentialsCodec() {
+    }
+
+    /**
+     * Encrypts the plaintext into {@code nonce | ciphertext} with a fresh nonce, authenticating {@code aad} with it.
+     */
+    public static byte[] encrypt(SecretKey key, byte[] plaintext, byte[] aad) throws GeneralSecurityException {
+        byte[] nonce = new byte[NONCE_LENGTH];
+        RANDOM.nextBytes(nonce);
+
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH_BITS, nonce));
+        cipher.updateAAD(aad);
+        byte[] ciphertext = cipher.doFinal(plaintext);
+
+        return ByteBuffer.allocate(NONCE_LENGTH + ciphertext.length)
+                         .put(nonce)
+                         .put(ciphertext)
+                         .array();
+    }
+
+    /**
+     * Decrypts the {@code nonce | ciphertext} at {@code offset} of {@code input}, which must have been encrypted with
+     * the same {@code aad}.
+     */
+    public static byte[] decrypt(SecretKey key, byte[] input, int offset, byte[] aad) throws GeneralSecurityException {
+        Validate.isTrue(input.length - offset > NONCE_LENGTH, "The encrypted credentials are truncated.");
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH_BITS, input, offset, NONCE_LENGTH));
+        cipher.updateAAD(aad);
+        return cipher.doFinal(input, offset + NONCE_LENGTH, input.length - offset - NONCE_LENGTH);
+    }
+
+    /**
+     * Writes credentials that have an expiration.
+     */
+    public static void writeCredentials(DataOutputStream out, AwsSessionCredentials credentials) throws IOException {
+        writeString(out, credentials.accessKeyId());
+        writeString(out, credentials.secretAccessKey());
+        writeString(out, credentials.sessionToken());
+        out.writeLong(credentials.expirationTime().get().toEpochMilli());
+        writeString(out, credentials.accountId().orElse(""));
+    }
+
+    public static AwsSessionCredentials readCredentials(DataInputStream in) throws IOException {
+        AwsSessionCredentials.Builder credentials = AwsSessionCredentials.builder()
+                                                                         .accessKeyId(readString(in))
+                                                                         .secretAccessKey(readString(in))
+                                                                         .sessionToken(readString(in))
+                                                                         .expirationTime(Instant.ofEpochMilli(in.readLong()));
+        String accountId = readString(in);
+        if (!accountId.isEmpty()) {
+            credentials.accountId(accountId);
+        }
+        return credentials.build();
+    }
+
+    public static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    public static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
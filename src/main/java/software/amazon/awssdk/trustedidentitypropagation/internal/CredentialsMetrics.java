@@ -0,0 +1,219 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.awssdk.trustedidentitypropagation.internal;
+
+import static software.amazon.awssdk.trustedidentitypropagation.TrustedIdentityPropagationMetric.BLOCKED_DURATION;
+import static software.amazon.awssdk.trustedidentitypropagation.TrustedIdentityPropagationMetric.CACHE_COLLECTION_NAME;
+import static software.amazon.awssdk.trustedidentitypropagation.TrustedIdentityPropagationMetric.CACHE_HIT_COUNT;
+import static software.amazon.awssdk.trustedidentitypropagation.TrustedIdentityPropagationMetric.CACHE_MISS_COUNT;
+import static software.amazon.awssdk.trustedidentitypropagation.TrustedIdentityPropagationMetric.CACHE_SIZE;
+import static software.amazon.awssdk.trustedidentitypropagation.TrustedIdentityPropagationMetric.EXCHANGE_COLLECTION_NAME;
+import static software.amazon.awssdk.trustedidentitypropagation.TrustedIdentityPropagationMetric.GRACE_PERIOD_SERVED_COUNT;
+import static software.amazon.awssdk.trustedidentitypropagation.TrustedIdentityPropagationMetric.MAX_BLOCKED_DURATION;
+import static software.amazon.awssdk.trustedidentitypropagation.TrustedIdentityPropagationMetric.REFRESH_COUNT;
+import static software.amazon.awssdk.trustedidentitypropagation.TrustedIdentityPropagationMetric.REFRESH_FAILURE_COUNT;
+import static software.amazon.awssdk.trustedidentitypropagation.TrustedIdentityPropagationMetric.REFRESH_SKIPPED_COUNT;
+import static software.amazon.awssdk.trustedidentitypropagation.TrustedIdentityPropagationMetric.STALE_SERVED_COUNT;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import software.amazon.awssdk.annotations.SdkInternalApi;
+import software.amazon.awssdk.annotations.ThreadSafe;
+import software.amazon.awssdk.metrics.MetricCollection;
+import software.amazon.awssdk.metrics.MetricCollector;
+import software.amazon.awssdk.metrics.MetricPublisher;
+import software.amazon.awssdk.metrics.NoOpMetricCollector;
+import software.amazon.awssdk.trustedidentitypropagation.CredentialsCacheEvent;
+import software.amazon.awssdk.trustedidentitypropagation.ExchangeListener;
+import software.amazon.awssdk.utils.Logger;
+
+/**
+ * Records the metrics of an {@link IdentityAwareCredentialsProvider} and publishes them to its metric publishers.
+ * <p>
+ * Exchanges are published as they complete. The cache counters are cheap to update from every resolution and are only
+ * published by {@link #flush(int)}. Without publishers nothing is recorded.
+ * <p>
+ * The cache events and the phases of every exchange are also reported to the exchange listener, if there is one.
+ */
+@SdkInternalApi
+@ThreadSafe
+final class CredentialsMetrics {
+
+    private static final Logger LOGGER = Logger.loggerFor(CredentialsMetrics.class);
+
+    private static final CredentialsMetrics DISABLED = new CredentialsMetrics(Collections.emptyList(), null);
+
+    private final List<MetricPublisher> publishers;
+    private final boolean enabled;
+
+    /**
+     * Null if there is no listener.
+     */
+    private final ExchangeListener listener;
+
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+    private final LongAdder staleServed = new LongAdder();
+    private final LongAdder refreshes = new LongAdder();
+    private final LongAdder refreshFailures = new LongAdder();
+    private final LongAdder refreshesSkipped = new LongAdder();
+    private final LongAdder gracePeriodServed = new LongAdder();
+    private final LongAdder blockedNanos = new LongAdder();
+    private final LongAccumulator maxBlockedNanos = new LongAccumulator(Math::max, 0);
+
+    private CredentialsMetrics(List<MetricPublisher> publishers, ExchangeListener listener) {
+        this.publishers = publishers;
+        this.enabled = !publishers.isEmpty();
+        this.listener = listener;
+    }
+
+    static CredentialsMetrics create(List<MetricPublisher> publishers, ExchangeListener listener) {
+        boolean hasPublishers = publishers != null && !publishers.isEmpty();
+        if (!hasPublishers && listener == null) {
+            return DISABLED;
+        }
+        return new CredentialsMetrics(hasPublishers ? Collections.unmodifiableList(publishers) : Collections.emptyList(),
+                                      listener);
+    }
+
+    static CredentialsMetrics disabled() {
+        return DISABLED;
+    }
+
+    /**
+     * Whether there are metric publishers to publish the cache metrics to.
+     */
+    boolean enabled() {
+        return enabled;
+    }
+
+    /**
+     * Records a resolution served from the cache, {@code refreshDue} if the credentials were past their prefetch time.
+     */
+    void cacheHit(boolean refreshDue) {
+        if (enabled) {
+            cacheHits.increment();
+            if (refreshDue) {
+                staleServed.increment();
+            }
+        }
+        if (listener != null) {
+            notify(refreshDue ? CredentialsCacheEvent.HIT_REFRESH_DUE : CredentialsCacheEvent.HIT, Duration.ZERO);
+        }
+    }
+
+    /**
+     * Records a resolution that waited {@code nanos} for credentials.
+     */
+    void cacheMiss(long nanos) {
+        if (enabled) {
+            cacheMisses.increment();
+            blockedNanos.add(nanos);
+            maxBlockedNanos.accumulate(nanos);
+        }
+        if (listener != null) {
+            notify(CredentialsCacheEvent.MISS, Duration.ofNanos(nanos));
+        }
+    }
+
+    void refreshCompleted(boolean successful) {
+        if (enabled) {
+            refreshes.increment();
+            if (!successful) {
+                refreshFailures.increment();
+            }
+        }
+        if (listener != null) {
+            notify(successful ? CredentialsCacheEvent.REFRESH_SUCCEEDED : CredentialsCacheEvent.REFRESH_FAILED, Duration.ZERO);
+        }
+    }
+
+    void refreshSkipped() {
+        if (enabled) {
+            refreshesSkipped.increment();
+        }
+        if (listener != null) {
+            notify(CredentialsCacheEvent.REFRESH_SKIPPED, Duration.ZERO);
+        }
+    }
+
+    void gracePeriodServed() {
+        if (enabled) {
+            gracePeriodServed.increment();
+        }
+        if (listener != null) {
+            notify(CredentialsCacheEvent.GRACE_PERIOD_SERVED, Duration.ZERO);
+        }
+    }
+
+    /**
+     * Starts recording one exchange, to be passed to {@link #completeExchange(ExchangeContext, Throwable)} once the
+     * exchange completes.
+     */
+    ExchangeContext startExchange() {
+        return new ExchangeContext(enabled ? MetricCollector.create(EXCHANGE_COLLECTION_NAME) : NoOpMetricCollector.create(),
+                                   listener);
+    }
+
+    void completeExchange(ExchangeContext exchange, Throwable failure) {
+        exchange.complete(failure);
+        if (enabled) {
+            publish(exchange.metrics().collect());
+        }
+    }
+
+    /**
+     * Publishes the cache metrics counted since the previous flush.
+     */
+    void flush(int cacheSize) {
+        if (!enabled) {
+            return;
+        }
+        MetricCollector collector = MetricCollector.create(CACHE_COLLECTION_NAME);
+        collector.reportMetric(CACHE_HIT_COUNT, cacheHits.sumThenReset());
+        collector.reportMetric(CACHE_MISS_COUNT, cacheMisses.sumThenReset());
+        collector.reportMetric(STALE_SERVED_COUNT, staleServed.sumThenReset());
+        collector.reportMetric(REFRESH_COUNT, refreshes.sumThenReset());
+        collector.reportMetric(REFRESH_FAILURE_COUNT, refreshFailures.sumThenReset());
+        collector.reportMetric(REFRESH_SKIPPED_COUNT, refreshesSkipped.sumThenReset());
+        collector.reportMetric(GRACE_PERIOD_SERVED_COUNT, gracePeriodServed.sumThenReset());
+        collector.reportMetric(BLOCKED_DURATION, Duration.ofNanos(blockedNanos.sumThenReset()));
+        collector.reportMetric(MAX_BLOCKED_DURATION, Duration.ofNanos(maxBlockedNanos.getThenReset()));
+        collector.reportMetric(CACHE_SIZE, cacheSize);
+        publish(collector.collect());
+    }
+
+    private void notify(CredentialsCacheEvent event, Duration duration) {
+        try {
+            listener.cacheEvent(event, duration);
+        } catch (RuntimeException e) {
+            LOGGER.warn(() -> "The exchange listener " + listener + " failed to handle " + event + ".", e);
+        }
+    }
+
+    private void publish(MetricCollection metrics) {
+        for (MetricPublisher publisher : publishers) {
+            try {
+                publisher.publish(metrics);
+            } catch (RuntimeException e) {
+                LOGGER.warn(() -> "Failed to publish identity-aware credentials metrics to " + publisher, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,305 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.awssdk.trustedidentitypropagation.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import javax.crypto.SecretKey;
+import software.amazon.awssdk.annotations.SdkInternalApi;
+import software.amazon.awssdk.annotations.ThreadSafe;
+import software.amazon.awssdk.auth.credentials.AwsSessionCredentials;
+import software.amazon.awssdk.trustedidentitypropagation.DistributedCredentialsEntry;
+import software.amazon.awssdk.trustedidentitypropagation.DistributedCredentialsStore;
+import software.amazon.awssdk.trustedidentitypropagation.IdentityAwareCredentialsKey;
+import software.amazon.awssdk.utils.BinaryUtils;
+import software.amazon.awssdk.utils.CompletableFutureUtils;
+import software.amazon.awssdk.utils.Logger;
+import software.amazon.awssdk.utils.Validate;
+
+/**
+ * Looks up the credentials of an identity in a {@link DistributedCredentialsStore} before it is exchanged, and publishes
+ * the credentials of the exchange to the store for the other nodes.
+ * <p>
+ * The store keys are the hex-encoded SHA-256 of the application, role and identity, and the credentials are encrypted
+ * with AES-GCM, authenticating the key with them so that an entry cannot be served for another identity. Credentials
+ * read from or written to the store are kept in a near-cache for {@code nearCacheTtl}, so that repeated lookups of an
+ * identity, e.g. after it was evicted from the identity cache, do not all go to the store.
+ * <p>
+ * The store is only called through its futures. A blocking exchange waits for the lookup on the calling thread, so that
+ * it never runs on the thread that completes the store's future, e.g. the event loop of the store's client. The
+ * exchanged credentials are returned once they are published, whether or not publishing them succeeded. A store call
+ * that does not complete within {@link #STORE_TIMEOUT} is treated as failed, so a hung store delays an exchange but
+ * never hangs it.
+ * <p>
+ * Sharing is best-effort: the compare-and-set only decides whose credentials are kept, so nodes that miss the store at
+ * the same time each exchange the identity.
+ */
+@SdkInternalApi
+@ThreadSafe
+final class DistributedCredentials {
+
+    static final Duration DEFAULT_NEAR_CACHE_TTL = Duration.ofSeconds(10);
+
+    /**
+     * How long a call to the store may take before the credentials are exchanged without it.
+     */
+    static final Duration STORE_TIMEOUT = Duration.ofSeconds(2);
+
+    private static final Logger LOGGER = Logger.loggerFor(DistributedCredentials.class);
+
+    private static final byte FORMAT_VERSION = 1;
+    private static final int NEAR_CACHE_MAX_ENTRIES = 10_000;
+
+    private final DistributedCredentialsStore store;
+    private final SecretKey encryptionKey;
+    private final Duration nearCacheTtl;
+    private final Clock clock;
+    private final Map<String, StoredCredentials> nearCache = new ConcurrentHashMap<>();
+
+    DistributedCredentials(DistributedCredentialsStore store, SecretKey encryptionKey, Duration nearCacheTtl, Clock clock) {
+        this.store = store;
+        this.encryptionKey = Validate.paramNotNull(encryptionKey, "distributedCredentialsEncryptionKey");
+        Validate.isTrue("AES".equalsIgnoreCase(encryptionKey.getAlgorithm()),
+                        "distributedCredentialsEncryptionKey must be an AES key.");
+        this.nearCacheTtl = Validate.isNotNegative(nearCacheTtl, "distributedCredentialsNearCacheTtl");
+        this.clock = clock;
+    }
+
+    /**
+     * Returns the stored credentials of the identity if they are {@code usable}, or otherwise exchanges with
+     * {@code exchange} and stores the exchanged credentials, unless another node stored credentials in the meantime.
+     * Unless {@code async} is set the exchange blocks, and is run on the calling thread.
+     */
+    CompletableFuture<AwsSessionCredentials> getOrExchange(IdentityAwareCredentialsKey key,
+                                                           Predicate<AwsSessionCredentials> usable, boolean async,
+                                                           Supplier<CompletableFuture<AwsSessionCredentials>> exchange) {
+        String storeKey = storeKey(key);
+        CompletableFuture<StoredCredentials> lookUp = lookUp(storeKey, usable);
+        if (!async) {
+            // The lookup never fails, see lookUp.
+            return getOrExchange(storeKey, usable, lookUp.join(), exchange);
+        }
+        return lookUp.thenCompose(stored -> getOrExchange(storeKey, usable, stored, exchange));
+    }
+
+    private CompletableFuture<AwsSessionCredentials> getOrExchange(String storeKey, Predicate<AwsSessionCredentials> usable,
+                                                                   StoredCredentials stored,
+                                                                   Supplier<CompletableFuture<AwsSessionCredentials>> exchange) {
+        if (stored.credentials != null && usable.test(stored.credentials)) {
+            return CompletableFuture.completedFuture(stored.credentials);
+        }
+        CompletableFuture<AwsSessionCredentials> exchanged;
+        try {
+            exchanged = exchange.get();
+        } catch (RuntimeException e) {
+            return CompletableFutureUtils.failedFuture(e);
+        }
+        return exchanged.thenCompose(credentials -> publish(storeKey, stored.entry, credentials)
+                                                        .thenApply(ignored -> credentials));
+    }
+
+    /**
+     * Reads the entry of the key from the store, unless the near-cache holds {@code usable} credentials for it. Unusable
+     * credentials are read again, since another node may have refreshed them. The returned future never fails; if the
+     * store fails it completes with {@link StoredCredentials#NONE}.
+     */
+    private CompletableFuture<StoredCredentials> lookUp(String storeKey, Predicate<AwsSessionCredentials> usable) {
+        Instant now = clock.instant();
+        StoredCredentials cached = nearCache.get(storeKey);
+        if (cached != null && now.isBefore(cached.cachedUntil) && usable.test(cached.credentials)) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        CompletableFuture<Optional<DistributedCredentialsEntry>> entry;
+        try {
+            entry = withTimeout(store.get(storeKey));
+        } catch (RuntimeException e) {
+            entry = CompletableFutureUtils.failedFuture(e);
+        }
+        return entry.handle((e, t) -> {
+            if (t != null) {
+                LOGGER.warn(() -> "Failed to look up identity-aware credentials in " + store + "; they will be "
+                                  + "exchanged.", FutureUtils.unwrap(t));
+                return StoredCredentials.NONE;
+            }
+            return decrypt(storeKey, e);
+        });
+    }
+
+    private StoredCredentials decrypt(String storeKey, Optional<DistributedCredentialsEntry> entry) {
+        Instant now = clock.instant();
+        AwsSessionCredentials credentials = null;
+        if (entry.isPresent()) {
+            try {
+                credentials = decrypt(storeKey, entry.get());
+            } catch (IOException | GeneralSecurityException | RuntimeException e) {
+                LOGGER.warn(() -> "Failed to decrypt identity-aware credentials from " + store + "; they will be "
+                                  + "exchanged and replaced.", e);
+            }
+        }
+        StoredCredentials stored = new StoredCredentials(entry.orElse(null), credentials, now.plus(nearCacheTtl));
+        if (credentials != null) {
+            cache(storeKey, stored, now);
+        }
+        return stored;
+    }
+
+    /**
+     * Stores the exchanged credentials in place of {@code expected}, the entry they were looked up as. If another node
+     * replaced that entry in the meantime, its credentials are kept. The returned future never fails.
+     */
+    private CompletableFuture<Void> publish(String storeKey, DistributedCredentialsEntry expected,
+                                            AwsSessionCredentials credentials) {
+        if (!credentials.expirationTime().isPresent()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        try {
+            DistributedCredentialsEntry replacement =
+                DistributedCredentialsEntry.create(encrypt(storeKey, credentials), credentials.expirationTime().get(),
+                                                   expected == null ? 1 : expected.version() + 1);
+            return withTimeout(store.compareAndSet(storeKey, expected, replacement)).handle((replaced, t) -> {
+                if (t != null) {
+                    publishFailed(storeKey, FutureUtils.unwrap(t));
+                } else if (replaced) {
+                    Instant now = clock.instant();
+                    cache(storeKey, new StoredCredentials(replacement, credentials, now.plus(nearCacheTtl)), now);
+                } else {
+                    nearCache.remove(storeKey);
+                }
+                return null;
+            });
+        } catch (IOException | GeneralSecurityException | RuntimeException e) {
+            publishFailed(storeKey, e);
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    /**
+     * Fails the call of the store if it does not complete within {@link #STORE_TIMEOUT}.
+     */
+    private <T> CompletableFuture<T> withTimeout(CompletableFuture<T> call) {
+        if (call.isDone()) {
+            return call;
+        }
+        CompletableFuture<T> result = new CompletableFuture<>();
+        ScheduledFuture<?> timeout = RefreshableCredentials.SharedExecutors.SCHEDULER.schedule(
+            () -> result.completeExceptionally(new TimeoutException(store + " did not answer within " + STORE_TIMEOUT)),
+            STORE_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+        call.whenComplete((value, t) -> {
+            timeout.cancel(false);
+            if (t != null) {
+                result.completeExceptionally(t);
+            } else {
+                result.complete(value);
+            }
+        });
+        return result;
+    }
+
+    private void publishFailed(String storeKey, Throwable cause) {
+        nearCache.remove(storeKey);
+        LOGGER.warn(() -> "Failed to store identity-aware credentials in " + store + ".", cause);
+    }
+
+    private void cache(String storeKey, StoredCredentials stored, Instant now) {
+        if (nearCacheTtl.isZero()) {
+            return;
+        }
+        if (nearCache.size() >= NEAR_CACHE_MAX_ENTRIES) {
+            nearCache.values().removeIf(s -> !now.isBefore(s.cachedUntil));
+            if (nearCache.size() >= NEAR_CACHE_MAX_ENTRIES) {
+                nearCache.clear();
+            }
+        }
+        nearCache.put(storeKey, stored);
+    }
+
+    private byte[] encrypt(String storeKey, AwsSessionCredentials credentials) throws IOException, GeneralSecurityException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        CredentialsCodec.writeCredentials(out, credentials);
+        out.flush();
+        byte[] encrypted = CredentialsCodec.encrypt(encryptionKey, bytes.toByteArray(), associatedData(storeKey));
+        return ByteBuffer.allocate(1 + encrypted.length)
+                         .put(FORMAT_VERSION)
+                         .put(encrypted)
+                         .array();
+    }
+
+    private AwsSessionCredentials decrypt(String storeKey, DistributedCredentialsEntry entry)
+        throws IOException, GeneralSecurityException {
+        byte[] value = entry.value();
+        Validate.isTrue(value.length > 1 && value[0] == FORMAT_VERSION, "Unsupported credentials entry format.");
+        byte[] plaintext = CredentialsCodec.decrypt(encryptionKey, value, 1, associatedData(storeKey));
+        return CredentialsCodec.readCredentials(new DataInputStream(new ByteArrayInputStream(plaintext)));
+    }
+
+    private static byte[] associatedData(String storeKey) {
+        byte[] key = storeKey.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(1 + key.length).put(FORMAT_VERSION).put(key).array();
+    }
+
+    private static String storeKey(IdentityAwareCredentialsKey key) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available.", e);
+        }
+        for (String part : new String[] {key.applicationArn(), key.roleArn(), key.identity()}) {
+            digest.update(part.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+        }
+        return BinaryUtils.toHex(digest.digest());
+    }
+
+    /**
+     * An entry of the store as last read or written by this node. Both fields are null if there was no entry.
+     */
+    private static final class StoredCredentials {
+        private static final StoredCredentials NONE = new StoredCredentials(null, null, Instant.MIN);
+
+        private final DistributedCredentialsEntry entry;
+        private final AwsSessionCredentials credentials;
+        private final Instant cachedUntil;
+
+        private StoredCredentials(DistributedCredentialsEntry entry, AwsSessionCredentials credentials,
+                                  Instant cachedUntil) {
+            this.entry = entry;
+            this.credentials = credentials;
+            this.cachedUntil = cachedUntil;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.awssdk.trustedidentitypropagation.internal;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+import software.amazon.awssdk.annotations.SdkInternalApi;
+import software.amazon.awssdk.annotations.ThreadSafe;
+import software.amazon.awssdk.metrics.MetricCollector;
+import software.amazon.awssdk.trustedidentitypropagation.ExchangeListener;
+import software.amazon.awssdk.trustedidentitypropagation.ExchangePhase;
+import software.amazon.awssdk.trustedidentitypropagation.ExchangeSpan;
+import software.amazon.awssdk.utils.CompletableFutureUtils;
+import software.amazon.awssdk.utils.Logger;
+
+/**
+ * The metrics and the span of one exchange, handed down its phases. Created by
+ * {@link CredentialsMetrics#startExchange()}.
+ * <p>
+ * Without a listener the phases are not traced and no spans are created.
+ */
+@SdkInternalApi
+@ThreadSafe
+final class ExchangeContext {
+
+    private static final Logger LOGGER = Logger.loggerFor(ExchangeContext.class);
+
+    private final MetricCollector metrics;
+    private final ExchangeListener listener;
+    private final ExchangeSpan span;
+    private final long startNanos;
+
+    ExchangeContext(MetricCollector metrics, ExchangeListener listener) {
+        this.metrics = metrics;
+        this.listener = listener;
+        this.startNanos = System.nanoTime();
+        this.span = listener == null ? null : startSpan(listener, ExchangePhase.EXCHANGE, null);
+    }
+
+    MetricCollector metrics() {
+        return metrics;
+    }
+
+    /**
+     * Makes the call as a phase of the exchange, reporting when it starts and completes to the listener.
+     */
+    <T> CompletableFuture<T> trace(ExchangePhase phase, Supplier<CompletableFuture<T>> call) {
+        if (listener == null) {
+            return call.get();
+        }
+        long phaseStartNanos = System.nanoTime();
+        ExchangeSpan phaseSpan = startSpan(listener, phase, span);
+        CompletableFuture<T> result;
+        try {
+            result = call.get();
+        } catch (RuntimeException e) {
+            result = CompletableFutureUtils.failedFuture(e);
+        }
+        return result.whenComplete((r, t) -> endSpan(phaseSpan, phaseStartNanos, t));
+    }
+
+    /**
+     * Reports the end of the whole exchange.
+     */
+    void complete(Throwable failure) {
+        if (span != null) {
+            endSpan(span, startNanos, failure);
+        }
+    }
+
+    /**
+     * Starts a span, or returns null if the listener failed to.
+     */
+    static ExchangeSpan startSpan(ExchangeListener listener, ExchangePhase phase, ExchangeSpan parent) {
+        try {
+            return listener.phaseStarted(phase, parent);
+        } catch (RuntimeException e) {
+            LOGGER.warn(() -> "The exchange listener " + listener + " failed to start a span.", e);
+            return null;
+        }
+    }
+
+    static void endSpan(ExchangeSpan span, long startNanos, Throwable failure) {
+        if (span == null) {
+            return;
+        }
+        try {
+            span.end(Duration.ofNanos(System.nanoTime() - startNanos), FutureUtils.unwrap(failure));
+        } catch (RuntimeException e) {
+            LOGGER.warn(() -> "Failed to end the exchange span " + span + ".", e);
+        }
+    }
+}
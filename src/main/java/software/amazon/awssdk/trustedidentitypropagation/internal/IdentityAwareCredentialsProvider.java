@@ -17,107 +17,1047 @@ package software.amazon.awssdk.trustedidentitypropagation.internal;
 
 import static software.amazon.awssdk.trustedidentitypropagation.Constants.CONTEXT_PROVIDER_IDENTITY_CENTER;
 import static software.amazon.awssdk.trustedidentitypropagation.Constants.JWT_BEARER_GRANT_URI;
+import static software.amazon.awssdk.trustedidentitypropagation.Constants.REFRESH_TOKEN_GRANT;
 import static software.amazon.awssdk.trustedidentitypropagation.Helpers.getIdentityEnhancedSessionName;
+import static software.amazon.awssdk.trustedidentitypropagation.TrustedIdentityPropagationMetric.EXCHANGE_SUCCESSFUL;
+import static software.amazon.awssdk.trustedidentitypropagation.TrustedIdentityPropagationMetric.OIDC_EXCHANGE_DURATION;
+import static software.amazon.awssdk.trustedidentitypropagation.TrustedIdentityPropagationMetric.OIDC_RATE_LIMIT_WAIT_DURATION;
+import static software.amazon.awssdk.trustedidentitypropagation.TrustedIdentityPropagationMetric.STS_EXCHANGE_DURATION;
+import static software.amazon.awssdk.trustedidentitypropagation.TrustedIdentityPropagationMetric.STS_RATE_LIMIT_WAIT_DURATION;
 
-import java.text.ParseException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 import java.util.function.Supplier;
+import javax.crypto.SecretKey;
 import software.amazon.awssdk.annotations.SdkInternalApi;
+import software.amazon.awssdk.annotations.ThreadSafe;
 import software.amazon.awssdk.auth.credentials.AwsCredentials;
 import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
 import software.amazon.awssdk.auth.credentials.AwsSessionCredentials;
+import software.amazon.awssdk.awscore.AwsRequestOverrideConfiguration;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
 import software.amazon.awssdk.core.ApiName;
+import software.amazon.awssdk.identity.spi.AwsCredentialsIdentity;
+import software.amazon.awssdk.identity.spi.IdentityProvider;
+import software.amazon.awssdk.identity.spi.ResolveIdentityRequest;
+import software.amazon.awssdk.metrics.MetricCollector;
+import software.amazon.awssdk.metrics.MetricPublisher;
+import software.amazon.awssdk.metrics.SdkMetric;
+import software.amazon.awssdk.services.ssooidc.SsoOidcAsyncClient;
 import software.amazon.awssdk.services.ssooidc.SsoOidcClient;
 import software.amazon.awssdk.services.ssooidc.model.CreateTokenWithIamRequest;
 import software.amazon.awssdk.services.ssooidc.model.CreateTokenWithIamResponse;
+import software.amazon.awssdk.services.ssooidc.model.SsoOidcException;
+import software.amazon.awssdk.services.sts.StsAsyncClient;
 import software.amazon.awssdk.services.sts.StsClient;
 import software.amazon.awssdk.services.sts.model.AssumeRoleRequest;
 import software.amazon.awssdk.services.sts.model.AssumeRoleResponse;
+import software.amazon.awssdk.services.sts.model.Credentials;
+import software.amazon.awssdk.services.sts.model.ExpiredTokenException;
 import software.amazon.awssdk.services.sts.model.ProvidedContext;
+import software.amazon.awssdk.services.sts.model.StsException;
+import software.amazon.awssdk.trustedidentitypropagation.DistributedCredentialsStore;
+import software.amazon.awssdk.trustedidentitypropagation.ExchangeApi;
+import software.amazon.awssdk.trustedidentitypropagation.ExchangeListener;
+import software.amazon.awssdk.trustedidentitypropagation.ExchangePhase;
+import software.amazon.awssdk.trustedidentitypropagation.ExchangeRateLimiter;
 import software.amazon.awssdk.trustedidentitypropagation.Helpers;
+import software.amazon.awssdk.trustedidentitypropagation.IdentityAwareCredentialsKey;
+import software.amazon.awssdk.trustedidentitypropagation.IdentityAwareCredentialsStore;
+import software.amazon.awssdk.utils.BinaryUtils;
+import software.amazon.awssdk.utils.CompletableFutureUtils;
+import software.amazon.awssdk.utils.Lazy;
 import software.amazon.awssdk.utils.Logger;
+import software.amazon.awssdk.utils.SdkAutoCloseable;
+import software.amazon.awssdk.utils.Validate;
 
+/**
+ * Exchanges the user's web token for identity-enhanced STS credentials and caches them until shortly before they
+ * expire. Cached credentials are refreshed ahead of their expiration; see {@link RefreshableCredentials}.
+ * <p>
+ * With the identity cache enabled, the web token provider is called on every resolution and a digest of the token
+ * selects the credentials in an {@link IdentityCredentialsCache}, so one provider can serve many users. The
+ * configuration options are described on the builder of
+ * {@link software.amazon.awssdk.trustedidentitypropagation.TrustedIdentityPropagationPlugin}.
+ */
 @SdkInternalApi
-public class IdentityAwareCredentialsProvider implements AwsCredentialsProvider {
+@ThreadSafe
+public class IdentityAwareCredentialsProvider implements AwsCredentialsProvider, SdkAutoCloseable {
 
     private static final Logger LOGGER = Logger.loggerFor(IdentityAwareCredentialsProvider.class);
 
     private static final int FIFTEEN_MINUTES_IN_SEC = 15 * 60;
+    private static final int TWELVE_HOURS_IN_SEC = 12 * 60 * 60;
+    private static final int[] SESSION_DURATION_STEPS_IN_SEC = {
+        TWELVE_HOURS_IN_SEC, 8 * 3600, 6 * 3600, 4 * 3600, 3 * 3600, 2 * 3600, 3600, FIFTEEN_MINUTES_IN_SEC
+    };
+    private static final Duration DEFAULT_STALE_TIME = Duration.ofMinutes(1);
+    private static final Duration DEFAULT_PREFETCH_TIME = Duration.ofMinutes(5);
+    private static final Duration DEFAULT_STALE_CREDENTIALS_GRACE_PERIOD = Duration.ofSeconds(30);
+    private static final int CIRCUIT_BREAKER_FAILURE_THRESHOLD = 5;
+    private static final Duration CIRCUIT_BREAKER_OPEN_DURATION = Duration.ofSeconds(30);
+    private static final int DEFAULT_IDENTITY_CACHE_MAX_ENTRIES = 1_000;
+    private static final Duration DEFAULT_IDENTITY_CACHE_IDLE_TIMEOUT = Duration.ofMinutes(30);
+    private static final String DEFAULT_IDENTITY_LABEL = "default";
+    private static final Duration METRICS_FLUSH_INTERVAL = Duration.ofMinutes(1);
 
     private static final String PLUGIN_METRIC_LABEL = "aws-tip";
     private static final String PLUGIN_METRIC_PREFIX = "p";
-    private AwsCredentials identityAwareCredentials;
+    private static final ApiName TIP_API_NAME = ApiName.builder()
+                                                       .name(PLUGIN_METRIC_PREFIX)
+                                                       .version(PLUGIN_METRIC_LABEL + "#" + Helpers.getVersion())
+                                                       .build();
+    private static final AwsRequestOverrideConfiguration OIDC_OVERRIDE_CONFIGURATION =
+        AwsRequestOverrideConfiguration.builder().addApiName(TIP_API_NAME).build();
+
+    private final String applicationArn;
+    private final String accessRoleArn;
+    private final Supplier<String> webTokenProvider;
+
+    /**
+     * The synchronous clients are supplied rather than passed, so that default clients can be created on first use.
+     */
+    private final Supplier<StsClient> stsClient;
+    private final Supplier<SsoOidcClient> ssoOidcClient;
+    private final StsAsyncClient stsAsyncClient;
+    private final SsoOidcAsyncClient ssoOidcAsyncClient;
+
+    private final Duration staleTime;
+    private final Duration prefetchTime;
+    private final boolean asyncCredentialUpdateEnabled;
+    private final boolean adaptiveSessionDurationEnabled;
+    private final Duration staleCredentialsGracePeriod;
+    private final Executor backgroundRefreshExecutor;
+    private final Clock clock;
+
+    /**
+     * Shared by the credentials of all identities, since OIDC and STS throttle the account rather than an identity.
+     */
+    private final CircuitBreaker circuitBreaker =
+        new CircuitBreaker(CIRCUIT_BREAKER_FAILURE_THRESHOLD, CIRCUIT_BREAKER_OPEN_DURATION);
+
+    /**
+     * The duration the role is assumed for. Only ever lowered, when STS rejects the duration in adaptive mode.
+     */
+    private final AtomicInteger sessionDurationSeconds;
+
+    /**
+     * The credentials of the single identity returned by the web token provider. Null when the identity cache is used.
+     */
+    private final RefreshableCredentials identityAwareCredentials;
+
+    /**
+     * The credentials of every identity returned by the web token provider. Null unless the identity cache is enabled.
+     */
+    private final IdentityCredentialsCache identityCache;
+
+    private final CredentialsMetrics metrics;
+
+    /**
+     * Persists the credentials across restarts. Null if there is no credentials store.
+     */
+    private final IdentityAwareCredentialsStore credentialsStore;
+
+    /**
+     * Serves the credentials other nodes exchanged and publishes the credentials of this provider's exchanges. Null if
+     * there is no distributed credentials store.
+     */
+    private final DistributedCredentials distributedCredentials;
+
+    /**
+     * Deduplicates the exchanges of this and other providers of the JVM for the same identity. Null if the provider
+     * exchanges on its own.
+     */
+    private final SharedCredentialsRegistry sharedCredentialsRegistry;
 
-    private String applicationArn;
-    private String accessRoleArn;
-    private Supplier<String> webTokenProvider;
+    /**
+     * Limits the rate of OIDC and STS calls. Null if the calls are not limited.
+     */
+    private final ExchangeRateLimiter rateLimiter;
 
-    private StsClient stsClient;
-    private SsoOidcClient ssoOidcClient;
+    /**
+     * The periodic publication of the cache metrics. Null if there are no metric publishers.
+     */
+    private final ScheduledFuture<?> metricsFlush;
 
+    /**
+     * The parts of the OIDC and STS requests that are the same for every exchange of the provider, so that an exchange
+     * only sets the fields of its identity. The STS requests are signed with the credentials of the OIDC client, which
+     * may only be created on first use.
+     */
+    private final CreateTokenWithIamRequest createTokenRequestTemplate;
+    private final CreateTokenWithIamRequest refreshTokenRequestTemplate;
+    private final Lazy<AssumeRoleRequest> assumeRoleRequestTemplate;
+    private final Lazy<AssumeRoleRequest> asyncAssumeRoleRequestTemplate;
 
-    public IdentityAwareCredentialsProvider(StsClient stsClient,
-        SsoOidcClient ssoOidcClient,
-        Supplier<String> webTokenProvider, String applicationArn, String accessRoleArn) {
-        this.stsClient = stsClient;
-        this.ssoOidcClient = ssoOidcClient;
-        this.webTokenProvider = webTokenProvider;
-        this.applicationArn = applicationArn;
-        this.accessRoleArn = accessRoleArn;
+    private IdentityAwareCredentialsProvider(Builder builder) {
+        this.stsClient = builder.stsClient;
+        this.ssoOidcClient = builder.ssoOidcClient;
+        this.stsAsyncClient = builder.stsAsyncClient;
+        this.ssoOidcAsyncClient = builder.ssoOidcAsyncClient;
+        Validate.isTrue((stsClient != null && ssoOidcClient != null)
+                        || (stsAsyncClient != null && ssoOidcAsyncClient != null),
+                        "Synchronous or asynchronous STS and OIDC clients must be provided.");
+        this.webTokenProvider = Validate.paramNotNull(builder.webTokenProvider, "webTokenProvider");
+        this.applicationArn = Validate.paramNotNull(builder.applicationArn, "applicationArn");
+        this.accessRoleArn = Validate.paramNotNull(builder.accessRoleArn, "accessRoleArn");
+
+        this.staleTime = Validate.getOrDefault(builder.staleTime, () -> DEFAULT_STALE_TIME);
+        this.prefetchTime = Validate.getOrDefault(builder.prefetchTime, () -> DEFAULT_PREFETCH_TIME);
+        this.asyncCredentialUpdateEnabled = Validate.getOrDefault(builder.asyncCredentialUpdateEnabled, () -> true);
+        Validate.isTrue(prefetchTime.compareTo(staleTime) >= 0, "prefetchTime must not be shorter than staleTime.");
+
+        long sessionDuration = Validate.getOrDefault(builder.sessionDuration, () -> Duration.ofSeconds(FIFTEEN_MINUTES_IN_SEC))
+                                       .getSeconds();
+        Validate.isTrue(sessionDuration >= FIFTEEN_MINUTES_IN_SEC && sessionDuration <= TWELVE_HOURS_IN_SEC,
+                        "sessionDuration must be between 15 minutes and 12 hours.");
+        this.sessionDurationSeconds = new AtomicInteger((int) sessionDuration);
+        this.adaptiveSessionDurationEnabled = Validate.getOrDefault(builder.adaptiveSessionDurationEnabled, () -> false);
+        this.staleCredentialsGracePeriod = Validate.getOrDefault(builder.staleCredentialsGracePeriod,
+                                                                 () -> DEFAULT_STALE_CREDENTIALS_GRACE_PERIOD);
+        Validate.isNotNegative(staleCredentialsGracePeriod, "staleCredentialsGracePeriod");
+        this.backgroundRefreshExecutor = builder.backgroundRefreshExecutor;
+
+        this.clock = Clock.systemUTC();
+        this.metrics = CredentialsMetrics.create(builder.metricPublishers, builder.exchangeListener);
+        this.credentialsStore = builder.credentialsStore;
+        this.sharedCredentialsRegistry = Boolean.TRUE.equals(builder.processWideSharingEnabled)
+                                         ? SharedCredentialsRegistry.INSTANCE : null;
+        this.distributedCredentials =
+            builder.distributedCredentialsStore == null
+            ? null
+            : new DistributedCredentials(builder.distributedCredentialsStore, builder.distributedCredentialsEncryptionKey,
+                                         Validate.getOrDefault(builder.distributedCredentialsNearCacheTtl,
+                                                               () -> DistributedCredentials.DEFAULT_NEAR_CACHE_TTL),
+                                         clock);
+        this.rateLimiter = builder.rateLimiter;
+
+        this.createTokenRequestTemplate = CreateTokenWithIamRequest.builder()
+                                                                   .grantType(JWT_BEARER_GRANT_URI)
+                                                                   .clientId(applicationArn)
+                                                                   .overrideConfiguration(OIDC_OVERRIDE_CONFIGURATION)
+                                                                   .build();
+        this.refreshTokenRequestTemplate = createTokenRequestTemplate.toBuilder().grantType(REFRESH_TOKEN_GRANT).build();
+        String sessionName = getIdentityEnhancedSessionName(applicationArn);
+        this.assumeRoleRequestTemplate = new Lazy<>(() -> assumeRoleRequestTemplate(
+            sessionName, ssoOidcClient.get().serviceClientConfiguration().credentialsProvider()));
+        this.asyncAssumeRoleRequestTemplate = new Lazy<>(() -> assumeRoleRequestTemplate(
+            sessionName, ssoOidcAsyncClient.serviceClientConfiguration().credentialsProvider()));
+
+        if (Boolean.TRUE.equals(builder.identityCacheEnabled)) {
+            int maxEntries = Validate.getOrDefault(builder.identityCacheMaxEntries,
+                                                   () -> DEFAULT_IDENTITY_CACHE_MAX_ENTRIES);
+            Duration idleTimeout = Validate.getOrDefault(builder.identityCacheIdleTimeout,
+                                                         () -> DEFAULT_IDENTITY_CACHE_IDLE_TIMEOUT);
+            Validate.isPositive(maxEntries, "identityCacheMaxEntries");
+            Validate.isPositive(idleTimeout, "identityCacheIdleTimeout");
+
+            this.identityAwareCredentials = null;
+            // Identities that stop making requests are left to expire, so their credentials are not prefetched on a
+            // schedule.
+            this.identityCache = new IdentityCredentialsCache(
+                entry -> newRefreshableCredentials(entry::webToken, entry::identityKey, false),
+                maxEntries, idleTimeout, clock);
+        } else {
+            this.identityCache = null;
+            // The single identity is keyed on its label rather than on a token, so that its stored and shared
+            // credentials are found again with the different token of a restarted process.
+            String identityLabel = Validate.getOrDefault(builder.identityLabel, () -> DEFAULT_IDENTITY_LABEL);
+            this.identityAwareCredentials = newRefreshableCredentials(webTokenProvider, () -> identityLabel, true);
+        }
+
+        if (metrics.enabled()) {
+            long flushMillis = METRICS_FLUSH_INTERVAL.toMillis();
+            this.metricsFlush = RefreshableCredentials.SharedExecutors.SCHEDULER.scheduleAtFixedRate(
+                this::flushMetrics, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+        } else {
+            this.metricsFlush = null;
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
     }
 
     @Override
     public AwsCredentials resolveCredentials() {
-        if (identityAwareCredentials == null) {
-            try {
-                identityAwareCredentials = generateIdentityAwareCreds();
-            } catch (ParseException e) {
-                LOGGER.error(() -> "Failed to generate identity aware credentials", e.getCause());
-                throw new RuntimeException(e);
+        if (identityCache == null) {
+            return identityAwareCredentials.get();
+        }
+        String webToken = nextWebToken();
+        return identityCache.get(identityKey(webToken), webToken);
+    }
+
+    @Override
+    public CompletableFuture<AwsCredentialsIdentity> resolveIdentity(ResolveIdentityRequest request) {
+        CompletableFuture<AwsSessionCredentials> credentials;
+        try {
+            if (identityCache == null) {
+                credentials = identityAwareCredentials.getAsync();
+            } else {
+                String webToken = nextWebToken();
+                credentials = identityCache.getAsync(identityKey(webToken), webToken);
+            }
+        } catch (RuntimeException e) {
+            return CompletableFutureUtils.failedFuture(e);
+        }
+        return credentials.thenApply(Function.identity());
+    }
+
+    /**
+     * Resolves the credentials of the identity returned by the web token provider ahead of the first request, without
+     * blocking the calling thread.
+     */
+    public CompletableFuture<Void> prefetch() {
+        CompletableFuture<AwsSessionCredentials> credentials;
+        try {
+            if (identityCache == null) {
+                credentials = identityAwareCredentials.prefetchAsync();
+            } else {
+                String webToken = nextWebToken();
+                credentials = identityCache.prefetchAsync(identityKey(webToken), webToken);
+            }
+        } catch (RuntimeException e) {
+            return CompletableFutureUtils.failedFuture(e);
+        }
+        return credentials.thenApply(c -> null);
+    }
+
+    /**
+     * Resolves and caches the credentials of the identity the given web token was issued for, without blocking the
+     * calling thread. Requires the identity cache, since otherwise only the identity of the web token provider is
+     * served.
+     */
+    public CompletableFuture<Void> prefetch(String webToken) {
+        if (identityCache == null) {
+            return CompletableFutureUtils.failedFuture(
+                new IllegalStateException("Prefetching credentials for a given web token requires the identity cache."));
+        }
+        try {
+            Validate.paramNotNull(webToken, "webToken");
+            return identityCache.prefetchAsync(identityKey(webToken), webToken).thenApply(c -> null);
+        } catch (RuntimeException e) {
+            return CompletableFutureUtils.failedFuture(e);
+        }
+    }
+
+    /**
+     * Resolves the credentials of the identity the given web token was issued for on the calling thread, exchanging the
+     * token if the identity is not cached or its credentials need to be refreshed. Requires the identity cache.
+     */
+    public AwsSessionCredentials resolveCredentials(String webToken) {
+        Validate.validState(identityCache != null, "Resolving credentials for a given web token requires the identity cache.");
+        Validate.paramNotNull(webToken, "webToken");
+        return identityCache.get(identityKey(webToken), webToken);
+    }
+
+    /**
+     * Returns a provider of the credentials of the identity the given web token was issued for, e.g. to be set as the
+     * credentials provider of a single request made on behalf of that user. Its resolutions share the identity cache
+     * with every other resolution of this provider. Requires the identity cache.
+     */
+    public AwsCredentialsProvider forWebToken(String webToken) {
+        Validate.validState(identityCache != null, "Resolving credentials for a given web token requires the identity cache.");
+        Validate.paramNotNull(webToken, "webToken");
+        return new WebTokenCredentialsProvider(webToken);
+    }
+
+    @Override
+    public void close() {
+        if (metricsFlush != null) {
+            metricsFlush.cancel(false);
+            flushMetrics();
+        }
+        if (identityCache == null) {
+            identityAwareCredentials.close();
+        } else {
+            identityCache.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "IdentityAwareCredentialsProvider(" + accessRoleArn + ")";
+    }
+
+    /**
+     * Identifies the credentials exchanged for a web token by a digest of the whole token. The token's claims are not
+     * verified before the exchange, so credentials are only ever served to the exact token they were exchanged for and
+     * never to a different token that merely claims the same issuer and subject.
+     */
+    private static String identityKey(String webToken) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available.", e);
+        }
+        return BinaryUtils.toHex(digest.digest(webToken.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Whether retrying the failed call right away with different input is pointless because the service is throttling
+     * or failing.
+     */
+    private static boolean isThrottlingOrServerError(AwsServiceException e) {
+        return e.isThrottlingException() || e.statusCode() >= 500;
+    }
+
+    /**
+     * Whether STS rejected the identity context because it expired, so that a new IAM Identity Center token can
+     * succeed. Only {@code ExpiredTokenException}, the error STS documents for an expired token passed to
+     * {@code AssumeRole}, is matched; any other failure, e.g. the role denying the identity, would only fail again.
+     */
+    private static boolean isIdentityContextRejected(StsException e) {
+        if (e instanceof ExpiredTokenException) {
+            return true;
+        }
+        String errorCode = e.awsErrorDetails() == null ? null : e.awsErrorDetails().errorCode();
+        return "ExpiredToken".equals(errorCode) || "ExpiredTokenException".equals(errorCode);
+    }
+
+    /**
+     * Whether STS rejected the requested session duration, e.g. because it exceeds the role's maximum session duration.
+     * <p>
+     * STS has no error code of its own for this; it answers with a {@code ValidationError} whose message names the
+     * {@code DurationSeconds} parameter, so the message is matched on. Should the message ever change, the duration is
+     * no longer stepped down and the error is thrown like any other.
+     */
+    private static boolean isSessionDurationRejected(StsException e) {
+        return e.awsErrorDetails() != null
+               && "ValidationError".equals(e.awsErrorDetails().errorCode())
+               && e.awsErrorDetails().errorMessage() != null
+               && e.awsErrorDetails().errorMessage().contains("DurationSeconds");
+    }
+
+    /**
+     * The next shorter session duration to try after {@code rejectedSeconds} was rejected, or
+     * {@code rejectedSeconds} if there is none.
+     */
+    private static int shorterSessionDuration(int rejectedSeconds) {
+        for (int step : SESSION_DURATION_STEPS_IN_SEC) {
+            if (step < rejectedSeconds) {
+                return step;
             }
         }
-        return identityAwareCredentials;
+        return rejectedSeconds;
+    }
+
+    private AssumeRoleRequest assumeRoleRequestTemplate(
+        String sessionName, IdentityProvider<? extends AwsCredentialsIdentity> bootstrapCredentials) {
+        return AssumeRoleRequest.builder()
+                                .roleArn(accessRoleArn)
+                                .roleSessionName(sessionName)
+                                .overrideConfiguration(c -> c.credentialsProvider(bootstrapCredentials)
+                                                             .addApiName(TIP_API_NAME))
+                                .build();
+    }
+
+    private void flushMetrics() {
+        int cacheSize = identityCache != null ? identityCache.size()
+                                              : identityAwareCredentials.peek() != null ? 1 : 0;
+        metrics.flush(cacheSize);
     }
 
+    private String nextWebToken() {
+        return Validate.notNull(webTokenProvider.get(), "The web token provider returned a null token.");
+    }
 
-    private AwsSessionCredentials generateIdentityAwareCreds() throws ParseException {
+    /**
+     * Creates the cache of one identity, whose web token is read from {@code webToken} whenever it has to be
+     * exchanged. The identity is only read if there is a credentials store to look it up in or the exchanges are shared
+     * with other providers or nodes.
+     */
+    private RefreshableCredentials newRefreshableCredentials(Supplier<String> webToken, Supplier<String> identity,
+                                                             boolean scheduledPrefetchEnabled) {
+        AtomicReference<IdentityCenterToken> tokenCache = new AtomicReference<>();
+        Supplier<IdentityAwareCredentialsKey> credentialsKey =
+            new Lazy<>(() -> IdentityAwareCredentialsKey.create(applicationArn, accessRoleArn, identity.get()))::getValue;
+        Lazy<SharedCredentialsRegistry.Registration> registration =
+            sharedCredentialsRegistry == null ? null
+                                              : new Lazy<>(() -> sharedCredentialsRegistry.register(credentialsKey.get()));
 
-        CreateTokenWithIamResponse createTokenWithIamResponse = ssoOidcClient.createTokenWithIAM(
-            CreateTokenWithIamRequest.builder()
-                .grantType(JWT_BEARER_GRANT_URI)
-                .assertion(webTokenProvider.get())
-                .clientId(applicationArn)
-                .overrideConfiguration(c -> c.addApiName(getTipApiName()))
-                .build());
+        Supplier<AwsSessionCredentials> credentialsSupplier =
+            () -> CompletableFutureUtils.joinLikeSync(exchange(webToken, tokenCache, stsClient == null, credentialsKey,
+                                                               registration));
+        RefreshableCredentials.Builder credentials =
+            RefreshableCredentials.builder(credentialsSupplier)
+                                  .staleTime(staleTime)
+                                  .prefetchTime(prefetchTime)
+                                  .asyncCredentialUpdateEnabled(asyncCredentialUpdateEnabled)
+                                  .scheduledPrefetchEnabled(scheduledPrefetchEnabled)
+                                  .gracePeriod(staleCredentialsGracePeriod)
+                                  .refreshExecutor(backgroundRefreshExecutor)
+                                  .circuitBreaker(circuitBreaker)
+                                  .clock(clock)
+                                  .metrics(metrics);
+        if (stsAsyncClient != null) {
+            credentials.asyncCredentialsSupplier(() -> exchange(webToken, tokenCache, true, credentialsKey, registration));
+        }
+        if (credentialsStore != null) {
+            credentials.initialCredentials(() -> credentialsStore.load(credentialsKey.get()).orElse(null))
+                       .refreshListener(c -> credentialsStore.store(credentialsKey.get(), c));
+        }
+        if (registration != null) {
+            credentials.closeListener(() -> {
+                if (registration.hasValue()) {
+                    registration.getValue().close();
+                }
+            });
+        }
+        return credentials.build();
+    }
 
-        String contextAssertion = createTokenWithIamResponse.awsAdditionalDetails().identityContext();
-        AssumeRoleResponse assumeRoleResponse = stsClient.assumeRole(AssumeRoleRequest.builder()
-            .roleArn(accessRoleArn)
-            .durationSeconds(FIFTEEN_MINUTES_IN_SEC)
-            .roleSessionName(getIdentityEnhancedSessionName(applicationArn))
-            .overrideConfiguration(
-                c -> c.credentialsProvider(ssoOidcClient.serviceClientConfiguration()
-                    .credentialsProvider()).addApiName(getTipApiName()))
+    /**
+     * Exchanges the web token for the credentials of the identity, joining the exchange of another provider of the JVM
+     * for the same identity instead if there is a shared registration, and serving the credentials of another node
+     * instead if the distributed credentials store has usable ones.
+     */
+    private CompletableFuture<AwsSessionCredentials> exchange(Supplier<String> webToken,
+                                                              AtomicReference<IdentityCenterToken> tokenCache, boolean async,
+                                                              Supplier<IdentityAwareCredentialsKey> credentialsKey,
+                                                              Lazy<SharedCredentialsRegistry.Registration> registration) {
+        Supplier<CompletableFuture<AwsSessionCredentials>> exchange =
+            () -> generateIdentityAwareCreds(webToken, tokenCache, async);
+        if (distributedCredentials != null) {
+            Supplier<CompletableFuture<AwsSessionCredentials>> localExchange = exchange;
+            exchange = () -> distributedCredentials.getOrExchange(credentialsKey.get(), this::isOutsidePrefetchWindow,
+                                                                  async, localExchange);
+        }
+        if (registration == null) {
+            return exchange.get();
+        }
+        return registration.getValue().exchange(this::isOutsidePrefetchWindow, exchange);
+    }
+
+    /**
+     * Whether credentials exchanged by another provider or node are fresh enough to be served instead of exchanging
+     * again.
+     */
+    private boolean isOutsidePrefetchWindow(AwsSessionCredentials credentials) {
+        return credentials.expirationTime()
+                          .map(expiration -> clock.instant().isBefore(expiration.minus(prefetchTime)))
+                          .orElse(true);
+    }
+
+    /**
+     * Assumes the access role with the identity context of the cached IAM Identity Center token, renewing or replacing
+     * the token first if it can no longer be used. The web token is only requested if a new token has to be created.
+     * <p>
+     * With {@code async} unset the synchronous clients are called on the calling thread and the returned future is
+     * already complete.
+     */
+    private CompletableFuture<AwsSessionCredentials> generateIdentityAwareCreds(
+        Supplier<String> webToken, AtomicReference<IdentityCenterToken> tokenCache, boolean async) {
+
+        ExchangeContext exchange = metrics.startExchange();
+        IdentityCenterToken cachedToken = tokenCache.get();
+        CompletableFuture<AwsSessionCredentials> credentials;
+        if (cachedToken != null && cachedToken.isUsable(clock.instant())) {
+            credentials = assumeRoleWithIdentityContext(cachedToken.identityContext(), async, exchange)
+                .handle((c, t) -> {
+                    if (t == null) {
+                        return CompletableFuture.completedFuture(c);
+                    }
+                    Throwable cause = FutureUtils.unwrap(t);
+                    if (!(cause instanceof StsException) || !isIdentityContextRejected((StsException) cause)) {
+                        return CompletableFutureUtils.<AwsSessionCredentials>failedFuture(cause);
+                    }
+                    LOGGER.debug(() -> "The cached identity context was rejected; requesting a new IAM Identity "
+                                       + "Center token.", cause);
+                    return assumeRoleWithNewToken(webToken, tokenCache, cachedToken, async, exchange);
+                })
+                .thenCompose(Function.identity());
+        } else {
+            credentials = assumeRoleWithNewToken(webToken, tokenCache, cachedToken, async, exchange);
+        }
+
+        return credentials.whenComplete((c, t) -> {
+            exchange.metrics().reportMetric(EXCHANGE_SUCCESSFUL, t == null);
+            metrics.completeExchange(exchange, t);
+            if (t != null) {
+                LOGGER.error(() -> "Failed to generate identity aware credentials", FutureUtils.unwrap(t));
+            }
+        });
+    }
+
+    private CompletableFuture<AwsSessionCredentials> assumeRoleWithNewToken(
+        Supplier<String> webToken, AtomicReference<IdentityCenterToken> tokenCache, IdentityCenterToken cachedToken,
+        boolean async, ExchangeContext exchange) {
+
+        CompletableFuture<IdentityCenterToken> renewedToken = cachedToken == null
+                                                              ? CompletableFuture.completedFuture(null)
+                                                              : renewIdentityCenterToken(cachedToken, async, exchange);
+        return renewedToken
+            .thenCompose(renewed -> renewed != null
+                                    ? CompletableFuture.completedFuture(renewed)
+                                    : createIdentityCenterToken(webToken.get(), async, exchange))
+            .thenCompose(token -> {
+                tokenCache.set(token);
+                return assumeRoleWithIdentityContext(token.identityContext(), async, exchange);
+            });
+    }
+
+    private CompletableFuture<IdentityCenterToken> createIdentityCenterToken(String webToken, boolean async,
+                                                                             ExchangeContext exchange) {
+        Instant issuedAt = clock.instant();
+        CreateTokenWithIamRequest request = createTokenRequestTemplate.toBuilder().assertion(webToken).build();
+
+        return createTokenWithIam(request, async, exchange).thenApply(r -> IdentityCenterToken.from(r, issuedAt));
+    }
+
+    /**
+     * Renews an IAM Identity Center token with its refresh token. Completes with null if the token has no refresh
+     * token, or if it was rejected or the renewed token has no identity context, in which case a new token has to be
+     * created.
+     */
+    private CompletableFuture<IdentityCenterToken> renewIdentityCenterToken(IdentityCenterToken token, boolean async,
+                                                                            ExchangeContext exchange) {
+        if (token.refreshToken() == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        Instant issuedAt = clock.instant();
+        CreateTokenWithIamRequest request = refreshTokenRequestTemplate.toBuilder().refreshToken(token.refreshToken()).build();
+
+        return createTokenWithIam(request, async, exchange).handle((response, t) -> {
+            if (t == null) {
+                IdentityCenterToken renewed = IdentityCenterToken.from(response, issuedAt);
+                return renewed.identityContext() != null ? renewed : null;
+            }
+            Throwable cause = FutureUtils.unwrap(t);
+            if (!(cause instanceof SsoOidcException) || isThrottlingOrServerError((SsoOidcException) cause)) {
+                throw CompletableFutureUtils.errorAsCompletionException(cause);
+            }
+            LOGGER.debug(() -> "Failed to renew the IAM Identity Center token; exchanging the web token instead.", cause);
+            return null;
+        });
+    }
+
+    private CompletableFuture<AwsSessionCredentials> assumeRoleWithIdentityContext(String contextAssertion,
+                                                                                   boolean async,
+                                                                                   ExchangeContext exchange) {
+        AssumeRoleRequest template = async ? asyncAssumeRoleRequestTemplate.getValue() : assumeRoleRequestTemplate.getValue();
+        int durationSeconds = sessionDurationSeconds.get();
+        AssumeRoleRequest request = template.toBuilder()
+            .durationSeconds(durationSeconds)
             .providedContexts(ProvidedContext.builder()
                 .providerArn(CONTEXT_PROVIDER_IDENTITY_CENTER)
                 .contextAssertion(contextAssertion)
                 .build())
-            .build());
-
-        AwsSessionCredentials credentials = new AwsSessionCredentials.Builder()
-            .accessKeyId(assumeRoleResponse.credentials().accessKeyId())
-            .secretAccessKey(assumeRoleResponse.credentials().secretAccessKey())
-            .sessionToken(assumeRoleResponse.credentials().sessionToken())
             .build();
 
-        return credentials;
+        CompletableFuture<AwsSessionCredentials> credentials =
+            assumeRole(request, async, exchange).thenApply(assumeRoleResponse -> {
+                Credentials stsCredentials = assumeRoleResponse.credentials();
+                return AwsSessionCredentials.builder()
+                    .accessKeyId(stsCredentials.accessKeyId())
+                    .secretAccessKey(stsCredentials.secretAccessKey())
+                    .sessionToken(stsCredentials.sessionToken())
+                    .expirationTime(stsCredentials.expiration())
+                    .build();
+            });
+        if (!adaptiveSessionDurationEnabled) {
+            return credentials;
+        }
+        return credentials
+            .handle((c, t) -> {
+                if (t == null) {
+                    return CompletableFuture.completedFuture(c);
+                }
+                Throwable cause = FutureUtils.unwrap(t);
+                int shorterDuration = shorterSessionDuration(durationSeconds);
+                if (shorterDuration == durationSeconds
+                    || !(cause instanceof StsException) || !isSessionDurationRejected((StsException) cause)) {
+                    return CompletableFutureUtils.<AwsSessionCredentials>failedFuture(cause);
+                }
+                sessionDurationSeconds.accumulateAndGet(shorterDuration, Math::min);
+                LOGGER.info(() -> "STS rejected a session duration of " + durationSeconds + " seconds for "
+                                  + accessRoleArn + "; retrying with " + shorterDuration + " seconds.");
+                return assumeRoleWithIdentityContext(contextAssertion, async, exchange);
+            })
+            .thenCompose(Function.identity());
+    }
+
+    private CompletableFuture<CreateTokenWithIamResponse> createTokenWithIam(CreateTokenWithIamRequest request,
+                                                                             boolean async, ExchangeContext exchange) {
+        return withPermit(ExchangeApi.CREATE_TOKEN_WITH_IAM, OIDC_RATE_LIMIT_WAIT_DURATION, async, exchange,
+                          () -> exchange.trace(ExchangePhase.CREATE_TOKEN_WITH_IAM,
+                                               () -> callCreateTokenWithIam(request, async, exchange)));
     }
 
-    private ApiName getTipApiName() {
-        ApiName apiName = ApiName.builder()
-            .name(PLUGIN_METRIC_PREFIX)
-            .version(PLUGIN_METRIC_LABEL.concat("#").concat(Helpers.getVersion()))
-            .build();
-        return apiName;
+    private CompletableFuture<CreateTokenWithIamResponse> callCreateTokenWithIam(CreateTokenWithIamRequest request,
+                                                                                 boolean async,
+                                                                                 ExchangeContext exchange) {
+        long start = System.nanoTime();
+        CompletableFuture<CreateTokenWithIamResponse> response;
+        if (async) {
+            response = ssoOidcAsyncClient.createTokenWithIAM(request);
+        } else {
+            try {
+                response = CompletableFuture.completedFuture(ssoOidcClient.get().createTokenWithIAM(request));
+            } catch (RuntimeException e) {
+                response = CompletableFutureUtils.failedFuture(e);
+            }
+        }
+        return response.whenComplete(
+            (r, t) -> exchange.metrics().reportMetric(OIDC_EXCHANGE_DURATION, Duration.ofNanos(System.nanoTime() - start)));
+    }
+
+    private CompletableFuture<AssumeRoleResponse> assumeRole(AssumeRoleRequest request, boolean async,
+                                                             ExchangeContext exchange) {
+        return withPermit(ExchangeApi.ASSUME_ROLE, STS_RATE_LIMIT_WAIT_DURATION, async, exchange,
+                          () -> exchange.trace(ExchangePhase.ASSUME_ROLE, () -> callAssumeRole(request, async, exchange)));
+    }
+
+    private CompletableFuture<AssumeRoleResponse> callAssumeRole(AssumeRoleRequest request, boolean async,
+                                                                 ExchangeContext exchange) {
+        long start = System.nanoTime();
+        CompletableFuture<AssumeRoleResponse> response;
+        if (async) {
+            response = stsAsyncClient.assumeRole(request);
+        } else {
+            try {
+                response = CompletableFuture.completedFuture(stsClient.get().assumeRole(request));
+            } catch (RuntimeException e) {
+                response = CompletableFutureUtils.failedFuture(e);
+            }
+        }
+        return response.whenComplete(
+            (r, t) -> exchange.metrics().reportMetric(STS_EXCHANGE_DURATION, Duration.ofNanos(System.nanoTime() - start)));
+    }
+
+    /**
+     * Makes the call once the rate limiter hands out a permit for the API, reporting how long that took. Without
+     * {@code async} the calling thread waits for the permit.
+     */
+    private <T> CompletableFuture<T> withPermit(ExchangeApi api, SdkMetric<Duration> waitMetric, boolean async,
+                                                ExchangeContext exchange, Supplier<CompletableFuture<T>> call) {
+        if (rateLimiter == null) {
+            return call.get();
+        }
+        long start = System.nanoTime();
+        CompletableFuture<Void> permit;
+        try {
+            permit = exchange.trace(ExchangePhase.RATE_LIMIT_WAIT, () -> {
+                CompletableFuture<Void> acquired = rateLimiter.acquire(api);
+                if (!async) {
+                    CompletableFutureUtils.joinLikeSync(acquired);
+                }
+                return acquired;
+            });
+        } catch (RuntimeException e) {
+            return CompletableFutureUtils.failedFuture(e);
+        }
+        return permit.thenCompose(v -> {
+            exchange.metrics().reportMetric(waitMetric, Duration.ofNanos(System.nanoTime() - start));
+            return call.get();
+        });
     }
 
+    /**
+     * Resolves the credentials of one web token through the identity cache. The identity key is read from the token
+     * once rather than on every resolution.
+     */
+    private final class WebTokenCredentialsProvider implements AwsCredentialsProvider {
+        private final String webToken;
+        private final String identityKey;
+
+        private WebTokenCredentialsProvider(String webToken) {
+            this.webToken = webToken;
+            this.identityKey = identityKey(webToken);
+        }
+
+        @Override
+        public AwsCredentials resolveCredentials() {
+            return identityCache.get(identityKey, webToken);
+        }
+
+        @Override
+        public CompletableFuture<AwsCredentialsIdentity> resolveIdentity(ResolveIdentityRequest request) {
+            try {
+                return identityCache.getAsync(identityKey, webToken).thenApply(Function.identity());
+            } catch (RuntimeException e) {
+                return CompletableFutureUtils.failedFuture(e);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "IdentityAwareCredentialsProvider(" + accessRoleArn + ", per-request web token)";
+        }
+    }
+
+    public static final class Builder {
+        private Supplier<StsClient> stsClient;
+        private Supplier<SsoOidcClient> ssoOidcClient;
+        private StsAsyncClient stsAsyncClient;
+        private SsoOidcAsyncClient ssoOidcAsyncClient;
+        private Supplier<String> webTokenProvider;
+        private String applicationArn;
+        private String accessRoleArn;
+        private Duration staleTime;
+        private Duration prefetchTime;
+        private Boolean asyncCredentialUpdateEnabled;
+        private Duration sessionDuration;
+        private Boolean adaptiveSessionDurationEnabled;
+        private Duration staleCredentialsGracePeriod;
+        private Executor backgroundRefreshExecutor;
+        private Boolean identityCacheEnabled;
+        private Integer identityCacheMaxEntries;
+        private Duration identityCacheIdleTimeout;
+        private String identityLabel;
+        private List<MetricPublisher> metricPublishers;
+        private IdentityAwareCredentialsStore credentialsStore;
+        private Boolean processWideSharingEnabled;
+        private DistributedCredentialsStore distributedCredentialsStore;
+        private SecretKey distributedCredentialsEncryptionKey;
+        private Duration distributedCredentialsNearCacheTtl;
+        private ExchangeRateLimiter rateLimiter;
+        private ExchangeListener exchangeListener;
+
+        private Builder() {
+        }
+
+        public Builder stsClient(StsClient stsClient) {
+            return stsClient(stsClient == null ? null : () -> stsClient);
+        }
+
+        /**
+         * Supplies the STS client on first use, e.g. to defer creating a default client until credentials are first
+         * resolved. The supplier is called on every exchange and must return the same client.
+         */
+        public Builder stsClient(Supplier<StsClient> stsClient) {
+            this.stsClient = stsClient;
+            return this;
+        }
+
+        public Builder ssoOidcClient(SsoOidcClient ssoOidcClient) {
+            return ssoOidcClient(ssoOidcClient == null ? null : () -> ssoOidcClient);
+        }
+
+        /**
+         * Supplies the OIDC client on first use. The supplier is called on every exchange and must return the same
+         * client.
+         */
+        public Builder ssoOidcClient(Supplier<SsoOidcClient> ssoOidcClient) {
+            this.ssoOidcClient = ssoOidcClient;
+            return this;
+        }
+
+        /**
+         * The STS client used for non-blocking credential resolution. Must be set together with the asynchronous OIDC
+         * client.
+         */
+        public Builder stsAsyncClient(StsAsyncClient stsAsyncClient) {
+            this.stsAsyncClient = stsAsyncClient;
+            return this;
+        }
+
+        /**
+         * The OIDC client used for non-blocking credential resolution. Must be set together with the asynchronous STS
+         * client.
+         */
+        public Builder ssoOidcAsyncClient(SsoOidcAsyncClient ssoOidcAsyncClient) {
+            this.ssoOidcAsyncClient = ssoOidcAsyncClient;
+            return this;
+        }
+
+        public Builder webTokenProvider(Supplier<String> webTokenProvider) {
+            this.webTokenProvider = webTokenProvider;
+            return this;
+        }
+
+        public Builder applicationArn(String applicationArn) {
+            this.applicationArn = applicationArn;
+            return this;
+        }
+
+        public Builder accessRoleArn(String accessRoleArn) {
+            this.accessRoleArn = accessRoleArn;
+            return this;
+        }
+
+        /**
+         * How long before the credentials expire that callers block on a refresh. Defaults to 1 minute.
+         */
+        public Builder staleTime(Duration staleTime) {
+            this.staleTime = staleTime;
+            return this;
+        }
+
+        /**
+         * How long before the credentials expire that a refresh is started while the cached credentials keep being
+         * served. Defaults to 5 minutes.
+         */
+        public Builder prefetchTime(Duration prefetchTime) {
+            this.prefetchTime = prefetchTime;
+            return this;
+        }
+
+        /**
+         * Whether prefetches run on a background thread instead of the calling thread. Defaults to true.
+         */
+        public Builder asyncCredentialUpdateEnabled(Boolean asyncCredentialUpdateEnabled) {
+            this.asyncCredentialUpdateEnabled = asyncCredentialUpdateEnabled;
+            return this;
+        }
+
+        /**
+         * The duration the role is assumed for, between 15 minutes and 12 hours and at most the role's maximum session
+         * duration. Defaults to 15 minutes.
+         */
+        public Builder sessionDuration(Duration sessionDuration) {
+            this.sessionDuration = sessionDuration;
+            return this;
+        }
+
+        /**
+         * Whether a session duration rejected by STS is retried with a shorter one. Defaults to false.
+         */
+        public Builder adaptiveSessionDurationEnabled(Boolean adaptiveSessionDurationEnabled) {
+            this.adaptiveSessionDurationEnabled = adaptiveSessionDurationEnabled;
+            return this;
+        }
+
+        /**
+         * How long past their stale time credentials keep being served while they cannot be refreshed. They are never
+         * served past their expiration. Defaults to 30 seconds; zero turns the fallback off.
+         */
+        public Builder staleCredentialsGracePeriod(Duration staleCredentialsGracePeriod) {
+            this.staleCredentialsGracePeriod = staleCredentialsGracePeriod;
+            return this;
+        }
+
+        /**
+         * The executor of refreshes ahead of the expiration when there are no asynchronous clients. A refresh it rejects
+         * is skipped. Defaults to a pool shared by every provider in the JVM.
+         */
+        public Builder backgroundRefreshExecutor(Executor backgroundRefreshExecutor) {
+            this.backgroundRefreshExecutor = backgroundRefreshExecutor;
+            return this;
+        }
+
+        /**
+         * Whether credentials are cached per identity, selected by a digest of the token returned by the web token
+         * provider on every resolution. Defaults to false, in which case the provider serves the single
+         * identity of the first token and only calls the web token provider to refresh.
+         */
+        public Builder identityCacheEnabled(Boolean identityCacheEnabled) {
+            this.identityCacheEnabled = identityCacheEnabled;
+            return this;
+        }
+
+        /**
+         * The maximum number of identities kept in the identity cache. Defaults to 1000.
+         */
+        public Builder identityCacheMaxEntries(Integer identityCacheMaxEntries) {
+            this.identityCacheMaxEntries = identityCacheMaxEntries;
+            return this;
+        }
+
+        /**
+         * How long an identity is kept in the identity cache without being used. Defaults to 30 minutes.
+         */
+        public Builder identityCacheIdleTimeout(Duration identityCacheIdleTimeout) {
+            this.identityCacheIdleTimeout = identityCacheIdleTimeout;
+            return this;
+        }
+
+        /**
+         * The name of the single identity served without the identity cache, e.g. the name of the service account whose
+         * token the web token provider returns. Its credentials are stored and shared under this name, so providers
+         * with the same application and role that serve different identities must have different labels. Defaults to
+         * "default". Unused with the identity cache.
+         */
+        public Builder identityLabel(String identityLabel) {
+            this.identityLabel = identityLabel;
+            return this;
+        }
+
+        /**
+         * The publishers that the metrics of the provider are published to. See
+         * {@link software.amazon.awssdk.trustedidentitypropagation.TrustedIdentityPropagationMetric}.
+         */
+        public Builder metricPublishers(List<MetricPublisher> metricPublishers) {
+            this.metricPublishers = metricPublishers;
+            return this;
+        }
+
+        /**
+         * The store that the credentials are loaded from before their first exchange and written to after every
+         * exchange. The store is not closed by the provider.
+         */
+        public Builder credentialsStore(IdentityAwareCredentialsStore credentialsStore) {
+            this.credentialsStore = credentialsStore;
+            return this;
+        }
+
+        /**
+         * Whether exchanges for an identity are shared with the other providers of the JVM that have the same
+         * application and access role, so that they exchange once for all of them. Defaults to false.
+         */
+        public Builder processWideSharingEnabled(Boolean processWideSharingEnabled) {
+            this.processWideSharingEnabled = processWideSharingEnabled;
+            return this;
+        }
+
+        /**
+         * The store that the credentials of other nodes are looked up in before every exchange, and that the
+         * credentials of every exchange are published to. Requires an encryption key. The store is not closed by the
+         * provider.
+         */
+        public Builder distributedCredentialsStore(DistributedCredentialsStore distributedCredentialsStore) {
+            this.distributedCredentialsStore = distributedCredentialsStore;
+            return this;
+        }
+
+        /**
+         * The AES key the credentials are encrypted with before they are put in the distributed credentials store.
+         */
+        public Builder distributedCredentialsEncryptionKey(SecretKey distributedCredentialsEncryptionKey) {
+            this.distributedCredentialsEncryptionKey = distributedCredentialsEncryptionKey;
+            return this;
+        }
+
+        /**
+         * How long credentials read from or written to the distributed credentials store are served without reading
+         * them again. Defaults to 10 seconds.
+         */
+        public Builder distributedCredentialsNearCacheTtl(Duration distributedCredentialsNearCacheTtl) {
+            this.distributedCredentialsNearCacheTtl = distributedCredentialsNearCacheTtl;
+            return this;
+        }
+
+        /**
+         * Limits the rate of OIDC and STS calls. Defaults to no limit.
+         */
+        public Builder rateLimiter(ExchangeRateLimiter rateLimiter) {
+            this.rateLimiter = rateLimiter;
+            return this;
+        }
+
+        /**
+         * The listener that the phases of every exchange and the cache events are reported to. Defaults to none.
+         */
+        public Builder exchangeListener(ExchangeListener exchangeListener) {
+            this.exchangeListener = exchangeListener;
+            return this;
+        }
+
+        public IdentityAwareCredentialsProvider build() {
+            return new IdentityAwareCredentialsProvider(this);
+        }
+    }
 }
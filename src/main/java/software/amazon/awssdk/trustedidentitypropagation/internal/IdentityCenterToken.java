@@ -0,0 +1,78 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.awssdk.trustedidentitypropagation.internal;
+
+import java.time.Duration;
+import java.time.Instant;
+import software.amazon.awssdk.annotations.Immutable;
+import software.amazon.awssdk.annotations.SdkInternalApi;
+import software.amazon.awssdk.services.ssooidc.model.CreateTokenWithIamResponse;
+
+/**
+ * The parts of a {@code CreateTokenWithIAM} response that are needed to assume the access role again without another
+ * token exchange: the identity context assertion, the refresh token and when the token expires.
+ */
+@SdkInternalApi
+@Immutable
+final class IdentityCenterToken {
+
+    /**
+     * How long before its expiration the token is no longer used, so that it does not expire while STS validates it.
+     */
+    private static final Duration EXPIRATION_SKEW = Duration.ofMinutes(1);
+
+    private final String identityContext;
+    private final String refreshToken;
+    private final Instant expiration;
+
+    private IdentityCenterToken(String identityContext, String refreshToken, Instant expiration) {
+        this.identityContext = identityContext;
+        this.refreshToken = refreshToken;
+        this.expiration = expiration;
+    }
+
+    /**
+     * Captures the token returned by IAM Identity Center at {@code issuedAt}. A response without an expiration is
+     * treated as already expired so that its identity context is only used once.
+     */
+    static IdentityCenterToken from(CreateTokenWithIamResponse response, Instant issuedAt) {
+        Integer expiresIn = response.expiresIn();
+        Instant expiration = expiresIn == null ? issuedAt : issuedAt.plusSeconds(expiresIn);
+        String identityContext = response.awsAdditionalDetails() == null
+                                 ? null
+                                 : response.awsAdditionalDetails().identityContext();
+        return new IdentityCenterToken(identityContext, response.refreshToken(), expiration);
+    }
+
+    String identityContext() {
+        return identityContext;
+    }
+
+    String refreshToken() {
+        return refreshToken;
+    }
+
+    Instant expiration() {
+        return expiration;
+    }
+
+    /**
+     * Whether the identity context can still be used to assume the access role.
+     */
+    boolean isUsable(Instant now) {
+        return identityContext != null && now.isBefore(expiration.minus(EXPIRATION_SKEW));
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.awssdk.trustedidentitypropagation.internal;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import software.amazon.awssdk.annotations.SdkInternalApi;
+import software.amazon.awssdk.annotations.ThreadSafe;
+import software.amazon.awssdk.auth.credentials.AwsSessionCredentials;
+import software.amazon.awssdk.utils.Logger;
+import software.amazon.awssdk.utils.SdkAutoCloseable;
+
+/**
+ * A bounded cache of identity-aware credentials for many identities, keyed by a digest of the web token they were
+ * exchanged for.
+ * <p>
+ * Each entry is a {@link RefreshableCredentials}, so lookups of a cached identity are lock-free and refreshes are
+ * single-flight per identity. The entry keeps the web token it was created for and only ever exchanges that token, so
+ * a different token never changes what an entry serves.
+ * <p>
+ * Once an insert takes the cache over {@code maxEntries} identities, the inserting thread evicts the least recently
+ * used of a small sample of entries until the cache is back within its bound, which approximates least recently used
+ * order without ordering lookups. Every {@link #SWEEP_INTERVAL} the shared scheduler removes the entries that have not
+ * been used for {@code idleTimeout} or whose credentials went stale without being used since.
+ */
+@SdkInternalApi
+@ThreadSafe
+final class IdentityCredentialsCache implements SdkAutoCloseable {
+
+    private static final Logger LOGGER = Logger.loggerFor(IdentityCredentialsCache.class);
+
+    /**
+     * How often the idle entries and the entries whose credentials went stale unused are swept.
+     */
+    private static final Duration SWEEP_INTERVAL = Duration.ofSeconds(30);
+
+    /**
+     * How many entries are compared to pick each entry evicted for exceeding {@code maxEntries}.
+     */
+    private static final int EVICTION_SAMPLE_SIZE = 8;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    private final Function<Entry, RefreshableCredentials> credentialsFactory;
+    private final int maxEntries;
+    private final Duration idleTimeout;
+    private final Clock clock;
+    private final ScheduledFuture<?> sweep;
+
+    /**
+     * Where the next eviction sample starts, so that successive samples cover the whole cache. Guarded by
+     * {@link #evictionLock}.
+     */
+    private Iterator<Entry> evictionCursor;
+
+    IdentityCredentialsCache(Function<Entry, RefreshableCredentials> credentialsFactory, int maxEntries,
+                             Duration idleTimeout, Clock clock) {
+        this.credentialsFactory = credentialsFactory;
+        this.maxEntries = maxEntries;
+        this.idleTimeout = idleTimeout;
+        this.clock = clock;
+        this.sweep = RefreshableCredentials.SharedExecutors.SCHEDULER.scheduleWithFixedDelay(
+            this::sweepQuietly, SWEEP_INTERVAL.toMillis(), SWEEP_INTERVAL.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Resolves the credentials of the identity, exchanging the given web token if the identity is not cached or its
+     * credentials need to be refreshed.
+     */
+    AwsSessionCredentials get(String identityKey, String webToken) {
+        return entry(identityKey, webToken).credentials().get();
+    }
+
+    /**
+     * Resolves the credentials of the identity like {@link #get(String, String)}, without blocking the calling thread.
+     */
+    CompletableFuture<AwsSessionCredentials> getAsync(String identityKey, String webToken) {
+        return entry(identityKey, webToken).credentials().getAsync();
+    }
+
+    /**
+     * Resolves the credentials of the identity like {@link #getAsync(String, String)}, but never exchanges the web token
+     * on the calling thread.
+     */
+    CompletableFuture<AwsSessionCredentials> prefetchAsync(String identityKey, String webToken) {
+        return entry(identityKey, webToken).credentials().prefetchAsync();
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    @Override
+    public void close() {
+        sweep.cancel(false);
+        entries.values().forEach(Entry::close);
+        entries.clear();
+    }
+
+    private Entry entry(String identityKey, String webToken) {
+        Instant now = clock.instant();
+        Entry entry = entries.get(identityKey);
+        if (entry == null) {
+            entry = entries.computeIfAbsent(identityKey, k -> new Entry(k, webToken, now));
+            if (entries.size() > maxEntries) {
+                evictLeastRecentlyUsed();
+            }
+        }
+        entry.touch(now);
+        return entry;
+    }
+
+    /**
+     * Evicts entries until the cache is within {@code maxEntries}, each time the least recently used of a sample.
+     */
+    private void evictLeastRecentlyUsed() {
+        if (!evictionLock.tryLock()) {
+            // Another thread is already making room.
+            return;
+        }
+        try {
+            while (entries.size() > maxEntries) {
+                Entry victim = null;
+                for (int i = 0; i < EVICTION_SAMPLE_SIZE; i++) {
+                    if (evictionCursor == null || !evictionCursor.hasNext()) {
+                        evictionCursor = entries.values().iterator();
+                        if (!evictionCursor.hasNext()) {
+                            break;
+                        }
+                    }
+                    Entry candidate = evictionCursor.next();
+                    if (victim == null || candidate.lastAccess.isBefore(victim.lastAccess)) {
+                        victim = candidate;
+                    }
+                }
+                if (victim == null) {
+                    return;
+                }
+                remove(victim);
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Removes the entries that have not been used for {@code idleTimeout} or whose credentials went stale unused.
+     */
+    void sweep() {
+        Instant now = clock.instant();
+        entries.values().forEach(entry -> {
+            if (entry.isExpired(now)) {
+                remove(entry);
+            }
+        });
+    }
+
+    private void sweepQuietly() {
+        try {
+            sweep();
+        } catch (RuntimeException e) {
+            // A failure would cancel the scheduled sweeps.
+            LOGGER.warn(() -> "Failed to sweep the identity credentials cache.", e);
+        }
+    }
+
+    private void remove(Entry entry) {
+        if (entries.remove(entry.identityKey(), entry)) {
+            entry.close();
+        }
+    }
+
+    /**
+     * The cached state of one identity.
+     */
+    final class Entry implements SdkAutoCloseable {
+        private final String identityKey;
+        private final RefreshableCredentials credentials;
+        private final String webToken;
+        private volatile Instant lastAccess;
+
+        private Entry(String identityKey, String webToken, Instant now) {
+            this.identityKey = identityKey;
+            this.webToken = webToken;
+            this.lastAccess = now;
+            this.credentials = credentialsFactory.apply(this);
+        }
+
+        /**
+         * The key of the identity in the cache.
+         */
+        String identityKey() {
+            return identityKey;
+        }
+
+        /**
+         * The web token the credentials of this entry are exchanged for.
+         */
+        String webToken() {
+            return webToken;
+        }
+
+        @Override
+        public void close() {
+            credentials.close();
+        }
+
+        private RefreshableCredentials credentials() {
+            return credentials;
+        }
+
+        private void touch(Instant now) {
+            lastAccess = now;
+        }
+
+        private boolean isExpired(Instant now) {
+            if (!lastAccess.plus(idleTimeout).isAfter(now)) {
+                return true;
+            }
+            CachedCredentials cached = credentials.peek();
+            // Credentials that went stale without anybody asking for them since would need a full exchange anyway.
+            return cached != null && cached.isStale(now) && lastAccess.isBefore(cached.staleTime());
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.awssdk.trustedidentitypropagation.internal;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
+import software.amazon.awssdk.annotations.Immutable;
+import software.amazon.awssdk.annotations.SdkInternalApi;
+import software.amazon.awssdk.annotations.ThreadSafe;
+
+/**
+ * Spaces out the refreshes of one cache after they fail, so that callers do not retry a failing exchange on every
+ * request.
+ * <p>
+ * After the n-th consecutive failure the next refresh is held back for a delay drawn uniformly from the upper half of
+ * {@code min(maxDelay, baseDelay * 2^(n-1))}. A successful refresh resets the backoff.
+ */
+@SdkInternalApi
+@ThreadSafe
+final class RefreshBackoff {
+
+    private final Duration baseDelay;
+    private final Duration maxDelay;
+    private final AtomicReference<Failure> failure = new AtomicReference<>();
+
+    RefreshBackoff(Duration baseDelay, Duration maxDelay) {
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+    }
+
+    /**
+     * The failure that a refresh is held back for at {@code now}, or null if a refresh may be attempted.
+     */
+    Failure pendingFailure(Instant now) {
+        Failure current = failure.get();
+        return current != null && now.isBefore(current.retryTime()) ? current : null;
+    }
+
+    void onSuccess() {
+        failure.set(null);
+    }
+
+    void onFailure(Throwable cause, Instant now) {
+        failure.updateAndGet(previous -> {
+            int consecutiveFailures = previous == null ? 1 : previous.consecutiveFailures + 1;
+            return new Failure(cause, consecutiveFailures, now.plus(delay(consecutiveFailures)));
+        });
+    }
+
+    private Duration delay(int consecutiveFailures) {
+        int exponent = Math.min(consecutiveFailures - 1, 30);
+        long delayMillis = Math.min(maxDelay.toMillis(), baseDelay.toMillis() << exponent);
+        long halfMillis = delayMillis / 2;
+        return Duration.ofMillis(halfMillis + ThreadLocalRandom.current().nextLong(delayMillis - halfMillis + 1));
+    }
+
+    /**
+     * The most recent of a run of consecutive refresh failures.
+     */
+    @Immutable
+    static final class Failure {
+        private final Throwable cause;
+        private final int consecutiveFailures;
+        private final Instant retryTime;
+
+        private Failure(Throwable cause, int consecutiveFailures, Instant retryTime) {
+            this.cause = cause;
+            this.consecutiveFailures = consecutiveFailures;
+            this.retryTime = retryTime;
+        }
+
+        Throwable cause() {
+            return cause;
+        }
+
+        Instant retryTime() {
+            return retryTime;
+        }
+    }
+}
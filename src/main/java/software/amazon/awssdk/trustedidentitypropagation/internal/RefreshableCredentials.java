@@ -0,0 +1,614 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.awssdk.trustedidentitypropagation.internal;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import software.amazon.awssdk.annotations.SdkInternalApi;
+import software.amazon.awssdk.annotations.ThreadSafe;
+import software.amazon.awssdk.auth.credentials.AwsSessionCredentials;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.utils.CompletableFutureUtils;
+import software.amazon.awssdk.utils.Logger;
+import software.amazon.awssdk.utils.SdkAutoCloseable;
+import software.amazon.awssdk.utils.ThreadFactoryBuilder;
+
+/**
+ * Caches the credentials returned by a supplier and refreshes them ahead of their expiration.
+ * <p>
+ * The current value is an immutable {@link CachedCredentials} published through a volatile field, so a cache hit is a
+ * single lock-free read. Refreshes are single-flight: the first caller that needs a refresh installs a future that
+ * every other caller joins, so at most one call to the supplier is in progress at any time no matter how long it
+ * takes. While the cached credentials are between their prefetch and stale times callers keep being served the cached
+ * value and the refresh runs on the refresh executor (or on the calling thread if asynchronous updates are disabled).
+ * Only a cold cache or stale credentials make callers wait. A background refresh the executor rejects is skipped and the
+ * cached credentials keep being served, so a saturated executor never fails a caller.
+ * <p>
+ * If an asynchronous supplier is configured, background refreshes and refreshes requested through {@link #getAsync()}
+ * are chained on its future instead of occupying a thread. Otherwise a refresh that {@link #getAsync()} has to wait for
+ * runs the blocking supplier on the calling thread, the same as {@link #get()}, rather than queueing every caller of
+ * every cache behind one shared pool.
+ * <p>
+ * If initial credentials are configured, they are looked up once before the first call to the supplier and served
+ * instead of it unless they are already stale. The refresh listener is told about every refreshed credentials, e.g. to
+ * persist them, once the callers waiting on the refresh have been released.
+ * <p>
+ * Failed refreshes are backed off exponentially with jitter, and a {@link CircuitBreaker} shared by the caches of a
+ * provider stops all of them from refreshing while OIDC or STS are unavailable. A refresh that is held back fails
+ * without calling the supplier. Either way, stale credentials keep being served for {@code gracePeriod} past their
+ * stale time, but never past their expiration, so that an outage shorter than the grace period is not noticed.
+ */
+@SdkInternalApi
+@ThreadSafe
+final class RefreshableCredentials implements SdkAutoCloseable {
+
+    private static final Logger LOGGER = Logger.loggerFor(RefreshableCredentials.class);
+
+    private static final Duration BACKOFF_BASE_DELAY = Duration.ofSeconds(1);
+    private static final Duration BACKOFF_MAX_DELAY = Duration.ofSeconds(30);
+
+    private final Supplier<AwsSessionCredentials> credentialsSupplier;
+    private final Supplier<CompletableFuture<AwsSessionCredentials>> asyncCredentialsSupplier;
+    private final Duration staleTime;
+    private final Duration prefetchTime;
+    private final boolean asyncCredentialUpdateEnabled;
+    private final boolean scheduledPrefetchEnabled;
+    private final Clock clock;
+    private final CredentialsMetrics metrics;
+    private final Supplier<AwsSessionCredentials> initialCredentials;
+    private final Consumer<AwsSessionCredentials> refreshListener;
+    private final Runnable closeListener;
+    private final Duration gracePeriod;
+    private final CircuitBreaker circuitBreaker;
+    private final Executor refreshExecutor;
+    private final RefreshBackoff backoff = new RefreshBackoff(BACKOFF_BASE_DELAY, BACKOFF_MAX_DELAY);
+
+    private final AtomicBoolean initialCredentialsLoaded = new AtomicBoolean();
+    private final AtomicReference<CompletableFuture<CachedCredentials>> refreshInFlight = new AtomicReference<>();
+    private volatile CachedCredentials cachedCredentials;
+    private volatile ScheduledFuture<?> scheduledPrefetch;
+    private volatile boolean closed;
+
+    private RefreshableCredentials(Builder builder) {
+        this.credentialsSupplier = builder.credentialsSupplier;
+        this.asyncCredentialsSupplier = builder.asyncCredentialsSupplier;
+        this.staleTime = builder.staleTime;
+        this.prefetchTime = builder.prefetchTime;
+        this.asyncCredentialUpdateEnabled = builder.asyncCredentialUpdateEnabled;
+        this.scheduledPrefetchEnabled = builder.scheduledPrefetchEnabled;
+        this.clock = builder.clock;
+        this.metrics = builder.metrics;
+        this.initialCredentials = builder.initialCredentials;
+        this.refreshListener = builder.refreshListener;
+        this.closeListener = builder.closeListener;
+        this.gracePeriod = builder.gracePeriod;
+        this.circuitBreaker = builder.circuitBreaker;
+        this.refreshExecutor = builder.refreshExecutor != null ? builder.refreshExecutor : SharedExecutors.REFRESH_EXECUTOR;
+    }
+
+    static Builder builder(Supplier<AwsSessionCredentials> credentialsSupplier) {
+        return new Builder(credentialsSupplier);
+    }
+
+    AwsSessionCredentials get() {
+        CachedCredentials cached = cachedCredentials;
+        if (cached != null) {
+            Instant now = clock.instant();
+            if (!cached.shouldPrefetch(now)) {
+                metrics.cacheHit(false);
+                return cached.credentials();
+            }
+            if (!cached.isStale(now)) {
+                metrics.cacheHit(true);
+                prefetch(asyncCredentialUpdateEnabled, now);
+                return cached.credentials();
+            }
+        }
+        long start = System.nanoTime();
+        try {
+            return CompletableFutureUtils.joinLikeSync(refresh(false)).credentials();
+        } catch (RuntimeException e) {
+            if (isInGracePeriod(cached)) {
+                return cached.credentials();
+            }
+            throw e;
+        } finally {
+            metrics.cacheMiss(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Resolves the credentials without blocking the calling thread if there is an asynchronous supplier. Otherwise a
+     * refresh the caller has to wait for runs on the calling thread.
+     */
+    CompletableFuture<AwsSessionCredentials> getAsync() {
+        return getAsync(asyncCredentialsSupplier != null);
+    }
+
+    /**
+     * Resolves the credentials like {@link #getAsync()}, but never runs the blocking supplier on the calling thread, so
+     * that the credentials can be resolved ahead of the first caller that needs them.
+     */
+    CompletableFuture<AwsSessionCredentials> prefetchAsync() {
+        return getAsync(true);
+    }
+
+    /**
+     * The credentials currently cached, whether or not they are still fresh. Does not trigger a refresh.
+     */
+    CachedCredentials peek() {
+        return cachedCredentials;
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        ScheduledFuture<?> prefetch = scheduledPrefetch;
+        if (prefetch != null) {
+            prefetch.cancel(false);
+        }
+        if (closeListener != null) {
+            closeListener.run();
+        }
+    }
+
+    private CompletableFuture<AwsSessionCredentials> getAsync(boolean background) {
+        CachedCredentials cached = cachedCredentials;
+        if (cached != null) {
+            Instant now = clock.instant();
+            if (!cached.shouldPrefetch(now)) {
+                metrics.cacheHit(false);
+                return CompletableFuture.completedFuture(cached.credentials());
+            }
+            if (!cached.isStale(now)) {
+                metrics.cacheHit(true);
+                prefetch(true, now);
+                return CompletableFuture.completedFuture(cached.credentials());
+            }
+        }
+        long start = System.nanoTime();
+        return refresh(background).whenComplete((c, t) -> metrics.cacheMiss(System.nanoTime() - start))
+                                  .handle((c, t) -> {
+                                      if (t == null) {
+                                          return c.credentials();
+                                      }
+                                      if (isInGracePeriod(cached)) {
+                                          return cached.credentials();
+                                      }
+                                      throw CompletableFutureUtils.errorAsCompletionException(FutureUtils.unwrap(t));
+                                  });
+    }
+
+    /**
+     * Starts a refresh while the cached credentials can still be served, unless refreshes are currently held back.
+     */
+    private void prefetch(boolean background, Instant now) {
+        if (backoff.pendingFailure(now) == null && (circuitBreaker == null || !circuitBreaker.isOpen(now))) {
+            refresh(background);
+        }
+    }
+
+    /**
+     * Returns the refresh in progress, or starts one if there is none. The refresh runs on the calling thread unless
+     * {@code background} is set, in which case it is chained on the asynchronous supplier or, if there is none, run on
+     * the refresh executor.
+     */
+    private CompletableFuture<CachedCredentials> refresh(boolean background) {
+        while (true) {
+            CompletableFuture<CachedCredentials> inFlight = refreshInFlight.get();
+            if (inFlight != null) {
+                return inFlight;
+            }
+            Throwable heldBack = refreshHeldBack(clock.instant());
+            if (heldBack != null) {
+                metrics.refreshSkipped();
+                return CompletableFutureUtils.failedFuture(heldBack);
+            }
+            CompletableFuture<CachedCredentials> refresh = new CompletableFuture<>();
+            if (!refreshInFlight.compareAndSet(null, refresh)) {
+                continue;
+            }
+            if (!background) {
+                runRefresh(refresh);
+            } else if (asyncCredentialsSupplier != null) {
+                runAsyncRefresh(refresh);
+            } else {
+                try {
+                    refreshExecutor.execute(() -> runRefresh(refresh));
+                } catch (RejectedExecutionException e) {
+                    LOGGER.debug(() -> "Credential refresh was rejected; it will be retried on the next request.", e);
+                    skipRefresh(refresh, e);
+                }
+            }
+            return refresh;
+        }
+    }
+
+    /**
+     * Gives up on a background refresh that could not be started without counting it as a failed refresh, so that it
+     * neither backs off nor trips the circuit breaker. Callers that joined it are served the cached credentials unless
+     * they are stale.
+     */
+    private void skipRefresh(CompletableFuture<CachedCredentials> refresh, RejectedExecutionException cause) {
+        metrics.refreshSkipped();
+        refreshInFlight.compareAndSet(refresh, null);
+        CachedCredentials current = cachedCredentials;
+        if (current != null && !current.isStale(clock.instant())) {
+            refresh.complete(current);
+        } else {
+            refresh.completeExceptionally(cause);
+        }
+    }
+
+    private void runRefresh(CompletableFuture<CachedCredentials> refresh) {
+        if (completeIfAlreadyRefreshed(refresh) || completeWithInitialCredentials(refresh)) {
+            return;
+        }
+        AwsSessionCredentials credentials;
+        try {
+            credentials = credentialsSupplier.get();
+        } catch (Throwable t) {
+            completeRefresh(refresh, null, t);
+            return;
+        }
+        completeRefresh(refresh, credentials, null);
+    }
+
+    private void runAsyncRefresh(CompletableFuture<CachedCredentials> refresh) {
+        if (completeIfAlreadyRefreshed(refresh) || completeWithInitialCredentials(refresh)) {
+            return;
+        }
+        CompletableFuture<AwsSessionCredentials> credentials;
+        try {
+            credentials = asyncCredentialsSupplier.get();
+        } catch (Throwable t) {
+            completeRefresh(refresh, null, t);
+            return;
+        }
+        credentials.whenComplete((c, t) -> completeRefresh(refresh, c, FutureUtils.unwrap(t)));
+    }
+
+    /**
+     * Completes the refresh with the cached credentials if another refresh finished between the caller reading the
+     * cache and this refresh being installed.
+     */
+    private boolean completeIfAlreadyRefreshed(CompletableFuture<CachedCredentials> refresh) {
+        CachedCredentials current = cachedCredentials;
+        if (current != null && !current.shouldPrefetch(clock.instant())) {
+            refreshInFlight.compareAndSet(refresh, null);
+            refresh.complete(current);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns why a refresh may not be attempted at {@code now}, or null if it may.
+     */
+    private Throwable refreshHeldBack(Instant now) {
+        RefreshBackoff.Failure failure = backoff.pendingFailure(now);
+        if (failure != null) {
+            return SdkClientException.create("Identity-aware credentials are not refreshed before "
+                                              + failure.retryTime() + ", since the previous refresh failed.",
+                                              failure.cause());
+        }
+        if (circuitBreaker != null && !circuitBreaker.tryAcquire(now)) {
+            return SdkClientException.create("Identity-aware credentials are not refreshed before "
+                                             + circuitBreaker.openUntil() + ", since OIDC or STS are unavailable.");
+        }
+        return null;
+    }
+
+    /**
+     * Whether the cached credentials may still be served after they could not be refreshed.
+     */
+    private boolean isInGracePeriod(CachedCredentials cached) {
+        if (cached == null || gracePeriod.isZero()) {
+            return false;
+        }
+        Instant now = clock.instant();
+        Instant expiration = cached.credentials().expirationTime().orElse(Instant.MAX);
+        if (now.isBefore(cached.staleTime().plus(gracePeriod)) && now.isBefore(expiration)) {
+            metrics.gracePeriodServed();
+            LOGGER.debug(() -> "Serving stale identity-aware credentials that expire at " + expiration
+                               + ", since they could not be refreshed.");
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Completes the first refresh with the initial credentials if there are any that are not stale yet.
+     */
+    private boolean completeWithInitialCredentials(CompletableFuture<CachedCredentials> refresh) {
+        if (initialCredentials == null || cachedCredentials != null || !initialCredentialsLoaded.compareAndSet(false, true)) {
+            return false;
+        }
+        CachedCredentials initial;
+        try {
+            AwsSessionCredentials credentials = initialCredentials.get();
+            if (credentials == null) {
+                return false;
+            }
+            initial = toCachedCredentials(credentials);
+        } catch (RuntimeException e) {
+            LOGGER.warn(() -> "Failed to load the initial identity-aware credentials; they will be exchanged instead.", e);
+            return false;
+        }
+        if (initial.isStale(clock.instant())) {
+            return false;
+        }
+        cachedCredentials = initial;
+        schedulePrefetch(initial);
+        refreshInFlight.compareAndSet(refresh, null);
+        refresh.complete(initial);
+        return true;
+    }
+
+    private void completeRefresh(CompletableFuture<CachedCredentials> refresh, AwsSessionCredentials credentials,
+                                 Throwable failure) {
+        // The refresh is cleared before it is completed on every path, so that a caller it wakes up never finds it
+        // still in flight.
+        try {
+            metrics.refreshCompleted(failure == null);
+            recordOutcome(failure);
+            if (failure != null) {
+                if (cachedCredentials != null) {
+                    LOGGER.warn(() -> "Failed to refresh identity-aware credentials; the cached credentials will be "
+                                      + "used until they become stale.", failure);
+                }
+                refreshInFlight.compareAndSet(refresh, null);
+                refresh.completeExceptionally(failure);
+                return;
+            }
+            CachedCredentials refreshed = toCachedCredentials(credentials);
+            cachedCredentials = refreshed;
+            schedulePrefetch(refreshed);
+            refreshInFlight.compareAndSet(refresh, null);
+            // Release the waiting callers before the listener, e.g. a store persisting the credentials, gets to run.
+            refresh.complete(refreshed);
+            notifyRefreshListener(credentials);
+        } catch (Throwable t) {
+            refreshInFlight.compareAndSet(refresh, null);
+            refresh.completeExceptionally(t);
+        }
+    }
+
+    private void recordOutcome(Throwable failure) {
+        if (failure == null) {
+            backoff.onSuccess();
+            if (circuitBreaker != null) {
+                circuitBreaker.onSuccess();
+            }
+            return;
+        }
+        Instant now = clock.instant();
+        backoff.onFailure(failure, now);
+        if (circuitBreaker != null) {
+            circuitBreaker.onFailure(failure, now);
+        }
+    }
+
+    private void notifyRefreshListener(AwsSessionCredentials credentials) {
+        if (refreshListener == null) {
+            return;
+        }
+        try {
+            refreshListener.accept(credentials);
+        } catch (RuntimeException e) {
+            LOGGER.warn(() -> "Failed to hand the refreshed identity-aware credentials to the refresh listener.", e);
+        }
+    }
+
+    private CachedCredentials toCachedCredentials(AwsSessionCredentials credentials) {
+        Instant expiration = credentials.expirationTime().orElse(null);
+        if (expiration == null) {
+            // Without an expiration there is nothing to schedule a refresh against; keep the credentials.
+            return new CachedCredentials(credentials, Instant.MAX, Instant.MAX);
+        }
+        Instant stale = expiration.minus(staleTime);
+        Instant prefetch = expiration.minus(prefetchTime);
+
+        // Spread prefetches over the first half of the prefetch window so that caches filled together do not all
+        // refresh at the same moment.
+        long prefetchWindowMillis = Duration.between(prefetch, stale).toMillis();
+        if (prefetchWindowMillis > 1) {
+            prefetch = prefetch.plusMillis(ThreadLocalRandom.current().nextLong(prefetchWindowMillis / 2));
+        }
+        return new CachedCredentials(credentials, prefetch, stale);
+    }
+
+    private void schedulePrefetch(CachedCredentials refreshed) {
+        if (!asyncCredentialUpdateEnabled || !scheduledPrefetchEnabled || closed
+            || refreshed.prefetchTime().equals(Instant.MAX)) {
+            return;
+        }
+        ScheduledFuture<?> previous = scheduledPrefetch;
+        if (previous != null) {
+            previous.cancel(false);
+        }
+        long delayMillis = Math.max(0, Duration.between(clock.instant(), refreshed.prefetchTime()).toMillis());
+        scheduledPrefetch = SharedExecutors.SCHEDULER.schedule(() -> {
+            if (!closed) {
+                refresh(true);
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    static final class Builder {
+        private final Supplier<AwsSessionCredentials> credentialsSupplier;
+        private Supplier<CompletableFuture<AwsSessionCredentials>> asyncCredentialsSupplier;
+        private Duration staleTime;
+        private Duration prefetchTime;
+        private boolean asyncCredentialUpdateEnabled = true;
+        private boolean scheduledPrefetchEnabled = true;
+        private Clock clock = Clock.systemUTC();
+        private CredentialsMetrics metrics = CredentialsMetrics.disabled();
+        private Supplier<AwsSessionCredentials> initialCredentials;
+        private Consumer<AwsSessionCredentials> refreshListener;
+        private Runnable closeListener;
+        private Duration gracePeriod = Duration.ZERO;
+        private CircuitBreaker circuitBreaker;
+        private Executor refreshExecutor;
+
+        private Builder(Supplier<AwsSessionCredentials> credentialsSupplier) {
+            this.credentialsSupplier = credentialsSupplier;
+        }
+
+        /**
+         * A non-blocking alternative to the credentials supplier, used for background refreshes and
+         * {@link #getAsync()}.
+         */
+        Builder asyncCredentialsSupplier(Supplier<CompletableFuture<AwsSessionCredentials>> asyncCredentialsSupplier) {
+            this.asyncCredentialsSupplier = asyncCredentialsSupplier;
+            return this;
+        }
+
+        Builder staleTime(Duration staleTime) {
+            this.staleTime = staleTime;
+            return this;
+        }
+
+        Builder prefetchTime(Duration prefetchTime) {
+            this.prefetchTime = prefetchTime;
+            return this;
+        }
+
+        Builder asyncCredentialUpdateEnabled(boolean asyncCredentialUpdateEnabled) {
+            this.asyncCredentialUpdateEnabled = asyncCredentialUpdateEnabled;
+            return this;
+        }
+
+        /**
+         * Whether a background refresh is scheduled for the prefetch time even if nobody asks for the credentials. When
+         * disabled, prefetches only start when the credentials are requested inside the prefetch window, so unused
+         * credentials are left to expire.
+         */
+        Builder scheduledPrefetchEnabled(boolean scheduledPrefetchEnabled) {
+            this.scheduledPrefetchEnabled = scheduledPrefetchEnabled;
+            return this;
+        }
+
+        Builder clock(Clock clock) {
+            this.clock = clock;
+            return this;
+        }
+
+        Builder metrics(CredentialsMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        /**
+         * Looks up credentials to serve before the first call to the credentials supplier, e.g. credentials persisted
+         * by a previous process. May return null.
+         */
+        Builder initialCredentials(Supplier<AwsSessionCredentials> initialCredentials) {
+            this.initialCredentials = initialCredentials;
+            return this;
+        }
+
+        /**
+         * Called with the credentials of every successful refresh, on the thread that completed it.
+         */
+        Builder refreshListener(Consumer<AwsSessionCredentials> refreshListener) {
+            this.refreshListener = refreshListener;
+            return this;
+        }
+
+        /**
+         * Called once when the cache is closed, e.g. to release what was held for its identity.
+         */
+        Builder closeListener(Runnable closeListener) {
+            this.closeListener = closeListener;
+            return this;
+        }
+
+        /**
+         * How long past their stale time credentials that could not be refreshed keep being served. They are never
+         * served past their expiration.
+         */
+        Builder gracePeriod(Duration gracePeriod) {
+            this.gracePeriod = gracePeriod;
+            return this;
+        }
+
+        /**
+         * The circuit breaker shared by the caches of a provider. Without one, only the backoff of this cache applies.
+         */
+        Builder circuitBreaker(CircuitBreaker circuitBreaker) {
+            this.circuitBreaker = circuitBreaker;
+            return this;
+        }
+
+        /**
+         * The executor of background refreshes when there is no asynchronous supplier. Defaults to a pool shared by every
+         * cache in the JVM.
+         */
+        Builder refreshExecutor(Executor refreshExecutor) {
+            this.refreshExecutor = refreshExecutor;
+            return this;
+        }
+
+        RefreshableCredentials build() {
+            return new RefreshableCredentials(this);
+        }
+    }
+
+    /**
+     * Daemon executors shared by every cache in the JVM, created on first use.
+     */
+    static final class SharedExecutors {
+        static final ScheduledThreadPoolExecutor SCHEDULER;
+        private static final ThreadPoolExecutor REFRESH_EXECUTOR;
+
+        static {
+            SCHEDULER = new ScheduledThreadPoolExecutor(1, new ThreadFactoryBuilder()
+                .threadNamePrefix("identity-aware-credentials-scheduler")
+                .daemonThreads(true)
+                .build());
+            SCHEDULER.setRemoveOnCancelPolicy(true);
+
+            REFRESH_EXECUTOR = new ThreadPoolExecutor(8, 8, 60, TimeUnit.SECONDS,
+                                                      new LinkedBlockingQueue<>(1024),
+                                                      new ThreadFactoryBuilder()
+                                                          .threadNamePrefix("identity-aware-credentials-refresh")
+                                                          .daemonThreads(true)
+                                                          .build());
+            REFRESH_EXECUTOR.allowCoreThreadTimeOut(true);
+        }
+
+        private SharedExecutors() {
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.awssdk.trustedidentitypropagation.internal;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.stream.Collectors;
+import software.amazon.awssdk.annotations.SdkInternalApi;
+import software.amazon.awssdk.annotations.SdkTestInternalApi;
+import software.amazon.awssdk.annotations.ThreadSafe;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.exception.SdkServiceException;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.utils.Logger;
+import software.amazon.awssdk.utils.SdkAutoCloseable;
+import software.amazon.awssdk.utils.Validate;
+
+/**
+ * Routes the calls of a service to the client of the region expected to answer fastest, failing over to the other
+ * regions when a region fails.
+ * <p>
+ * The expected cost of a call to a region is the exponentially weighted moving average of its latency plus the moving
+ * average of its failure rate times {@link #FAILURE_COST}. Regions are tried from the cheapest to the most expensive,
+ * and among regions of the same cost in the order they were configured in. Regions that have not been called yet have
+ * no cost, so each region is tried once before the fastest is preferred. The failure rate of a region decays with a
+ * half-life of {@link #FAILURE_RATE_HALF_LIFE} while it is not called, so that a region that failed is tried again
+ * once it is likely to have recovered.
+ * <p>
+ * Only failures that another region may not have are failed over: client-side failures such as timeouts and
+ * connection errors, throttling and server errors. Other service errors, e.g. an invalid grant or a denied role, are
+ * thrown right away, since every region would answer them the same.
+ */
+@SdkInternalApi
+@ThreadSafe
+final class RegionRouter<C extends SdkAutoCloseable> implements SdkAutoCloseable {
+
+    /**
+     * How much weight the latest call has in the moving averages.
+     */
+    static final double SMOOTHING = 0.3;
+    static final Duration FAILURE_COST = Duration.ofSeconds(5);
+    static final Duration FAILURE_RATE_HALF_LIFE = Duration.ofSeconds(30);
+
+    private static final Logger LOGGER = Logger.loggerFor(RegionRouter.class);
+
+    private final List<Endpoint<C>> endpoints;
+    private final LongSupplier nanoTime;
+
+    RegionRouter(Map<Region, C> clients) {
+        this(clients, System::nanoTime);
+    }
+
+    @SdkTestInternalApi
+    RegionRouter(Map<Region, C> clients, LongSupplier nanoTime) {
+        Validate.notEmpty(clients, "At least one region must be provided.");
+        this.endpoints = clients.entrySet()
+                                .stream()
+                                .map(e -> new Endpoint<>(e.getKey(), e.getValue()))
+                                .collect(Collectors.toList());
+        this.nanoTime = nanoTime;
+    }
+
+    /**
+     * The client of the region that the next call would be made to first.
+     */
+    C preferredClient() {
+        return rank().get(0).client;
+    }
+
+    /**
+     * The regions in the order the next call would try them.
+     */
+    List<Region> ranking() {
+        return rank().stream().map(e -> e.region).collect(Collectors.toList());
+    }
+
+    /**
+     * Makes the call with the client of the cheapest region, and with the clients of the next cheapest regions if it
+     * fails in a way that another region may not.
+     */
+    <T> T call(String operation, Function<C, T> call) {
+        return call(operation, call, () -> { });
+    }
+
+    /**
+     * Makes the call like {@link #call(String, Function)}, running {@code beforeFailover} before each region after
+     * the first, e.g. to take a rate limiter permit for every attempt.
+     */
+    <T> T call(String operation, Function<C, T> call, Runnable beforeFailover) {
+        RuntimeException failure = null;
+        for (Endpoint<C> endpoint : rank()) {
+            if (failure != null) {
+                try {
+                    beforeFailover.run();
+                } catch (RuntimeException e) {
+                    throw addSuppressed(e, failure);
+                }
+            }
+            long start = nanoTime.getAsLong();
+            try {
+                T result = call.apply(endpoint.client);
+                endpoint.recordSuccess(start, nanoTime.getAsLong());
+                return result;
+            } catch (RuntimeException e) {
+                if (!isRegionalFailure(e)) {
+                    // The region answered, just not with a result, so the call counts towards its latency.
+                    endpoint.recordSuccess(start, nanoTime.getAsLong());
+                    throw addSuppressed(e, failure);
+                }
+                endpoint.recordFailure(nanoTime.getAsLong());
+                LOGGER.debug(() -> operation + " failed in " + endpoint.region + ".", e);
+                failure = addSuppressed(e, failure);
+            }
+        }
+        throw failure;
+    }
+
+    @Override
+    public void close() {
+        endpoints.forEach(e -> e.client.close());
+    }
+
+    private List<Endpoint<C>> rank() {
+        long now = nanoTime.getAsLong();
+        List<Ranked<C>> ranked = new ArrayList<>(endpoints.size());
+        for (Endpoint<C> endpoint : endpoints) {
+            ranked.add(new Ranked<>(endpoint, endpoint.expectedCostNanos(now)));
+        }
+        // The sort is stable, so regions of the same cost stay in the configured order.
+        ranked.sort(Comparator.comparingDouble(r -> r.cost));
+        return ranked.stream().map(r -> r.endpoint).collect(Collectors.toList());
+    }
+
+    private static boolean isRegionalFailure(RuntimeException e) {
+        if (e instanceof SdkServiceException) {
+            SdkServiceException serviceException = (SdkServiceException) e;
+            return serviceException.isThrottlingException() || serviceException.statusCode() >= 500;
+        }
+        return e instanceof SdkClientException;
+    }
+
+    /**
+     * Keeps the failures of the regions tried before on the failure that is thrown.
+     */
+    private static RuntimeException addSuppressed(RuntimeException e, RuntimeException earlier) {
+        if (earlier != null && earlier != e) {
+            e.addSuppressed(earlier);
+        }
+        return e;
+    }
+
+    private static final class Ranked<C> {
+        private final Endpoint<C> endpoint;
+        private final double cost;
+
+        private Ranked(Endpoint<C> endpoint, double cost) {
+            this.endpoint = endpoint;
+            this.cost = cost;
+        }
+    }
+
+    private static final class Endpoint<C> {
+        private final Region region;
+        private final C client;
+
+        /**
+         * The moving average of the latency of successful calls, 0 until the first one.
+         */
+        private double latencyNanos;
+        private double failureRate;
+        private long failureRateUpdatedNanos;
+
+        private Endpoint(Region region, C client) {
+            this.region = region;
+            this.client = client;
+        }
+
+        synchronized void recordSuccess(long start, long now) {
+            long latency = now - start;
+            latencyNanos = latencyNanos == 0 ? latency : latencyNanos + SMOOTHING * (latency - latencyNanos);
+            updateFailureRate(0, now);
+        }
+
+        synchronized void recordFailure(long now) {
+            updateFailureRate(1, now);
+        }
+
+        synchronized double expectedCostNanos(long now) {
+            return latencyNanos + decayedFailureRate(now) * FAILURE_COST.toNanos();
+        }
+
+        private void updateFailureRate(double sample, long now) {
+            failureRate = decayedFailureRate(now) + SMOOTHING * (sample - decayedFailureRate(now));
+            failureRateUpdatedNanos = now;
+        }
+
+        private double decayedFailureRate(long now) {
+            if (failureRate == 0) {
+                return 0;
+            }
+            double halfLives = (double) (now - failureRateUpdatedNanos) / FAILURE_RATE_HALF_LIFE.toNanos();
+            return failureRate * Math.pow(0.5, halfLives);
+        }
+    }
+}
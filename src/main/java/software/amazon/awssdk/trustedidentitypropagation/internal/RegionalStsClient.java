@@ -0,0 +1,134 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.awssdk.trustedidentitypropagation.internal;
+
+import java.util.Map;
+import software.amazon.awssdk.annotations.SdkInternalApi;
+import software.amazon.awssdk.annotations.ThreadSafe;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.sts.StsClient;
+import software.amazon.awssdk.services.sts.StsServiceClientConfiguration;
+import software.amazon.awssdk.services.sts.model.AssumeRoleRequest;
+import software.amazon.awssdk.services.sts.model.AssumeRoleResponse;
+import software.amazon.awssdk.services.sts.model.AssumeRoleWithSamlRequest;
+import software.amazon.awssdk.services.sts.model.AssumeRoleWithSamlResponse;
+import software.amazon.awssdk.services.sts.model.AssumeRoleWithWebIdentityRequest;
+import software.amazon.awssdk.services.sts.model.AssumeRoleWithWebIdentityResponse;
+import software.amazon.awssdk.services.sts.model.AssumeRootRequest;
+import software.amazon.awssdk.services.sts.model.AssumeRootResponse;
+import software.amazon.awssdk.services.sts.model.DecodeAuthorizationMessageRequest;
+import software.amazon.awssdk.services.sts.model.DecodeAuthorizationMessageResponse;
+import software.amazon.awssdk.services.sts.model.GetAccessKeyInfoRequest;
+import software.amazon.awssdk.services.sts.model.GetAccessKeyInfoResponse;
+import software.amazon.awssdk.services.sts.model.GetCallerIdentityRequest;
+import software.amazon.awssdk.services.sts.model.GetCallerIdentityResponse;
+import software.amazon.awssdk.services.sts.model.GetFederationTokenRequest;
+import software.amazon.awssdk.services.sts.model.GetFederationTokenResponse;
+import software.amazon.awssdk.services.sts.model.GetSessionTokenRequest;
+import software.amazon.awssdk.services.sts.model.GetSessionTokenResponse;
+import software.amazon.awssdk.trustedidentitypropagation.ExchangeApi;
+import software.amazon.awssdk.trustedidentitypropagation.ExchangeRateLimiter;
+import software.amazon.awssdk.utils.CompletableFutureUtils;
+
+/**
+ * An STS client that makes each call in whichever of several regions is expected to answer fastest, failing over to
+ * the other regions. See {@link RegionRouter}. Closing it closes the client of every region.
+ * <p>
+ * The caller takes the rate limiter permit for the first attempt of an {@code AssumeRole} call, and this client takes
+ * one for each region it fails over to.
+ */
+@SdkInternalApi
+@ThreadSafe
+public final class RegionalStsClient implements StsClient {
+
+    private final RegionRouter<StsClient> router;
+    private final ExchangeRateLimiter rateLimiter;
+
+    /**
+     * @param clients The client of each region, in the order of preference until their latencies are known.
+     * @param rateLimiter The rate limiter of the plugin, or null if its calls are not limited.
+     */
+    public RegionalStsClient(Map<Region, StsClient> clients, ExchangeRateLimiter rateLimiter) {
+        this.router = new RegionRouter<>(clients);
+        this.rateLimiter = rateLimiter;
+    }
+
+    @Override
+    public AssumeRoleResponse assumeRole(AssumeRoleRequest request) {
+        return router.call("AssumeRole", client -> client.assumeRole(request), this::awaitAssumeRolePermit);
+    }
+
+    @Override
+    public AssumeRoleWithSamlResponse assumeRoleWithSAML(AssumeRoleWithSamlRequest request) {
+        return router.call("AssumeRoleWithSAML", client -> client.assumeRoleWithSAML(request));
+    }
+
+    @Override
+    public AssumeRoleWithWebIdentityResponse assumeRoleWithWebIdentity(AssumeRoleWithWebIdentityRequest request) {
+        return router.call("AssumeRoleWithWebIdentity", client -> client.assumeRoleWithWebIdentity(request));
+    }
+
+    @Override
+    public AssumeRootResponse assumeRoot(AssumeRootRequest request) {
+        return router.call("AssumeRoot", client -> client.assumeRoot(request));
+    }
+
+    @Override
+    public DecodeAuthorizationMessageResponse decodeAuthorizationMessage(DecodeAuthorizationMessageRequest request) {
+        return router.call("DecodeAuthorizationMessage", client -> client.decodeAuthorizationMessage(request));
+    }
+
+    @Override
+    public GetAccessKeyInfoResponse getAccessKeyInfo(GetAccessKeyInfoRequest request) {
+        return router.call("GetAccessKeyInfo", client -> client.getAccessKeyInfo(request));
+    }
+
+    @Override
+    public GetCallerIdentityResponse getCallerIdentity(GetCallerIdentityRequest request) {
+        return router.call("GetCallerIdentity", client -> client.getCallerIdentity(request));
+    }
+
+    @Override
+    public GetFederationTokenResponse getFederationToken(GetFederationTokenRequest request) {
+        return router.call("GetFederationToken", client -> client.getFederationToken(request));
+    }
+
+    @Override
+    public GetSessionTokenResponse getSessionToken(GetSessionTokenRequest request) {
+        return router.call("GetSessionToken", client -> client.getSessionToken(request));
+    }
+
+    @Override
+    public StsServiceClientConfiguration serviceClientConfiguration() {
+        return router.preferredClient().serviceClientConfiguration();
+    }
+
+    @Override
+    public String serviceName() {
+        return SERVICE_NAME;
+    }
+
+    @Override
+    public void close() {
+        router.close();
+    }
+
+    private void awaitAssumeRolePermit() {
+        if (rateLimiter != null) {
+            CompletableFutureUtils.joinLikeSync(rateLimiter.acquire(ExchangeApi.ASSUME_ROLE));
+        }
+    }
+}
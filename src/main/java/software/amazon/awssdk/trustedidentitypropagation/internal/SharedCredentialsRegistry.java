@@ -0,0 +1,144 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.awssdk.trustedidentitypropagation.internal;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import software.amazon.awssdk.annotations.SdkInternalApi;
+import software.amazon.awssdk.annotations.ThreadSafe;
+import software.amazon.awssdk.auth.credentials.AwsSessionCredentials;
+import software.amazon.awssdk.trustedidentitypropagation.IdentityAwareCredentialsKey;
+import software.amazon.awssdk.utils.CompletableFutureUtils;
+import software.amazon.awssdk.utils.SdkAutoCloseable;
+
+/**
+ * Deduplicates the exchanges of independent providers in the JVM that serve the same identity with the same
+ * application and access role, e.g. the providers of plugins built separately by different libraries of one service.
+ * <p>
+ * Each identity's cache of a provider registers for its {@link IdentityAwareCredentialsKey} and exchanges through its
+ * {@link Registration}. An exchange started while another registration of the same key is exchanging joins that
+ * exchange, and one started after another registration refreshed the credentials is served those credentials if they
+ * are still fresh enough. Entries are reference-counted and removed once their last registration is closed, so the
+ * registry never holds more identities than the caches of the live providers.
+ */
+@SdkInternalApi
+@ThreadSafe
+final class SharedCredentialsRegistry {
+
+    static final SharedCredentialsRegistry INSTANCE = new SharedCredentialsRegistry();
+
+    private final Map<IdentityAwareCredentialsKey, Entry> entries = new ConcurrentHashMap<>();
+
+    SharedCredentialsRegistry() {
+    }
+
+    /**
+     * Registers for the credentials of the key. The returned registration must be closed to release the entry.
+     */
+    Registration register(IdentityAwareCredentialsKey key) {
+        Entry entry = entries.compute(key, (k, e) -> {
+            Entry registered = e == null ? new Entry() : e;
+            registered.references++;
+            return registered;
+        });
+        return new Registration(key, entry);
+    }
+
+    /**
+     * The number of keys with at least one registration.
+     */
+    int size() {
+        return entries.size();
+    }
+
+    private void release(IdentityAwareCredentialsKey key, Entry entry) {
+        entries.computeIfPresent(key, (k, e) -> {
+            if (e != entry) {
+                return e;
+            }
+            return --e.references == 0 ? null : e;
+        });
+    }
+
+    private static final class Entry {
+        /**
+         * The latest exchange of any registration, completed or in progress. Null before the first exchange.
+         */
+        private final AtomicReference<CompletableFuture<AwsSessionCredentials>> latest = new AtomicReference<>();
+
+        /**
+         * Guarded by the map's lock on the key.
+         */
+        private int references;
+    }
+
+    /**
+     * One cache's registration for a key.
+     */
+    final class Registration implements SdkAutoCloseable {
+        private final IdentityAwareCredentialsKey key;
+        private final Entry entry;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Registration(IdentityAwareCredentialsKey key, Entry entry) {
+            this.key = key;
+            this.entry = entry;
+        }
+
+        /**
+         * Returns the exchange in progress for the key, the credentials of the latest exchange if they are
+         * {@code usable}, or otherwise starts a new exchange with {@code exchange} that later callers join.
+         */
+        CompletableFuture<AwsSessionCredentials> exchange(Predicate<AwsSessionCredentials> usable,
+                                                          Supplier<CompletableFuture<AwsSessionCredentials>> exchange) {
+            while (true) {
+                CompletableFuture<AwsSessionCredentials> latest = entry.latest.get();
+                if (latest != null && (!latest.isDone() || isUsable(latest, usable))) {
+                    return latest;
+                }
+                CompletableFuture<AwsSessionCredentials> started = new CompletableFuture<>();
+                if (!entry.latest.compareAndSet(latest, started)) {
+                    continue;
+                }
+                CompletableFuture<AwsSessionCredentials> result;
+                try {
+                    result = exchange.get();
+                } catch (RuntimeException e) {
+                    result = CompletableFutureUtils.failedFuture(e);
+                }
+                CompletableFutureUtils.forwardResultTo(result, started);
+                return started;
+            }
+        }
+
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                release(key, entry);
+            }
+        }
+
+        private boolean isUsable(CompletableFuture<AwsSessionCredentials> completed,
+                                 Predicate<AwsSessionCredentials> usable) {
+            return !completed.isCompletedExceptionally() && usable.test(completed.join());
+        }
+    }
+}
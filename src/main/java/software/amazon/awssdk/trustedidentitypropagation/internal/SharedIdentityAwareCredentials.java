@@ -0,0 +1,148 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.awssdk.trustedidentitypropagation.internal;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import software.amazon.awssdk.annotations.SdkInternalApi;
+import software.amazon.awssdk.annotations.ThreadSafe;
+import software.amazon.awssdk.auth.credentials.AwsCredentials;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.AwsSessionCredentials;
+import software.amazon.awssdk.identity.spi.AwsCredentialsIdentity;
+import software.amazon.awssdk.identity.spi.ResolveIdentityRequest;
+import software.amazon.awssdk.utils.SdkAutoCloseable;
+
+/**
+ * A reference-counted {@link IdentityAwareCredentialsProvider} shared by all SDK clients configured by one plugin, so
+ * that one exchange and one cache serve every client of the same identity.
+ * <p>
+ * Each client gets its own lightweight provider from {@link #acquire(Consumer)}. Closing it releases its reference,
+ * and the shared provider is closed once the last reference is released. Acquiring a provider after that creates a new
+ * shared provider.
+ */
+@SdkInternalApi
+@ThreadSafe
+public final class SharedIdentityAwareCredentials {
+
+    private final Supplier<IdentityAwareCredentialsProvider> providerFactory;
+
+    /**
+     * The shared provider, or null if no client holds a reference. Guarded by {@code this}.
+     */
+    private IdentityAwareCredentialsProvider provider;
+
+    /**
+     * The number of unreleased providers returned by {@link #acquire(Consumer)}. Guarded by {@code this}.
+     */
+    private int references;
+
+    public SharedIdentityAwareCredentials(Supplier<IdentityAwareCredentialsProvider> providerFactory) {
+        this.providerFactory = providerFactory;
+    }
+
+    /**
+     * Returns a provider that resolves credentials through the shared provider, creating the shared provider if there
+     * is none. The returned provider must be closed to release its reference.
+     *
+     * @param releaseListener Called with the returned provider once it is closed, e.g. to stop tracking it.
+     */
+    public synchronized Reference acquire(Consumer<? super Reference> releaseListener) {
+        if (provider == null) {
+            provider = providerFactory.get();
+        }
+        references++;
+        return new Reference(provider, releaseListener);
+    }
+
+    private synchronized void release(IdentityAwareCredentialsProvider released) {
+        if (released != provider) {
+            // The shared provider this reference was acquired from has already been closed and replaced.
+            return;
+        }
+        if (--references == 0) {
+            provider.close();
+            provider = null;
+        }
+    }
+
+    /**
+     * The provider handed to each SDK client. Resolution goes straight to the shared provider without locking.
+     */
+    public final class Reference implements AwsCredentialsProvider, SdkAutoCloseable {
+        private final IdentityAwareCredentialsProvider delegate;
+        private final Consumer<? super Reference> releaseListener;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Reference(IdentityAwareCredentialsProvider delegate, Consumer<? super Reference> releaseListener) {
+            this.delegate = delegate;
+            this.releaseListener = releaseListener;
+        }
+
+        @Override
+        public AwsCredentials resolveCredentials() {
+            return delegate.resolveCredentials();
+        }
+
+        @Override
+        public CompletableFuture<AwsCredentialsIdentity> resolveIdentity(ResolveIdentityRequest request) {
+            return delegate.resolveIdentity(request);
+        }
+
+        /**
+         * See {@link IdentityAwareCredentialsProvider#prefetch()}.
+         */
+        public CompletableFuture<Void> prefetch() {
+            return delegate.prefetch();
+        }
+
+        /**
+         * See {@link IdentityAwareCredentialsProvider#prefetch(String)}.
+         */
+        public CompletableFuture<Void> prefetch(String webToken) {
+            return delegate.prefetch(webToken);
+        }
+
+        /**
+         * See {@link IdentityAwareCredentialsProvider#resolveCredentials(String)}.
+         */
+        public AwsSessionCredentials resolveCredentials(String webToken) {
+            return delegate.resolveCredentials(webToken);
+        }
+
+        /**
+         * See {@link IdentityAwareCredentialsProvider#forWebToken(String)}.
+         */
+        public AwsCredentialsProvider forWebToken(String webToken) {
+            return delegate.forWebToken(webToken);
+        }
+
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                release(delegate);
+                releaseListener.accept(this);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return delegate.toString();
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.awssdk.trustedidentitypropagation.internal;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import software.amazon.awssdk.annotations.SdkInternalApi;
+import software.amazon.awssdk.annotations.ThreadSafe;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.utils.CompletableFutureUtils;
+import software.amazon.awssdk.utils.Validate;
+
+/**
+ * Limits the rate of calls to {@code permitsPerSecond}, allowing bursts of up to one second's worth of calls.
+ * <p>
+ * Callers reserve a permit and then sleep until it becomes available, so permits are handed out in the order they were
+ * requested and the lock is only held to do the arithmetic. {@link #acquireAsync()} waits on the shared scheduler
+ * instead of a thread, and completes the permit on an executor so that callers never run on the scheduler thread.
+ * <p>
+ * A caller that would have to wait longer than the maximum wait is refused right away without taking a permit, which
+ * bounds how far the bucket can go into debt.
+ */
+@SdkInternalApi
+@ThreadSafe
+public final class TokenBucket {
+
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final double permitsPerSecond;
+    private final double capacity;
+    private final long maxWaitNanos;
+    private final Executor executor;
+
+    private double availablePermits;
+    private long lastRefillNanos;
+
+    /**
+     * Creates a bucket that makes callers wait however long it takes, for callers that bound their own concurrency.
+     */
+    public TokenBucket(double permitsPerSecond) {
+        this(permitsPerSecond, null, Runnable::run);
+    }
+
+    /**
+     * @param maxWait The longest a caller may have to wait for a permit, or null to not limit it.
+     * @param executor The executor that delayed permits are completed on.
+     */
+    public TokenBucket(double permitsPerSecond, Duration maxWait, Executor executor) {
+        Validate.isTrue(permitsPerSecond > 0, "permitsPerSecond must be positive.");
+        Validate.isTrue(maxWait == null || !maxWait.isNegative(), "maxWait must not be negative.");
+        this.permitsPerSecond = permitsPerSecond;
+        this.capacity = Math.max(1, permitsPerSecond);
+        this.maxWaitNanos = maxWait == null ? Long.MAX_VALUE : maxWait.toNanos();
+        this.executor = Validate.paramNotNull(executor, "executor");
+        this.availablePermits = capacity;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * Blocks until a permit is available.
+     *
+     * @throws SdkClientException If the permit would not be available within the maximum wait.
+     */
+    public void acquire() throws InterruptedException {
+        long waitNanos = reserve();
+        if (waitNanos < 0) {
+            throw throttled();
+        }
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    /**
+     * Returns a future that completes once a permit is available, without blocking the calling thread, or
+     * exceptionally with an {@link SdkClientException} if the permit would not be available within the maximum wait.
+     */
+    public CompletableFuture<Void> acquireAsync() {
+        long waitNanos = reserve();
+        if (waitNanos < 0) {
+            return CompletableFutureUtils.failedFuture(throttled());
+        }
+        if (waitNanos == 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<Void> permit = new CompletableFuture<>();
+        RefreshableCredentials.SharedExecutors.SCHEDULER.schedule(() -> complete(permit), waitNanos,
+                                                                  TimeUnit.NANOSECONDS);
+        return permit;
+    }
+
+    /**
+     * Hands the permit to the executor, so that the caller's continuation does not hold up the scheduler thread, which
+     * all buckets and credentials share. A saturated executor still gets its permit, on the scheduler thread.
+     */
+    private void complete(CompletableFuture<Void> permit) {
+        try {
+            executor.execute(() -> permit.complete(null));
+        } catch (RejectedExecutionException e) {
+            permit.complete(null);
+        }
+    }
+
+    /**
+     * Takes a permit, going into debt if there is none, and returns how long the caller has to wait for it. Returns -1
+     * without taking a permit if the wait would exceed the maximum wait.
+     */
+    private synchronized long reserve() {
+        long now = System.nanoTime();
+        availablePermits = Math.min(capacity,
+                                    availablePermits + (now - lastRefillNanos) * permitsPerSecond / NANOS_PER_SECOND);
+        lastRefillNanos = now;
+        double remaining = availablePermits - 1;
+        long waitNanos = remaining >= 0 ? 0 : (long) (-remaining * NANOS_PER_SECOND / permitsPerSecond);
+        if (waitNanos > maxWaitNanos) {
+            return -1;
+        }
+        availablePermits = remaining;
+        return waitNanos;
+    }
+
+    private SdkClientException throttled() {
+        return SdkClientException.create("Rate exceeded: no permit of " + permitsPerSecond + " per second is available "
+                                         + "within " + Duration.ofNanos(maxWaitNanos) + ".");
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.awssdk.trustedidentitypropagation.internal;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Optional;
+import software.amazon.awssdk.annotations.Immutable;
+import software.amazon.awssdk.annotations.SdkInternalApi;
+import software.amazon.awssdk.protocols.jsoncore.JsonNode;
+import software.amazon.awssdk.protocols.jsoncore.JsonNodeParser;
+
+/**
+ * The registered claims of a JSON web token that the plugin uses to know when a token expires. The payload is decoded
+ * locally and the signature is NOT verified; the token is validated by IAM Identity Center when it is exchanged, so
+ * these claims must only be used for caching decisions, never for authorization.
+ */
+@SdkInternalApi
+@Immutable
+public final class WebTokenClaims {
+
+    private static final JsonNodeParser PARSER = JsonNode.parser();
+
+    private final Instant expiration;
+
+    private WebTokenClaims(Instant expiration) {
+        this.expiration = expiration;
+    }
+
+    /**
+     * Decodes the claims of a compact-serialized JWT, returning an empty optional if the token is not a well-formed JWT.
+     */
+    public static Optional<WebTokenClaims> parse(String webToken) {
+        if (webToken == null) {
+            return Optional.empty();
+        }
+        int payloadStart = webToken.indexOf('.');
+        int payloadEnd = webToken.indexOf('.', payloadStart + 1);
+        if (payloadStart < 0 || payloadEnd < 0) {
+            return Optional.empty();
+        }
+        try {
+            byte[] payload = Base64.getUrlDecoder().decode(webToken.substring(payloadStart + 1, payloadEnd));
+            JsonNode claims = PARSER.parse(new String(payload, StandardCharsets.UTF_8));
+            if (!claims.isObject()) {
+                return Optional.empty();
+            }
+            return Optional.of(new WebTokenClaims(expirationClaim(claims)));
+        } catch (RuntimeException e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * The {@code exp} claim, if the token has one.
+     */
+    public Optional<Instant> expiration() {
+        return Optional.ofNullable(expiration);
+    }
+
+    private static Instant expirationClaim(JsonNode claims) {
+        return claims.field("exp")
+                     .filter(JsonNode::isNumber)
+                     .map(n -> Instant.ofEpochSecond((long) Double.parseDouble(n.asNumber())))
+                     .orElse(null);
+    }
+}
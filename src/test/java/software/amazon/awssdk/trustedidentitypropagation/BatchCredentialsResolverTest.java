@@ -0,0 +1,115 @@
+package software.amazon.awssdk.trustedidentitypropagation;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import software.amazon.awssdk.auth.credentials.AwsSessionCredentials;
+import software.amazon.awssdk.services.ssooidc.SsoOidcClient;
+import software.amazon.awssdk.services.ssooidc.SsoOidcServiceClientConfiguration;
+import software.amazon.awssdk.services.ssooidc.model.AwsAdditionalDetails;
+import software.amazon.awssdk.services.ssooidc.model.CreateTokenWithIamRequest;
+import software.amazon.awssdk.services.ssooidc.model.CreateTokenWithIamResponse;
+import software.amazon.awssdk.services.sts.StsClient;
+import software.amazon.awssdk.services.sts.model.AssumeRoleRequest;
+import software.amazon.awssdk.services.sts.model.AssumeRoleResponse;
+import software.amazon.awssdk.services.sts.model.Credentials;
+
+public class BatchCredentialsResolverTest {
+    private String roleArn = "arn:aws:iam::123456789101:role/example";
+    private String applicationArn = "arn:aws:sso::123456789101:application/ssoins-1234567891234567/apl-1234567891234567";
+    private StsClient stsClient = Mockito.mock(StsClient.class);
+    private SsoOidcClient oidcClient = Mockito.mock(SsoOidcClient.class);
+    private AtomicInteger concurrentExchanges = new AtomicInteger();
+    private AtomicInteger maxConcurrentExchanges = new AtomicInteger();
+    private TrustedIdentityPropagationPlugin plugin;
+
+    @BeforeEach
+    public void setup() {
+        Mockito.when(oidcClient.serviceClientConfiguration()).thenReturn(
+            SsoOidcServiceClientConfiguration.builder().build());
+        Mockito.when(oidcClient.createTokenWithIAM(any(CreateTokenWithIamRequest.class))).thenReturn(
+            CreateTokenWithIamResponse.builder()
+                .awsAdditionalDetails(AwsAdditionalDetails.builder().identityContext("idcontext").build())
+                .build());
+        Mockito.when(stsClient.assumeRole(any(AssumeRoleRequest.class))).thenAnswer(i -> {
+            maxConcurrentExchanges.accumulateAndGet(concurrentExchanges.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(20);
+                return AssumeRoleResponse.builder()
+                    .credentials(Credentials.builder()
+                        .accessKeyId("akid")
+                        .secretAccessKey("skid")
+                        .sessionToken("st")
+                        .expiration(Instant.now().plus(Duration.ofHours(1)))
+                        .build())
+                    .build();
+            } finally {
+                concurrentExchanges.decrementAndGet();
+            }
+        });
+        plugin = TrustedIdentityPropagationPlugin.builder()
+            .webTokenProvider(() -> webToken("default"))
+            .applicationArn(applicationArn)
+            .accessRoleArn(roleArn)
+            .stsClient(stsClient)
+            .ssoOidcClient(oidcClient)
+            .identityCacheEnabled(true)
+            .build();
+    }
+
+    @AfterEach
+    public void teardown() {
+        plugin.close();
+        Mockito.reset(oidcClient, stsClient);
+    }
+
+    @Test
+    public void resolveCredentials_exchangesEachDistinctTokenOnce() {
+        BatchCredentialsResolver resolver = BatchCredentialsResolver.builder().plugin(plugin).build();
+        String alice = webToken("alice");
+
+        Map<String, CompletableFuture<AwsSessionCredentials>> credentials =
+            resolver.resolveCredentials(Arrays.asList(alice, webToken("bob"), alice));
+
+        assertThat(credentials).hasSize(2);
+        CompletableFuture.allOf(credentials.values().toArray(new CompletableFuture[0])).join();
+        verify(stsClient, times(2)).assumeRole(any(AssumeRoleRequest.class));
+    }
+
+    @Test
+    public void resolveCredentials_limitsConcurrentExchanges() {
+        BatchCredentialsResolver resolver = BatchCredentialsResolver.builder()
+            .plugin(plugin)
+            .maxConcurrency(2)
+            .build();
+
+        Map<String, CompletableFuture<AwsSessionCredentials>> credentials = resolver.resolveCredentials(Arrays.asList(
+            webToken("a"), webToken("b"), webToken("c"), webToken("d"), webToken("e"), webToken("f")));
+
+        CompletableFuture.allOf(credentials.values().toArray(new CompletableFuture[0])).join();
+        verify(stsClient, times(6)).assumeRole(any(AssumeRoleRequest.class));
+        assertThat(maxConcurrentExchanges.get()).isLessThanOrEqualTo(2);
+    }
+
+    private static String webToken(String subject) {
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        String header = encoder.encodeToString("{\"alg\":\"none\"}".getBytes(StandardCharsets.UTF_8));
+        String payload = encoder.encodeToString(("{\"iss\":\"https://idp.example.com\",\"sub\":\"" + subject + "\"}")
+            .getBytes(StandardCharsets.UTF_8));
+        return header + "." + payload + ".";
+    }
+}
@@ -0,0 +1,83 @@
+package software.amazon.awssdk.trustedidentitypropagation;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+public class CachingWebTokenProviderTest {
+
+    @Test
+    public void get_reusesTokenUntilExpirationSkew() {
+        AtomicInteger webTokenRequests = new AtomicInteger();
+        Instant expiration = Instant.now().plus(Duration.ofHours(1));
+        try (CachingWebTokenProvider provider = CachingWebTokenProvider.create(() -> {
+            webTokenRequests.incrementAndGet();
+            return webToken(expiration);
+        })) {
+            String first = provider.get();
+            String second = provider.get();
+
+            assertThat(second).isEqualTo(first);
+        }
+        assertThat(webTokenRequests.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void get_requestsNewTokenWhenCachedTokenIsAboutToExpire() {
+        AtomicInteger webTokenRequests = new AtomicInteger();
+        Instant expiration = Instant.now().plus(Duration.ofSeconds(30));
+        try (CachingWebTokenProvider provider = CachingWebTokenProvider.builder()
+            .webTokenProvider(() -> {
+                webTokenRequests.incrementAndGet();
+                return webToken(expiration);
+            })
+            .expirationSkew(Duration.ofMinutes(1))
+            .asyncRefreshEnabled(false)
+            .build()) {
+            provider.get();
+            provider.get();
+        }
+        assertThat(webTokenRequests.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void get_doesNotCacheTokenWithoutExpiration() {
+        AtomicInteger webTokenRequests = new AtomicInteger();
+        try (CachingWebTokenProvider provider = CachingWebTokenProvider.create(() -> {
+            webTokenRequests.incrementAndGet();
+            return webToken(null);
+        })) {
+            provider.get();
+            provider.get();
+        }
+        assertThat(webTokenRequests.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void get_cachesTokenWithExpirationAfterTokenWithoutExpiration() {
+        AtomicInteger webTokenRequests = new AtomicInteger();
+        Instant expiration = Instant.now().plus(Duration.ofHours(1));
+        try (CachingWebTokenProvider provider = CachingWebTokenProvider.create(
+            () -> webToken(webTokenRequests.incrementAndGet() == 1 ? null : expiration))) {
+            provider.get();
+            String expiring = provider.get();
+
+            assertThat(provider.get()).isEqualTo(expiring);
+            assertThat(provider.get()).isEqualTo(expiring);
+        }
+        assertThat(webTokenRequests.get()).isEqualTo(2);
+    }
+
+    private static String webToken(Instant expiration) {
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        String header = encoder.encodeToString("{\"alg\":\"none\"}".getBytes(StandardCharsets.UTF_8));
+        String claims = "{\"iss\":\"https://idp.example.com\",\"sub\":\"user\""
+            + (expiration == null ? "" : ",\"exp\":" + expiration.getEpochSecond()) + "}";
+        return header + "." + encoder.encodeToString(claims.getBytes(StandardCharsets.UTF_8)) + ".";
+    }
+}
@@ -0,0 +1,126 @@
+package software.amazon.awssdk.trustedidentitypropagation;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.stream.Stream;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.auth.credentials.AwsSessionCredentials;
+
+public class FileCredentialsStoreTest {
+    private IdentityAwareCredentialsKey key = IdentityAwareCredentialsKey.create(
+        "arn:aws:sso::123456789101:application/ssoins-1234567891234567/apl-1234567891234567",
+        "arn:aws:iam::123456789101:role/example",
+        "https://idp.example.com#user");
+    private Path directory;
+    private Path path;
+
+    @BeforeEach
+    public void setup() throws Exception {
+        directory = Files.createTempDirectory("tip-credentials");
+        path = directory.resolve("credentials");
+    }
+
+    @AfterEach
+    public void teardown() throws Exception {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Test
+    public void load_returnsCredentialsStoredByPreviousInstance() throws Exception {
+        SecretKey encryptionKey = aesKey();
+        AwsSessionCredentials credentials = credentials(Instant.now().plus(Duration.ofHours(1)));
+
+        FileCredentialsStore store = FileCredentialsStore.create(path, encryptionKey);
+        store.store(key, credentials);
+        store.flush();
+
+        AwsSessionCredentials loaded = FileCredentialsStore.create(path, encryptionKey).load(key).get();
+        assertThat(loaded.accessKeyId()).isEqualTo("akid");
+        assertThat(loaded.secretAccessKey()).isEqualTo("skid");
+        assertThat(loaded.sessionToken()).isEqualTo("st");
+        assertThat(loaded.expirationTime()).isEqualTo(credentials.expirationTime());
+        assertThat(new String(Files.readAllBytes(path), "ISO-8859-1")).doesNotContain("skid");
+    }
+
+    @Test
+    public void load_ignoresFileEncryptedWithDifferentKey() throws Exception {
+        FileCredentialsStore store = FileCredentialsStore.create(path, aesKey());
+        store.store(key, credentials(Instant.now().plus(Duration.ofHours(1))));
+        store.flush();
+
+        assertThat(FileCredentialsStore.create(path, aesKey()).load(key)).isEmpty();
+    }
+
+    @Test
+    public void load_doesNotReturnExpiredCredentials() throws Exception {
+        FileCredentialsStore store = FileCredentialsStore.create(path, aesKey());
+        store.store(key, credentials(Instant.now().minus(Duration.ofMinutes(1))));
+
+        assertThat(store.load(key)).isEmpty();
+    }
+
+    @Test
+    public void store_writesFileInBackgroundAfterWriteDelay() throws Exception {
+        SecretKey encryptionKey = aesKey();
+        FileCredentialsStore store = FileCredentialsStore.builder()
+            .path(path)
+            .encryptionKey(encryptionKey)
+            .writeDelay(Duration.ofMillis(100))
+            .build();
+
+        store.store(key, credentials(Instant.now().plus(Duration.ofHours(1))));
+        assertThat(Files.exists(path)).isFalse();
+
+        long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+        while (!Files.exists(path) && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(FileCredentialsStore.create(path, encryptionKey).load(key)).isPresent();
+    }
+
+    @Test
+    public void close_writesPendingCredentialsAndStopsBackgroundWrites() throws Exception {
+        SecretKey encryptionKey = aesKey();
+        FileCredentialsStore store = FileCredentialsStore.builder()
+            .path(path)
+            .encryptionKey(encryptionKey)
+            .writeDelay(Duration.ofHours(1))
+            .build();
+        store.store(key, credentials(Instant.now().plus(Duration.ofHours(1))));
+
+        store.close();
+        assertThat(FileCredentialsStore.create(path, encryptionKey).load(key)).isPresent();
+
+        IdentityAwareCredentialsKey otherKey = IdentityAwareCredentialsKey.create(key.applicationArn(), key.roleArn(),
+                                                                                  "other");
+        store.store(otherKey, credentials(Instant.now().plus(Duration.ofHours(1))));
+        assertThat(store.load(otherKey)).isPresent();
+        assertThat(FileCredentialsStore.create(path, encryptionKey).load(otherKey)).isEmpty();
+    }
+
+    private static SecretKey aesKey() throws Exception {
+        KeyGenerator generator = KeyGenerator.getInstance("AES");
+        generator.init(256);
+        return generator.generateKey();
+    }
+
+    private static AwsSessionCredentials credentials(Instant expiration) {
+        return AwsSessionCredentials.builder()
+            .accessKeyId("akid")
+            .secretAccessKey("skid")
+            .sessionToken("st")
+            .expirationTime(expiration)
+            .build();
+    }
+}
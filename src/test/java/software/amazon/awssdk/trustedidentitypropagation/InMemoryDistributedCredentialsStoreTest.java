@@ -0,0 +1,77 @@
+package software.amazon.awssdk.trustedidentitypropagation;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import org.junit.jupiter.api.Test;
+
+public class InMemoryDistributedCredentialsStoreTest {
+    private Instant now = Instant.parse("2025-01-01T00:00:00Z");
+    private InMemoryDistributedCredentialsStore store =
+        InMemoryDistributedCredentialsStore.create(Clock.fixed(now, ZoneOffset.UTC));
+
+    @Test
+    public void get_returnsStoredEntry() {
+        DistributedCredentialsEntry entry = entry(now.plus(Duration.ofHours(1)), 1);
+        store.compareAndSet("key", null, entry);
+
+        assertThat(store.get("key").join()).contains(entry);
+        assertThat(store.get("other").join()).isEmpty();
+    }
+
+    @Test
+    public void get_dropsExpiredEntry() {
+        store.compareAndSet("key", null, entry(now, 1));
+
+        assertThat(store.get("key").join()).isEmpty();
+        assertThat(store.size()).isZero();
+    }
+
+    @Test
+    public void compareAndSet_storesOnlyIfExpectedVersionIsCurrent() {
+        DistributedCredentialsEntry first = entry(now.plus(Duration.ofHours(1)), 1);
+        DistributedCredentialsEntry second = entry(now.plus(Duration.ofHours(2)), 2);
+
+        assertThat(store.compareAndSet("key", null, first).join()).isTrue();
+        assertThat(store.compareAndSet("key", null, second).join()).isFalse();
+        assertThat(store.compareAndSet("key", second, second).join()).isFalse();
+        assertThat(store.compareAndSet("key", first, second).join()).isTrue();
+        assertThat(store.get("key").join()).contains(second);
+    }
+
+    @Test
+    public void compareAndSet_treatsExpiredEntryAsAbsent() {
+        store.compareAndSet("key", null, entry(now.minusSeconds(1), 1));
+
+        assertThat(store.compareAndSet("key", null, entry(now.plus(Duration.ofHours(1)), 2)).join()).isTrue();
+    }
+
+    @Test
+    public void removeExpired_keepsLiveEntries() {
+        store.compareAndSet("expired", null, entry(now.minusSeconds(1), 1));
+        store.compareAndSet("live", null, entry(now.plus(Duration.ofHours(1)), 1));
+
+        store.removeExpired();
+
+        assertThat(store.size()).isEqualTo(1);
+        assertThat(store.get("live").join()).isPresent();
+    }
+
+    @Test
+    public void entry_isCopiedDefensively() {
+        byte[] value = {1, 2, 3};
+        DistributedCredentialsEntry entry = DistributedCredentialsEntry.create(value, now, 1);
+        value[0] = 9;
+        entry.value()[1] = 9;
+
+        assertThat(entry.value()).containsExactly(1, 2, 3);
+        assertThat(entry.toString()).doesNotContain("value");
+    }
+
+    private static DistributedCredentialsEntry entry(Instant expiration, long version) {
+        return DistributedCredentialsEntry.create(new byte[] {(byte) version}, expiration, version);
+    }
+}
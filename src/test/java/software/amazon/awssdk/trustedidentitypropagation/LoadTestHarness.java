@@ -0,0 +1,292 @@
+package software.amazon.awssdk.trustedidentitypropagation;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import software.amazon.awssdk.auth.credentials.AnonymousCredentialsProvider;
+import software.amazon.awssdk.services.ssooidc.SsoOidcClient;
+import software.amazon.awssdk.services.sts.StsClient;
+import software.amazon.awssdk.services.sts.auth.StsAssumeRoleWithWebIdentityCredentialsProvider;
+import software.amazon.awssdk.services.sts.model.AssumeRoleWithWebIdentityRequest;
+import software.amazon.awssdk.utils.IoUtils;
+import software.amazon.awssdk.utils.Validate;
+
+/**
+ * Drives many concurrent SDK clients configured with one plugin against a {@link LocalIdentityServer} and reports the
+ * throughput, the latency percentiles of the requests and the calls the server received.
+ * <p>
+ * Every request is a {@code GetCallerIdentity} call made for one of {@code users} identities, picked at random. With
+ * more than one user the plugin's identity cache is enabled.
+ */
+public final class LoadTestHarness {
+
+    public static final String APPLICATION_ARN =
+        "arn:aws:sso::123456789012:application/ssoins-1234567890123456/apl-1234567890123456";
+    public static final String ROLE_ARN = "arn:aws:iam::123456789012:role/load-test";
+
+    private final LocalIdentityServer server;
+    private final int clients;
+    private final int threads;
+    private final int users;
+    private final int requestsPerThread;
+    private final Consumer<TrustedIdentityPropagationPlugin.Builder> pluginConfiguration;
+
+    private LoadTestHarness(Builder builder) {
+        this.server = Validate.paramNotNull(builder.server, "server");
+        this.clients = Validate.isPositive(builder.clients, "clients");
+        this.threads = Validate.isPositive(builder.threads, "threads");
+        this.users = Validate.isPositive(builder.users, "users");
+        this.requestsPerThread = Validate.isPositive(builder.requestsPerThread, "requestsPerThread");
+        this.pluginConfiguration = builder.pluginConfiguration;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * An unsigned web token for the subject, which is all the local server and the identity cache look at.
+     */
+    public static String webToken(String subject) {
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        String header = encoder.encodeToString("{\"alg\":\"none\"}".getBytes(StandardCharsets.UTF_8));
+        String payload = encoder.encodeToString(
+            ("{\"iss\":\"https://idp.example.com\",\"sub\":\"" + subject + "\"}").getBytes(StandardCharsets.UTF_8));
+        return header + "." + payload + ".";
+    }
+
+    public Report run() throws Exception {
+        List<String> webTokens = new ArrayList<>();
+        for (int i = 0; i < users; i++) {
+            webTokens.add(webToken("user-" + i));
+        }
+        ThreadLocal<String> currentWebToken = ThreadLocal.withInitial(() -> webTokens.get(0));
+
+        List<AutoCloseable> resources = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            StsClient bootstrapStsClient = server.stsClient();
+            resources.add(bootstrapStsClient);
+            TrustedIdentityPropagationPlugin plugin = newPlugin(bootstrapStsClient, currentWebToken::get, resources);
+
+            List<StsClient> stsClients = new ArrayList<>();
+            for (int i = 0; i < clients; i++) {
+                StsClient client = StsClient.builder()
+                    .endpointOverride(server.endpoint())
+                    .region(LocalIdentityServer.REGION)
+                    .addPlugin(plugin)
+                    .build();
+                resources.add(client);
+                stsClients.add(client);
+            }
+
+            Map<LocalIdentityServer.Operation, Long> callsBefore = server.callCounts();
+            AtomicLong errors = new AtomicLong();
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<long[]>> latencies = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                latencies.add(executor.submit(() -> {
+                    long[] threadLatencies = new long[requestsPerThread];
+                    start.await();
+                    for (int i = 0; i < requestsPerThread; i++) {
+                        currentWebToken.set(webTokens.get(ThreadLocalRandom.current().nextInt(users)));
+                        StsClient client = stsClients.get((thread + i) % clients);
+                        long requestStart = System.nanoTime();
+                        try {
+                            client.getCallerIdentity();
+                        } catch (RuntimeException e) {
+                            errors.incrementAndGet();
+                        }
+                        threadLatencies[i] = System.nanoTime() - requestStart;
+                    }
+                    return threadLatencies;
+                }));
+            }
+
+            long runStart = System.nanoTime();
+            start.countDown();
+            long[] allLatencies = new long[threads * requestsPerThread];
+            for (int t = 0; t < threads; t++) {
+                System.arraycopy(latencies.get(t).get(), 0, allLatencies, t * requestsPerThread, requestsPerThread);
+            }
+            Duration elapsed = Duration.ofNanos(System.nanoTime() - runStart);
+
+            Map<LocalIdentityServer.Operation, Long> backendCalls = new EnumMap<>(LocalIdentityServer.Operation.class);
+            server.callCounts().forEach((operation, count) -> backendCalls.put(operation, count - callsBefore.get(operation)));
+            return new Report(allLatencies, errors.get(), elapsed, backendCalls);
+        } finally {
+            executor.shutdownNow();
+            for (AutoCloseable resource : resources) {
+                IoUtils.closeQuietly(resource, null);
+            }
+        }
+    }
+
+    private TrustedIdentityPropagationPlugin newPlugin(StsClient bootstrapStsClient, Supplier<String> webTokenProvider,
+                                                       List<AutoCloseable> resources) {
+        StsClient anonymousStsClient = StsClient.builder()
+            .endpointOverride(server.endpoint())
+            .region(LocalIdentityServer.REGION)
+            .credentialsProvider(AnonymousCredentialsProvider.create())
+            .build();
+        resources.add(anonymousStsClient);
+        StsAssumeRoleWithWebIdentityCredentialsProvider bootstrapCredentials =
+            StsAssumeRoleWithWebIdentityCredentialsProvider.builder()
+                .stsClient(anonymousStsClient)
+                .refreshRequest(() -> AssumeRoleWithWebIdentityRequest.builder()
+                    .webIdentityToken(webTokenProvider.get())
+                    .roleArn(ROLE_ARN)
+                    .roleSessionName(Helpers.getBootstrapSessionName(APPLICATION_ARN))
+                    .build())
+                .build();
+        resources.add(bootstrapCredentials);
+        SsoOidcClient ssoOidcClient = SsoOidcClient.builder()
+            .endpointOverride(server.endpoint())
+            .region(LocalIdentityServer.REGION)
+            .credentialsProvider(bootstrapCredentials)
+            .build();
+        resources.add(ssoOidcClient);
+
+        TrustedIdentityPropagationPlugin.Builder plugin = TrustedIdentityPropagationPlugin.builder()
+            .stsClient(bootstrapStsClient)
+            .ssoOidcClient(ssoOidcClient)
+            .webTokenProvider(webTokenProvider)
+            .applicationArn(APPLICATION_ARN)
+            .accessRoleArn(ROLE_ARN)
+            .identityCacheEnabled(users > 1);
+        pluginConfiguration.accept(plugin);
+        TrustedIdentityPropagationPlugin built = plugin.build();
+        // Closed first, before the clients it uses.
+        resources.add(0, built);
+        return built;
+    }
+
+    public static final class Report {
+        private final long[] latencies;
+        private final long errors;
+        private final Duration elapsed;
+        private final Map<LocalIdentityServer.Operation, Long> backendCalls;
+
+        private Report(long[] latencies, long errors, Duration elapsed,
+                       Map<LocalIdentityServer.Operation, Long> backendCalls) {
+            this.latencies = latencies.clone();
+            Arrays.sort(this.latencies);
+            this.errors = errors;
+            this.elapsed = elapsed;
+            this.backendCalls = backendCalls;
+        }
+
+        public long requests() {
+            return latencies.length;
+        }
+
+        public long errors() {
+            return errors;
+        }
+
+        public double throughput() {
+            return latencies.length / (elapsed.toNanos() / 1e9);
+        }
+
+        public Duration percentile(double percentile) {
+            int index = (int) Math.ceil(percentile / 100 * latencies.length) - 1;
+            return Duration.ofNanos(latencies[Math.max(0, Math.min(index, latencies.length - 1))]);
+        }
+
+        public Duration p50() {
+            return percentile(50);
+        }
+
+        public Duration p99() {
+            return percentile(99);
+        }
+
+        /**
+         * The calls the server received during the run, per operation.
+         */
+        public Map<LocalIdentityServer.Operation, Long> backendCalls() {
+            return backendCalls;
+        }
+
+        public long backendCalls(LocalIdentityServer.Operation operation) {
+            return backendCalls.get(operation);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d requests (%d failed) in %d ms: %.0f requests/s, p50 %.2f ms, p99 %.2f ms, "
+                                 + "backend calls %s",
+                                 requests(), errors, elapsed.toMillis(), throughput(), p50().toNanos() / 1e6,
+                                 p99().toNanos() / 1e6, backendCalls);
+        }
+    }
+
+    public static final class Builder {
+        private LocalIdentityServer server;
+        private int clients = 1;
+        private int threads = 1;
+        private int users = 1;
+        private int requestsPerThread = 100;
+        private Consumer<TrustedIdentityPropagationPlugin.Builder> pluginConfiguration = b -> { };
+
+        private Builder() {
+        }
+
+        public Builder server(LocalIdentityServer server) {
+            this.server = server;
+            return this;
+        }
+
+        /**
+         * The number of SDK clients configured with the plugin. Requests are spread over them.
+         */
+        public Builder clients(int clients) {
+            this.clients = clients;
+            return this;
+        }
+
+        public Builder threads(int threads) {
+            this.threads = threads;
+            return this;
+        }
+
+        /**
+         * The number of distinct identities requests are made for.
+         */
+        public Builder users(int users) {
+            this.users = users;
+            return this;
+        }
+
+        public Builder requestsPerThread(int requestsPerThread) {
+            this.requestsPerThread = requestsPerThread;
+            return this;
+        }
+
+        /**
+         * Further configures the plugin, e.g. its refresh or rate limiting options.
+         */
+        public Builder pluginConfiguration(Consumer<TrustedIdentityPropagationPlugin.Builder> pluginConfiguration) {
+            this.pluginConfiguration = pluginConfiguration;
+            return this;
+        }
+
+        public LoadTestHarness build() {
+            return new LoadTestHarness(this);
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package software.amazon.awssdk.trustedidentitypropagation;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-process stand-in for a networked {@link DistributedCredentialsStore}, e.g. a cache cluster, for exercising
+ * plugins that share credentials through a store reached over sockets rather than through the same instance.
+ * <p>
+ * The server keeps its entries in an {@link InMemoryDistributedCredentialsStore} and answers one command per
+ * connection on a line protocol: {@code GET <key>} and {@code CAS <key> <expected version or -> <entry>}, where an
+ * entry is written as its base64 value, expiration and version. Every node of a test gets its own client from
+ * {@link #store()}, which makes its blocking calls on an executor of its own, as a store backed by a blocking client
+ * should.
+ */
+public final class LocalCredentialsStoreServer implements AutoCloseable {
+
+    private static final String ABSENT = "-";
+
+    private final InMemoryDistributedCredentialsStore entries = InMemoryDistributedCredentialsStore.create();
+    private final AtomicLong calls = new AtomicLong();
+    private final ServerSocket serverSocket;
+    private final ExecutorService executor;
+
+    private LocalCredentialsStoreServer() throws IOException {
+        this.serverSocket = new ServerSocket();
+        serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        this.executor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "local-credentials-store-server");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.execute(this::accept);
+    }
+
+    public static LocalCredentialsStoreServer create() {
+        try {
+            return new LocalCredentialsStoreServer();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * A client of the server, opening a connection per call.
+     */
+    public DistributedCredentialsStore store() {
+        return new Client(serverSocket.getLocalPort(), executor);
+    }
+
+    /**
+     * The number of commands the server answered.
+     */
+    public long calls() {
+        return calls.get();
+    }
+
+    /**
+     * The number of entries the server holds.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    @Override
+    public void close() {
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // The accepting thread stops either way.
+        }
+        executor.shutdownNow();
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                executor.execute(() -> handle(socket));
+            } catch (IOException | RejectedExecutionException e) {
+                return;
+            }
+        }
+    }
+
+    private void handle(Socket socket) {
+        try (Socket s = socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+             Writer out = new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8)) {
+            String[] command = in.readLine().split(" ");
+            calls.incrementAndGet();
+            out.write(answer(command) + "\n");
+        } catch (IOException | RuntimeException e) {
+            // The client fails on the missing answer.
+        }
+    }
+
+    private String answer(String[] command) {
+        String key = command[1];
+        switch (command[0]) {
+            case "GET":
+                return entries.get(key).join().map(LocalCredentialsStoreServer::format).orElse(ABSENT);
+            case "CAS":
+                DistributedCredentialsEntry expected = ABSENT.equals(command[2]) ? null : versionOnly(command[2]);
+                return Boolean.toString(entries.compareAndSet(key, expected, parse(command, 3)).join());
+            default:
+                throw new IllegalArgumentException("Unknown command: " + command[0]);
+        }
+    }
+
+    private static String format(DistributedCredentialsEntry entry) {
+        return Base64.getEncoder().encodeToString(entry.value()) + " " + entry.expiration() + " " + entry.version();
+    }
+
+    private static DistributedCredentialsEntry parse(String[] tokens, int offset) {
+        return DistributedCredentialsEntry.create(Base64.getDecoder().decode(tokens[offset]),
+                                                  Instant.parse(tokens[offset + 1]),
+                                                  Long.parseLong(tokens[offset + 2]));
+    }
+
+    /**
+     * The entries are compared by version only, so the expected entry does not need to be sent whole.
+     */
+    private static DistributedCredentialsEntry versionOnly(String version) {
+        return DistributedCredentialsEntry.create(new byte[0], Instant.MAX, Long.parseLong(version));
+    }
+
+    private static final class Client implements DistributedCredentialsStore {
+
+        private final int port;
+        private final Executor executor;
+
+        private Client(int port, Executor executor) {
+            this.port = port;
+            this.executor = executor;
+        }
+
+        @Override
+        public CompletableFuture<Optional<DistributedCredentialsEntry>> get(String key) {
+            return CompletableFuture.supplyAsync(() -> {
+                String answer = call("GET " + key);
+                return ABSENT.equals(answer) ? Optional.empty() : Optional.of(parse(answer.split(" "), 0));
+            }, executor);
+        }
+
+        @Override
+        public CompletableFuture<Boolean> compareAndSet(String key, DistributedCredentialsEntry expected,
+                                                        DistributedCredentialsEntry replacement) {
+            String expectedVersion = expected == null ? ABSENT : Long.toString(expected.version());
+            return CompletableFuture.supplyAsync(
+                () -> Boolean.parseBoolean(call("CAS " + key + " " + expectedVersion + " " + format(replacement))),
+                executor);
+        }
+
+        private String call(String command) {
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+                 Writer out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+                 BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                                                                              StandardCharsets.UTF_8))) {
+                out.write(command + "\n");
+                out.flush();
+                String answer = in.readLine();
+                if (answer == null) {
+                    throw new IllegalStateException("The local credentials store failed to answer " + command);
+                }
+                return answer;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
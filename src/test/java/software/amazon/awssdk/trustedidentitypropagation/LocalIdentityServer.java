@@ -0,0 +1,434 @@
+package software.amazon.awssdk.trustedidentitypropagation;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Base64;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.ssooidc.SsoOidcClient;
+import software.amazon.awssdk.services.sts.StsClient;
+import software.amazon.awssdk.utils.Validate;
+
+/**
+ * An in-process stand-in for the STS and SSO-OIDC endpoints, for exercising the plugin without an AWS account.
+ * <p>
+ * The server answers {@code CreateTokenWithIAM} on {@code /token} and the STS query actions {@code AssumeRole},
+ * {@code AssumeRoleWithWebIdentity} and {@code GetCallerIdentity} on {@code /}. Requests are not authenticated; web
+ * tokens are only decoded to read their subject. Every call can be delayed by a fixed latency and answered with a
+ * throttling error at a given rate, and the issued tokens and credentials expire after configurable durations.
+ * {@code GetCallerIdentity} reports the role session of the credentials the request was signed with, so a test can
+ * tell which identity a request was made for.
+ */
+public final class LocalIdentityServer implements AutoCloseable {
+
+    public static final Region REGION = Region.US_EAST_1;
+
+    private static final String STS_NAMESPACE = "https://sts.amazonaws.com/doc/2011-06-15/";
+    private static final Pattern ACCESS_KEY_ID = Pattern.compile("Credential=([^/,\\s]+)/");
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Duration latency;
+    private final double throttlingRate;
+    private final Duration tokenDuration;
+    private final Duration credentialsDuration;
+
+    private final Map<Operation, AtomicLong> calls = new EnumMap<>(Operation.class);
+    private final Map<Operation, AtomicLong> throttledCalls = new EnumMap<>(Operation.class);
+    private final Map<Operation, AtomicInteger> forcedThrottles = new EnumMap<>(Operation.class);
+
+    /**
+     * The role session each issued access key belongs to, and the subject each identity context was issued for.
+     */
+    private final Map<String, String> sessionsByAccessKey = new ConcurrentHashMap<>();
+    private final Map<String, String> subjectsByIdentityContext = new ConcurrentHashMap<>();
+
+    private LocalIdentityServer(Builder builder) throws IOException {
+        this.latency = builder.latency;
+        this.throttlingRate = builder.throttlingRate;
+        this.tokenDuration = builder.tokenDuration;
+        this.credentialsDuration = builder.credentialsDuration;
+        for (Operation operation : Operation.values()) {
+            calls.put(operation, new AtomicLong());
+            throttledCalls.put(operation, new AtomicLong());
+            forcedThrottles.put(operation, new AtomicInteger());
+        }
+
+        this.executor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "local-identity-server");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/token", this::handleOidc);
+        server.createContext("/", this::handleSts);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static LocalIdentityServer create() {
+        return builder().build();
+    }
+
+    public URI endpoint() {
+        return URI.create("http://localhost:" + server.getAddress().getPort());
+    }
+
+    /**
+     * An STS client for the server, signing with static credentials, e.g. for the plugin's bootstrap calls.
+     */
+    public StsClient stsClient() {
+        return StsClient.builder()
+            .endpointOverride(endpoint())
+            .region(REGION)
+            .credentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create("akid", "skid")))
+            .build();
+    }
+
+    /**
+     * An SSO-OIDC client for the server, signing with static credentials.
+     */
+    public SsoOidcClient ssoOidcClient() {
+        return SsoOidcClient.builder()
+            .endpointOverride(endpoint())
+            .region(REGION)
+            .credentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create("akid", "skid")))
+            .build();
+    }
+
+    /**
+     * The number of calls of the operation the server received, including throttled calls.
+     */
+    public long callCount(Operation operation) {
+        return calls.get(operation).get();
+    }
+
+    public long throttledCount(Operation operation) {
+        return throttledCalls.get(operation).get();
+    }
+
+    public Map<Operation, Long> callCounts() {
+        Map<Operation, Long> counts = new EnumMap<>(Operation.class);
+        calls.forEach((operation, count) -> counts.put(operation, count.get()));
+        return counts;
+    }
+
+    /**
+     * Answers the next {@code count} calls of the operation with a throttling error, regardless of the throttling rate.
+     */
+    public void throttleNext(Operation operation, int count) {
+        forcedThrottles.get(operation).addAndGet(count);
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private static Map<String, String> parseForm(String body) throws IOException {
+        Map<String, String> form = new HashMap<>();
+        for (String pair : body.split("&")) {
+            if (pair.isEmpty()) {
+                continue;
+            }
+            int separator = pair.indexOf('=');
+            String name = separator < 0 ? pair : pair.substring(0, separator);
+            String value = separator < 0 ? "" : pair.substring(separator + 1);
+            form.put(URLDecoder.decode(name, "UTF-8"), URLDecoder.decode(value, "UTF-8"));
+        }
+        return form;
+    }
+
+    private static String readBody(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] buffer = new byte[4096];
+            StringBuilder body = new StringBuilder();
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                body.append(new String(buffer, 0, read, StandardCharsets.UTF_8));
+            }
+            return body.toString();
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.getResponseHeaders().set("x-amzn-RequestId", UUID.randomUUID().toString());
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static String subjectOf(String webToken) {
+        try {
+            String[] parts = webToken.split("\\.");
+            JsonNode claims = MAPPER.readTree(Base64.getUrlDecoder().decode(parts[1]));
+            return claims.path("sub").asText("unknown");
+        } catch (IOException | RuntimeException e) {
+            return "unknown";
+        }
+    }
+
+    private static String newId(String prefix) {
+        return prefix + UUID.randomUUID().toString().replace("-", "").substring(0, 16).toUpperCase();
+    }
+
+    private void handleOidc(HttpExchange exchange) throws IOException {
+        try {
+            if (!admit(exchange, Operation.CREATE_TOKEN_WITH_IAM)) {
+                ObjectNode error = MAPPER.createObjectNode()
+                                         .put("error", "slow_down")
+                                         .put("error_description", "Rate exceeded");
+                exchange.getResponseHeaders().set("x-amzn-ErrorType", "SlowDownException");
+                respond(exchange, 429, "application/json", MAPPER.writeValueAsString(error));
+                return;
+            }
+            JsonNode request = MAPPER.readTree(readBody(exchange));
+            String subject;
+            if ("refresh_token".equals(request.path("grantType").asText())) {
+                subject = subjectOfIdentityContext(request.path("refreshToken").asText(null));
+            } else {
+                subject = subjectOf(request.path("assertion").asText());
+            }
+            String identityContext = newId("ctx-");
+            subjectsByIdentityContext.put(identityContext, subject);
+
+            ObjectNode response = MAPPER.createObjectNode()
+                                        .put("accessToken", newId("token-"))
+                                        .put("tokenType", "Bearer")
+                                        .put("expiresIn", tokenDuration.getSeconds())
+                                        .put("refreshToken", identityContext)
+                                        .put("issuedTokenType", "urn:ietf:params:oauth:token-type:refresh_token");
+            response.putObject("awsAdditionalDetails").put("identityContext", identityContext);
+            respond(exchange, 200, "application/json", MAPPER.writeValueAsString(response));
+        } catch (RuntimeException e) {
+            respond(exchange, 500, "application/json", "{\"error\":\"server_error\"}");
+            throw e;
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleSts(HttpExchange exchange) throws IOException {
+        try {
+            Map<String, String> form = parseForm(readBody(exchange));
+            Operation operation = Operation.fromAction(form.get("Action"));
+            if (operation == null) {
+                respond(exchange, 400, "text/xml", stsError("InvalidAction", "Unsupported action " + form.get("Action")));
+                return;
+            }
+            if (!admit(exchange, operation)) {
+                respond(exchange, 400, "text/xml", stsError("Throttling", "Rate exceeded"));
+                return;
+            }
+            switch (operation) {
+                case ASSUME_ROLE:
+                    String subject = subjectOfIdentityContext(form.get("ProvidedContexts.member.1.ContextAssertion"));
+                    respond(exchange, 200, "text/xml",
+                            assumeRoleResponse("AssumeRole", form.get("RoleArn"),
+                                               form.get("RoleSessionName") + "-" + subject, form.get("DurationSeconds")));
+                    break;
+                case ASSUME_ROLE_WITH_WEB_IDENTITY:
+                    respond(exchange, 200, "text/xml",
+                            assumeRoleResponse("AssumeRoleWithWebIdentity", form.get("RoleArn"),
+                                               form.get("RoleSessionName"), form.get("DurationSeconds")));
+                    break;
+                default:
+                    respond(exchange, 200, "text/xml", callerIdentityResponse(exchange));
+                    break;
+            }
+        } catch (RuntimeException e) {
+            respond(exchange, 500, "text/xml", stsError("InternalFailure", String.valueOf(e)));
+            throw e;
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private String subjectOfIdentityContext(String identityContext) {
+        return identityContext == null ? "unknown" : subjectsByIdentityContext.getOrDefault(identityContext, "unknown");
+    }
+
+    /**
+     * Counts the call and waits out the latency. Returns false if the call is to be throttled.
+     */
+    private boolean admit(HttpExchange exchange, Operation operation) {
+        calls.get(operation).incrementAndGet();
+        if (!latency.isZero()) {
+            try {
+                Thread.sleep(latency.toMillis());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        boolean throttled = forcedThrottles.get(operation).getAndUpdate(n -> Math.max(0, n - 1)) > 0
+                            || operation != Operation.GET_CALLER_IDENTITY
+                               && ThreadLocalRandom.current().nextDouble() < throttlingRate;
+        if (throttled) {
+            throttledCalls.get(operation).incrementAndGet();
+        }
+        return !throttled;
+    }
+
+    private String assumeRoleResponse(String action, String roleArn, String sessionName, String durationSeconds) {
+        Duration duration = durationSeconds == null ? credentialsDuration
+                                                    : min(credentialsDuration,
+                                                          Duration.ofSeconds(Long.parseLong(durationSeconds)));
+        String accessKeyId = newId("ASIA");
+        String roleName = roleArn.substring(roleArn.lastIndexOf('/') + 1);
+        String account = roleArn.split(":")[4];
+        String assumedRoleArn = "arn:aws:sts::" + account + ":assumed-role/" + roleName + "/" + sessionName;
+        sessionsByAccessKey.put(accessKeyId, assumedRoleArn);
+
+        return "<" + action + "Response xmlns=\"" + STS_NAMESPACE + "\">"
+               + "<" + action + "Result>"
+               + "<Credentials>"
+               + "<AccessKeyId>" + accessKeyId + "</AccessKeyId>"
+               + "<SecretAccessKey>" + UUID.randomUUID() + "</SecretAccessKey>"
+               + "<SessionToken>" + UUID.randomUUID() + "</SessionToken>"
+               + "<Expiration>" + Instant.now().plus(duration).truncatedTo(ChronoUnit.SECONDS) + "</Expiration>"
+               + "</Credentials>"
+               + "<AssumedRoleUser>"
+               + "<AssumedRoleId>" + newId("AROA") + ":" + sessionName + "</AssumedRoleId>"
+               + "<Arn>" + assumedRoleArn + "</Arn>"
+               + "</AssumedRoleUser>"
+               + "</" + action + "Result>"
+               + "<ResponseMetadata><RequestId>" + UUID.randomUUID() + "</RequestId></ResponseMetadata>"
+               + "</" + action + "Response>";
+    }
+
+    private String callerIdentityResponse(HttpExchange exchange) {
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        Matcher matcher = ACCESS_KEY_ID.matcher(authorization == null ? "" : authorization);
+        String accessKeyId = matcher.find() ? matcher.group(1) : "anonymous";
+        String arn = sessionsByAccessKey.getOrDefault(accessKeyId, "arn:aws:iam::123456789012:user/" + accessKeyId);
+
+        return "<GetCallerIdentityResponse xmlns=\"" + STS_NAMESPACE + "\">"
+               + "<GetCallerIdentityResult>"
+               + "<Arn>" + arn + "</Arn>"
+               + "<UserId>" + accessKeyId + "</UserId>"
+               + "<Account>" + arn.split(":")[4] + "</Account>"
+               + "</GetCallerIdentityResult>"
+               + "<ResponseMetadata><RequestId>" + UUID.randomUUID() + "</RequestId></ResponseMetadata>"
+               + "</GetCallerIdentityResponse>";
+    }
+
+    private static String stsError(String code, String message) {
+        return "<ErrorResponse xmlns=\"" + STS_NAMESPACE + "\">"
+               + "<Error><Type>Sender</Type><Code>" + code + "</Code><Message>" + message + "</Message></Error>"
+               + "<RequestId>" + UUID.randomUUID() + "</RequestId>"
+               + "</ErrorResponse>";
+    }
+
+    private static Duration min(Duration a, Duration b) {
+        return a.compareTo(b) <= 0 ? a : b;
+    }
+
+    public enum Operation {
+        CREATE_TOKEN_WITH_IAM(null),
+        ASSUME_ROLE("AssumeRole"),
+        ASSUME_ROLE_WITH_WEB_IDENTITY("AssumeRoleWithWebIdentity"),
+        GET_CALLER_IDENTITY("GetCallerIdentity");
+
+        private final String action;
+
+        Operation(String action) {
+            this.action = action;
+        }
+
+        private static Operation fromAction(String action) {
+            for (Operation operation : values()) {
+                if (operation.action != null && operation.action.equals(action)) {
+                    return operation;
+                }
+            }
+            return null;
+        }
+    }
+
+    public static final class Builder {
+        private Duration latency = Duration.ZERO;
+        private double throttlingRate;
+        private Duration tokenDuration = Duration.ofHours(1);
+        private Duration credentialsDuration = Duration.ofHours(1);
+
+        private Builder() {
+        }
+
+        /**
+         * Delays every call by the given latency. Defaults to none.
+         */
+        public Builder latency(Duration latency) {
+            this.latency = Validate.isNotNegative(latency, "latency");
+            return this;
+        }
+
+        /**
+         * Answers the given fraction of the OIDC and STS credential calls with a throttling error. Defaults to 0.
+         */
+        public Builder throttlingRate(double throttlingRate) {
+            Validate.isTrue(throttlingRate >= 0 && throttlingRate <= 1, "throttlingRate must be between 0 and 1.");
+            this.throttlingRate = throttlingRate;
+            return this;
+        }
+
+        /**
+         * How long the IAM Identity Center tokens are valid. Defaults to 1 hour.
+         */
+        public Builder tokenDuration(Duration tokenDuration) {
+            this.tokenDuration = Validate.isPositive(tokenDuration, "tokenDuration");
+            return this;
+        }
+
+        /**
+         * How long the issued credentials are valid, at most the requested session duration. Defaults to 1 hour.
+         */
+        public Builder credentialsDuration(Duration credentialsDuration) {
+            this.credentialsDuration = Validate.isPositive(credentialsDuration, "credentialsDuration");
+            return this;
+        }
+
+        public LocalIdentityServer build() {
+            try {
+                return new LocalIdentityServer(this);
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to start the local identity server.", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package software.amazon.awssdk.trustedidentitypropagation;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.sts.StsClient;
+import software.amazon.awssdk.services.sts.model.GetCallerIdentityResponse;
+import software.amazon.awssdk.trustedidentitypropagation.LocalIdentityServer.Operation;
+
+public class LocalIdentityServerTest {
+
+    private LocalIdentityServer server;
+
+    @AfterEach
+    public void teardown() {
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    @Test
+    public void plugin_signsRequestsWithIdentityEnhancedCredentials() {
+        server = LocalIdentityServer.create();
+        String webToken = LoadTestHarness.webToken("alice");
+
+        try (StsClient bootstrapStsClient = server.stsClient();
+             TrustedIdentityPropagationPlugin plugin = TrustedIdentityPropagationPlugin.builder()
+                 .stsClient(bootstrapStsClient)
+                 .ssoOidcClient(server.ssoOidcClient())
+                 .webTokenProvider(() -> webToken)
+                 .applicationArn(LoadTestHarness.APPLICATION_ARN)
+                 .accessRoleArn(LoadTestHarness.ROLE_ARN)
+                 .build();
+             StsClient client = StsClient.builder()
+                 .endpointOverride(server.endpoint())
+                 .region(LocalIdentityServer.REGION)
+                 .addPlugin(plugin)
+                 .build()) {
+            GetCallerIdentityResponse identity = client.getCallerIdentity();
+
+            assertThat(identity.arn())
+                .contains(Helpers.getIdentityEnhancedSessionName(LoadTestHarness.APPLICATION_ARN))
+                .endsWith("-alice");
+        }
+        assertThat(server.callCount(Operation.CREATE_TOKEN_WITH_IAM)).isEqualTo(1);
+        assertThat(server.callCount(Operation.ASSUME_ROLE)).isEqualTo(1);
+    }
+
+    @Test
+    public void loadTest_exchangesOncePerIdentity() throws Exception {
+        server = LocalIdentityServer.create();
+
+        LoadTestHarness.Report report = LoadTestHarness.builder()
+            .server(server)
+            .clients(4)
+            .threads(4)
+            .users(3)
+            .requestsPerThread(25)
+            .build()
+            .run();
+
+        assertThat(report.requests()).isEqualTo(100);
+        assertThat(report.errors()).isZero();
+        assertThat(report.p99()).isGreaterThanOrEqualTo(report.p50());
+        assertThat(report.backendCalls(Operation.GET_CALLER_IDENTITY)).isEqualTo(100);
+        assertThat(report.backendCalls(Operation.CREATE_TOKEN_WITH_IAM)).isLessThanOrEqualTo(3);
+        assertThat(report.backendCalls(Operation.ASSUME_ROLE)).isLessThanOrEqualTo(3);
+        assertThat(report.backendCalls(Operation.ASSUME_ROLE_WITH_WEB_IDENTITY)).isEqualTo(1);
+    }
+
+    @Test
+    public void loadTest_retriesThrottledCalls() throws Exception {
+        server = LocalIdentityServer.builder().latency(Duration.ofMillis(5)).build();
+        server.throttleNext(Operation.ASSUME_ROLE, 2);
+
+        LoadTestHarness.Report report = LoadTestHarness.builder()
+            .server(server)
+            .requestsPerThread(10)
+            .build()
+            .run();
+
+        assertThat(report.errors()).isZero();
+        assertThat(server.throttledCount(Operation.ASSUME_ROLE)).isEqualTo(2);
+        assertThat(report.backendCalls(Operation.ASSUME_ROLE)).isEqualTo(3);
+    }
+}
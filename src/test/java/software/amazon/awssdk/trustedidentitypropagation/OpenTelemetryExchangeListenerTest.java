@@ -0,0 +1,73 @@
+package software.amazon.awssdk.trustedidentitypropagation;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.context.Scope;
+import io.opentelemetry.sdk.testing.junit5.OpenTelemetryExtension;
+import io.opentelemetry.sdk.trace.data.EventData;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import java.time.Duration;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+
+public class OpenTelemetryExchangeListenerTest {
+
+    @RegisterExtension
+    static final OpenTelemetryExtension OPEN_TELEMETRY = OpenTelemetryExtension.create();
+
+    private final OpenTelemetryExchangeListener listener =
+        OpenTelemetryExchangeListener.create(OPEN_TELEMETRY.getOpenTelemetry());
+
+    @Test
+    public void phaseStarted_nestsCallSpansInExchangeSpan() {
+        ExchangeSpan exchange = listener.phaseStarted(ExchangePhase.EXCHANGE, null);
+        listener.phaseStarted(ExchangePhase.ASSUME_ROLE, exchange).end(Duration.ofMillis(5), null);
+        exchange.end(Duration.ofMillis(10), null);
+
+        List<SpanData> spans = OPEN_TELEMETRY.getSpans();
+        assertThat(spans).hasSize(2);
+        SpanData assumeRole = spans.get(0);
+        SpanData exchangeSpan = spans.get(1);
+        assertThat(assumeRole.getName()).isEqualTo("TrustedIdentityPropagation.AssumeRole");
+        assertThat(assumeRole.getKind()).isEqualTo(SpanKind.CLIENT);
+        assertThat(assumeRole.getParentSpanId()).isEqualTo(exchangeSpan.getSpanId());
+        assertThat(exchangeSpan.getName()).isEqualTo("TrustedIdentityPropagation.Exchange");
+        assertThat(exchangeSpan.getKind()).isEqualTo(SpanKind.INTERNAL);
+        assertThat(exchangeSpan.getInstrumentationScopeInfo().getName())
+            .isEqualTo(OpenTelemetryExchangeListener.INSTRUMENTATION_SCOPE_NAME);
+    }
+
+    @Test
+    public void phaseStarted_recordsFailure() {
+        listener.phaseStarted(ExchangePhase.CREATE_TOKEN_WITH_IAM, null)
+                .end(Duration.ofMillis(5), new IllegalStateException("throttled"));
+
+        SpanData span = OPEN_TELEMETRY.getSpans().get(0);
+        assertThat(span.getStatus().getStatusCode()).isEqualTo(StatusCode.ERROR);
+        assertThat(span.getEvents()).extracting(EventData::getName).containsExactly("exception");
+    }
+
+    @Test
+    public void cacheEvent_recordsWaitAsSpanAndOtherEventsOnCurrentSpan() {
+        Span request = OPEN_TELEMETRY.getOpenTelemetry().getTracer("test").spanBuilder("request").startSpan();
+        try (Scope ignored = request.makeCurrent()) {
+            listener.cacheEvent(CredentialsCacheEvent.HIT, Duration.ZERO);
+            listener.cacheEvent(CredentialsCacheEvent.MISS, Duration.ofMillis(20));
+        }
+        request.end();
+
+        List<SpanData> spans = OPEN_TELEMETRY.getSpans();
+        assertThat(spans).hasSize(2);
+        SpanData wait = spans.get(0);
+        assertThat(wait.getName()).isEqualTo("TrustedIdentityPropagation.WaitForCredentials");
+        assertThat(wait.getParentSpanId()).isEqualTo(spans.get(1).getSpanId());
+        assertThat(Duration.ofNanos(wait.getEndEpochNanos() - wait.getStartEpochNanos()))
+            .isGreaterThanOrEqualTo(Duration.ofMillis(20));
+        assertThat(spans.get(1).getEvents()).extracting(EventData::getName)
+            .containsExactly("TrustedIdentityPropagation.CacheHit");
+    }
+}
@@ -0,0 +1,91 @@
+package software.amazon.awssdk.trustedidentitypropagation;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.core.exception.SdkClientException;
+
+public class TokenBucketRateLimiterTest {
+
+    @Test
+    public void acquire_delaysPermitsBeyondBurst() throws Exception {
+        TokenBucketRateLimiter rateLimiter = TokenBucketRateLimiter.builder()
+            .permitsPerSecond(ExchangeApi.ASSUME_ROLE, 10)
+            .build();
+
+        List<CompletableFuture<Void>> permits = new ArrayList<>();
+        for (int i = 0; i < 11; i++) {
+            permits.add(rateLimiter.acquire(ExchangeApi.ASSUME_ROLE));
+        }
+
+        for (CompletableFuture<Void> permit : permits.subList(0, 10)) {
+            assertThat(permit).isDone();
+        }
+        assertThat(permits.get(10)).isNotDone();
+        permits.get(10).get(1, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void acquire_doesNotLimitApisWithoutRate() {
+        TokenBucketRateLimiter rateLimiter = TokenBucketRateLimiter.builder()
+            .permitsPerSecond(ExchangeApi.ASSUME_ROLE, 1)
+            .build();
+
+        for (int i = 0; i < 100; i++) {
+            assertThat(rateLimiter.acquire(ExchangeApi.CREATE_TOKEN_WITH_IAM)).isDone();
+        }
+    }
+
+    @Test
+    public void acquire_completesDelayedPermitsOnExecutor() throws Exception {
+        AtomicInteger executions = new AtomicInteger();
+        Executor executor = r -> {
+            executions.incrementAndGet();
+            new Thread(r).start();
+        };
+        TokenBucketRateLimiter rateLimiter = TokenBucketRateLimiter.builder()
+            .permitsPerSecond(ExchangeApi.ASSUME_ROLE, 10)
+            .executor(executor)
+            .build();
+
+        List<CompletableFuture<Void>> permits = new ArrayList<>();
+        for (int i = 0; i < 11; i++) {
+            permits.add(rateLimiter.acquire(ExchangeApi.ASSUME_ROLE));
+        }
+        permits.get(10).get(1, TimeUnit.SECONDS);
+
+        assertThat(executions.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void acquire_failsFastWhenWaitWouldExceedMaxWait() {
+        TokenBucketRateLimiter rateLimiter = TokenBucketRateLimiter.builder()
+            .permitsPerSecond(ExchangeApi.ASSUME_ROLE, 10)
+            .maxWait(Duration.ofMillis(250))
+            .build();
+
+        List<CompletableFuture<Void>> permits = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            permits.add(rateLimiter.acquire(ExchangeApi.ASSUME_ROLE));
+        }
+
+        for (CompletableFuture<Void> permit : permits.subList(0, 12)) {
+            assertThat(permit.isCompletedExceptionally()).isFalse();
+        }
+        for (CompletableFuture<Void> permit : permits.subList(12, 20)) {
+            assertThat(permit.isCompletedExceptionally()).isTrue();
+        }
+        assertThatThrownBy(() -> permits.get(19).join())
+            .isInstanceOf(CompletionException.class)
+            .hasCauseInstanceOf(SdkClientException.class);
+    }
+}
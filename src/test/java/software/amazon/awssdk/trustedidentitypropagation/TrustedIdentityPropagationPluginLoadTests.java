@@ -0,0 +1,84 @@
+package software.amazon.awssdk.trustedidentitypropagation;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.trustedidentitypropagation.LocalIdentityServer.Operation;
+import software.amazon.awssdk.utils.Logger;
+
+/**
+ * Load tests of the plugin against a {@link LocalIdentityServer}. Run with {@code ./mvnw verify -P load-tests}; the
+ * scale can be changed with the {@code loadTest.clients}, {@code loadTest.threads}, {@code loadTest.users},
+ * {@code loadTest.requestsPerThread} and {@code loadTest.latencyMillis} system properties.
+ */
+public class TrustedIdentityPropagationPluginLoadTests {
+
+    private static final Logger LOGGER = Logger.loggerFor(TrustedIdentityPropagationPluginLoadTests.class);
+
+    private static final int CLIENTS = Integer.getInteger("loadTest.clients", 16);
+    private static final int THREADS = Integer.getInteger("loadTest.threads", 64);
+    private static final int USERS = Integer.getInteger("loadTest.users", 1_000);
+    private static final int REQUESTS_PER_THREAD = Integer.getInteger("loadTest.requestsPerThread", 500);
+    private static final Duration LATENCY = Duration.ofMillis(Integer.getInteger("loadTest.latencyMillis", 20));
+
+    @Test
+    public void singleIdentity() throws Exception {
+        try (LocalIdentityServer server = LocalIdentityServer.builder().latency(LATENCY).build()) {
+            LoadTestHarness.Report report = harness(server).users(1).build().run();
+            LOGGER.info(() -> "Single identity: " + report);
+
+            assertThat(report.errors()).isZero();
+            assertThat(report.backendCalls(Operation.CREATE_TOKEN_WITH_IAM)).isEqualTo(1);
+            assertThat(report.backendCalls(Operation.ASSUME_ROLE)).isEqualTo(1);
+        }
+    }
+
+    @Test
+    public void manyIdentities() throws Exception {
+        try (LocalIdentityServer server = LocalIdentityServer.builder().latency(LATENCY).build()) {
+            LoadTestHarness.Report report = harness(server).build().run();
+            LOGGER.info(() -> "Many identities: " + report);
+
+            assertThat(report.errors()).isZero();
+            assertThat(report.backendCalls(Operation.CREATE_TOKEN_WITH_IAM)).isLessThanOrEqualTo(USERS);
+            assertThat(report.backendCalls(Operation.ASSUME_ROLE)).isLessThanOrEqualTo(USERS);
+        }
+    }
+
+    @Test
+    public void manyIdentitiesWhileThrottled() throws Exception {
+        try (LocalIdentityServer server = LocalIdentityServer.builder().latency(LATENCY).throttlingRate(0.1).build()) {
+            LoadTestHarness.Report report = harness(server).build().run();
+            LOGGER.info(() -> "Many identities, 10% of exchange calls throttled: " + report);
+
+            assertThat(report.errors()).isLessThan(report.requests() / 100);
+        }
+    }
+
+    @Test
+    public void shortLivedCredentials() throws Exception {
+        try (LocalIdentityServer server = LocalIdentityServer.builder()
+            .latency(LATENCY)
+            .tokenDuration(Duration.ofSeconds(30))
+            .credentialsDuration(Duration.ofMinutes(15))
+            .build()) {
+            LoadTestHarness.Report report = harness(server)
+                .pluginConfiguration(p -> p.prefetchTime(Duration.ofMinutes(15)))
+                .build()
+                .run();
+            LOGGER.info(() -> "Many identities, credentials refreshed continuously: " + report);
+
+            assertThat(report.errors()).isZero();
+        }
+    }
+
+    private static LoadTestHarness.Builder harness(LocalIdentityServer server) {
+        return LoadTestHarness.builder()
+            .server(server)
+            .clients(CLIENTS)
+            .threads(THREADS)
+            .users(USERS)
+            .requestsPerThread(REQUESTS_PER_THREAD);
+    }
+}
@@ -3,17 +3,25 @@ package software.amazon.awssdk.trustedidentitypropagation;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 
+import java.time.Duration;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
+import software.amazon.awssdk.awscore.AwsRequestOverrideConfiguration;
+import software.amazon.awssdk.http.SdkHttpClient;
 import software.amazon.awssdk.identity.spi.AwsCredentialsIdentity;
 import software.amazon.awssdk.identity.spi.IdentityProvider;
 import software.amazon.awssdk.identity.spi.ResolveIdentityRequest;
+import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.s3.S3ServiceClientConfiguration;
 import software.amazon.awssdk.services.ssooidc.SsoOidcClient;
+import software.amazon.awssdk.services.ssooidc.SsoOidcServiceClientConfiguration;
 import software.amazon.awssdk.services.ssooidc.model.CreateTokenWithIamRequest;
 import software.amazon.awssdk.services.ssooidc.model.CreateTokenWithIamResponse;
 import software.amazon.awssdk.services.sts.StsClient;
@@ -75,6 +83,128 @@ public class TrustedIdentityPropagationPluginTest {
         assertThat(clientConfiguration.credentialsProvider()).isNotEqualTo(delegateCredentialsProvider);
     }
 
+    @Test
+    public void tipPlugin_sharesCredentialsAcrossConfiguredClients() {
+        Mockito.when(oidcClient.serviceClientConfiguration()).thenReturn(
+            SsoOidcServiceClientConfiguration.builder().build());
+        S3ServiceClientConfiguration.Builder first = S3ServiceClientConfiguration.builder();
+        S3ServiceClientConfiguration.Builder second = S3ServiceClientConfiguration.builder();
+
+        trustedIdentityPropagationPlugin.configureClient(first);
+        trustedIdentityPropagationPlugin.configureClient(second);
+        try {
+            AwsCredentialsIdentity firstCredentials = first.credentialsProvider().resolveIdentity().join();
+            AwsCredentialsIdentity secondCredentials = second.credentialsProvider().resolveIdentity().join();
+
+            assertThat(secondCredentials).isSameAs(firstCredentials);
+        } finally {
+            trustedIdentityPropagationPlugin.close();
+        }
+        verify(oidcClient, times(1)).createTokenWithIAM(any(CreateTokenWithIamRequest.class));
+        verify(stsClient, times(1)).assumeRole(any(AssumeRoleRequest.class));
+    }
+
+    @Test
+    public void tipPlugin_defersDefaultClientsUntilFirstResolution() {
+        AtomicInteger webTokenRequests = new AtomicInteger();
+        TrustedIdentityPropagationPlugin plugin = TrustedIdentityPropagationPlugin.builder()
+            .idTokenSupplier(() -> {
+                webTokenRequests.incrementAndGet();
+                return idToken;
+            })
+            .applicationArn(ssoClientId)
+            .accessRoleArn(roleArn)
+            .build();
+
+        plugin.configureClient(S3ServiceClientConfiguration.builder());
+        plugin.close();
+
+        assertThat(webTokenRequests.get()).isZero();
+    }
+
+    @Test
+    public void identityOverride_resolvesCredentialsOfGivenWebTokenThroughIdentityCache() {
+        Mockito.when(oidcClient.serviceClientConfiguration()).thenReturn(
+            SsoOidcServiceClientConfiguration.builder().build());
+        TrustedIdentityPropagationPlugin plugin = trustedIdentityPropagationPlugin.toBuilder()
+            .idTokenSupplier(() -> {
+                throw new AssertionError("The web token of the override must be used.");
+            })
+            .identityCacheEnabled(true)
+            .build();
+        try {
+            AwsRequestOverrideConfiguration first = AwsRequestOverrideConfiguration.builder()
+                .applyMutation(plugin.identityOverride(idToken))
+                .build();
+            AwsRequestOverrideConfiguration second = AwsRequestOverrideConfiguration.builder()
+                .applyMutation(plugin.identityOverride(idToken))
+                .build();
+
+            AwsCredentialsIdentity firstCredentials = first.credentialsIdentityProvider().get().resolveIdentity().join();
+            AwsCredentialsIdentity secondCredentials = second.credentialsIdentityProvider().get().resolveIdentity().join();
+
+            assertThat(secondCredentials).isSameAs(firstCredentials);
+        } finally {
+            plugin.close();
+        }
+        verify(oidcClient, times(1)).createTokenWithIAM(any(CreateTokenWithIamRequest.class));
+        verify(stsClient, times(1)).assumeRole(any(AssumeRoleRequest.class));
+    }
+
+    @Test
+    public void identityOverride_requiresIdentityCache() {
+        assertThatThrownBy(() -> trustedIdentityPropagationPlugin.identityOverride(idToken))
+            .isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    public void tipPlugin_rejectsBootstrapPrefetchTimeShorterThanStaleTime() {
+        assertThatThrownBy(() -> TrustedIdentityPropagationPlugin.builder()
+            .idTokenSupplier(() -> idToken)
+            .applicationArn(ssoClientId)
+            .accessRoleArn(roleArn)
+            .bootstrapPrefetchTime(Duration.ofMinutes(1))
+            .bootstrapStaleTime(Duration.ofMinutes(2))
+            .build()).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void tipPlugin_requiresBootstrapWebTokenProviderWithIdentityCache() {
+        assertThatThrownBy(() -> TrustedIdentityPropagationPlugin.builder()
+            .idTokenSupplier(() -> idToken)
+            .applicationArn(ssoClientId)
+            .accessRoleArn(roleArn)
+            .identityCacheEnabled(true)
+            .build()).isInstanceOf(IllegalArgumentException.class);
+
+        TrustedIdentityPropagationPlugin.builder()
+            .idTokenSupplier(() -> idToken)
+            .bootstrapWebTokenProvider(() -> idToken)
+            .applicationArn(ssoClientId)
+            .accessRoleArn(roleArn)
+            .identityCacheEnabled(true)
+            .build()
+            .close();
+    }
+
+    @Test
+    public void tipPlugin_rejectsHttpClientOptionsWithProvidedHttpClient() {
+        assertThatThrownBy(() -> TrustedIdentityPropagationPlugin.builder()
+            .idTokenSupplier(() -> idToken)
+            .applicationArn(ssoClientId)
+            .accessRoleArn(roleArn)
+            .httpClient(Mockito.mock(SdkHttpClient.class))
+            .httpClientMaxConnections(10)
+            .build()).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void tipPlugin_rejectsRegionsWithProvidedClients() {
+        assertThatThrownBy(() -> trustedIdentityPropagationPlugin.toBuilder()
+            .stsRegions(Region.US_EAST_1, Region.US_WEST_2)
+            .build()).isInstanceOf(IllegalArgumentException.class);
+    }
+
     @Test
     public void tipPlugin_throwsExceptionForMissingArguments() {
         assertThatThrownBy(() -> TrustedIdentityPropagationPlugin.builder()
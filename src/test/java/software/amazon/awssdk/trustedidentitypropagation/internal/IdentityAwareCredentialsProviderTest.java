@@ -0,0 +1,845 @@
+package software.amazon.awssdk.trustedidentitypropagation.internal;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static software.amazon.awssdk.trustedidentitypropagation.TrustedIdentityPropagationMetric.CACHE_HIT_COUNT;
+import static software.amazon.awssdk.trustedidentitypropagation.TrustedIdentityPropagationMetric.CACHE_MISS_COUNT;
+import static software.amazon.awssdk.trustedidentitypropagation.TrustedIdentityPropagationMetric.OIDC_EXCHANGE_DURATION;
+import static software.amazon.awssdk.trustedidentitypropagation.TrustedIdentityPropagationMetric.REFRESH_COUNT;
+import static software.amazon.awssdk.trustedidentitypropagation.TrustedIdentityPropagationMetric.STS_EXCHANGE_DURATION;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import software.amazon.awssdk.auth.credentials.AwsCredentials;
+import software.amazon.awssdk.auth.credentials.AwsSessionCredentials;
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.identity.spi.AwsCredentialsIdentity;
+import software.amazon.awssdk.identity.spi.ResolveIdentityRequest;
+import software.amazon.awssdk.metrics.MetricCollection;
+import software.amazon.awssdk.metrics.MetricPublisher;
+import software.amazon.awssdk.services.ssooidc.SsoOidcAsyncClient;
+import software.amazon.awssdk.services.ssooidc.SsoOidcClient;
+import software.amazon.awssdk.services.ssooidc.SsoOidcServiceClientConfiguration;
+import software.amazon.awssdk.services.ssooidc.model.AwsAdditionalDetails;
+import software.amazon.awssdk.services.ssooidc.model.CreateTokenWithIamRequest;
+import software.amazon.awssdk.services.ssooidc.model.CreateTokenWithIamResponse;
+import software.amazon.awssdk.services.sts.StsAsyncClient;
+import software.amazon.awssdk.services.sts.StsClient;
+import software.amazon.awssdk.services.sts.model.AssumeRoleRequest;
+import software.amazon.awssdk.services.sts.model.AssumeRoleResponse;
+import software.amazon.awssdk.services.sts.model.Credentials;
+import software.amazon.awssdk.services.sts.model.StsException;
+import software.amazon.awssdk.trustedidentitypropagation.Constants;
+import software.amazon.awssdk.trustedidentitypropagation.CredentialsCacheEvent;
+import software.amazon.awssdk.trustedidentitypropagation.DistributedCredentialsStore;
+import software.amazon.awssdk.trustedidentitypropagation.ExchangeApi;
+import software.amazon.awssdk.trustedidentitypropagation.ExchangeListener;
+import software.amazon.awssdk.trustedidentitypropagation.ExchangePhase;
+import software.amazon.awssdk.trustedidentitypropagation.ExchangeSpan;
+import software.amazon.awssdk.trustedidentitypropagation.IdentityAwareCredentialsKey;
+import software.amazon.awssdk.trustedidentitypropagation.IdentityAwareCredentialsStore;
+import software.amazon.awssdk.trustedidentitypropagation.InMemoryDistributedCredentialsStore;
+import software.amazon.awssdk.trustedidentitypropagation.LocalCredentialsStoreServer;
+import software.amazon.awssdk.trustedidentitypropagation.TrustedIdentityPropagationMetric;
+import software.amazon.awssdk.utils.CompletableFutureUtils;
+
+public class IdentityAwareCredentialsProviderTest {
+    private String idToken = "eyJhbGciOiJIUzI1NiIsInR5cCI6IkpXVCJ9.eyJzdWIiOiIxMjM0NTY3ODkwIiwibmFtZ"
+        + "SI6IkpvaG4gRG9lIiwiaWF0IjoxNTE2MjM5MDIyfQ.SflKxwRJSMeKKF2QT4fwpMeJf36POk6yJV_adQssw5c";
+    private String roleArn = "arn:aws:iam::123456789101:role/example";
+    private String applicationArn = "arn:aws:sso::123456789101:application/ssoins-1234567891234567/apl-1234567891234567";
+    private StsClient stsClient = Mockito.mock(StsClient.class);
+    private SsoOidcClient oidcClient = Mockito.mock(SsoOidcClient.class);
+    private StsAsyncClient stsAsyncClient = Mockito.mock(StsAsyncClient.class);
+    private SsoOidcAsyncClient oidcAsyncClient = Mockito.mock(SsoOidcAsyncClient.class);
+
+    @BeforeEach
+    public void setup() {
+        Mockito.when(oidcClient.serviceClientConfiguration()).thenReturn(
+            SsoOidcServiceClientConfiguration.builder().build());
+        Mockito.when(oidcClient.createTokenWithIAM(any(CreateTokenWithIamRequest.class))).thenReturn(
+            CreateTokenWithIamResponse.builder()
+                .awsAdditionalDetails(AwsAdditionalDetails.builder().identityContext("idcontext").build())
+                .build());
+    }
+
+    @AfterEach
+    public void teardown() {
+        Mockito.reset(oidcClient, stsClient, oidcAsyncClient, stsAsyncClient);
+    }
+
+    @Test
+    public void resolveCredentials_reusesCredentialsUntilPrefetchTime() {
+        stubAssumeRole(Instant.now().plus(Duration.ofHours(1)));
+
+        try (IdentityAwareCredentialsProvider provider = providerBuilder().build()) {
+            AwsCredentials first = provider.resolveCredentials();
+            AwsCredentials second = provider.resolveCredentials();
+
+            assertThat(second).isSameAs(first);
+            assertThat(((AwsSessionCredentials) first).expirationTime()).isPresent();
+        }
+        verify(oidcClient, times(1)).createTokenWithIAM(any(CreateTokenWithIamRequest.class));
+        verify(stsClient, times(1)).assumeRole(any(AssumeRoleRequest.class));
+    }
+
+    @Test
+    public void resolveCredentials_refreshesStaleCredentials() {
+        stubAssumeRole(Instant.now().plus(Duration.ofSeconds(30)));
+
+        try (IdentityAwareCredentialsProvider provider = providerBuilder()
+            .staleTime(Duration.ofMinutes(1))
+            .asyncCredentialUpdateEnabled(false)
+            .build()) {
+            provider.resolveCredentials();
+            provider.resolveCredentials();
+        }
+        verify(oidcClient, times(2)).createTokenWithIAM(any(CreateTokenWithIamRequest.class));
+        verify(stsClient, times(2)).assumeRole(any(AssumeRoleRequest.class));
+    }
+
+    @Test
+    public void resolveCredentials_reusesRequestPartsSharedByAllExchanges() {
+        List<CreateTokenWithIamRequest> tokenRequests = new CopyOnWriteArrayList<>();
+        List<AssumeRoleRequest> assumeRoleRequests = new CopyOnWriteArrayList<>();
+        Mockito.when(oidcClient.createTokenWithIAM(any(CreateTokenWithIamRequest.class))).thenAnswer(i -> {
+            tokenRequests.add(i.getArgument(0));
+            return CreateTokenWithIamResponse.builder()
+                .awsAdditionalDetails(AwsAdditionalDetails.builder().identityContext("idcontext").build())
+                .build();
+        });
+        Mockito.when(stsClient.assumeRole(any(AssumeRoleRequest.class))).thenAnswer(i -> {
+            assumeRoleRequests.add(i.getArgument(0));
+            return assumeRoleResponse(Instant.now().plus(Duration.ofSeconds(30)));
+        });
+
+        try (IdentityAwareCredentialsProvider provider = providerBuilder().asyncCredentialUpdateEnabled(false).build()) {
+            provider.resolveCredentials();
+            provider.resolveCredentials();
+        }
+        assertThat(tokenRequests).hasSize(2);
+        assertThat(tokenRequests.get(1).assertion()).isEqualTo(idToken);
+        assertThat(tokenRequests.get(1).grantType()).isEqualTo(Constants.JWT_BEARER_GRANT_URI);
+        assertThat(tokenRequests.get(1).overrideConfiguration().get())
+            .isSameAs(tokenRequests.get(0).overrideConfiguration().get());
+
+        assertThat(assumeRoleRequests).hasSize(2);
+        assertThat(assumeRoleRequests.get(1).roleSessionName()).isSameAs(assumeRoleRequests.get(0).roleSessionName());
+        assertThat(assumeRoleRequests.get(1).overrideConfiguration().get())
+            .isSameAs(assumeRoleRequests.get(0).overrideConfiguration().get());
+        assertThat(assumeRoleRequests.get(1).providedContexts().get(0).contextAssertion()).isEqualTo("idcontext");
+    }
+
+    @Test
+    public void resolveCredentials_reusesIdentityCenterTokenUntilItExpires() {
+        stubAssumeRole(Instant.now().plus(Duration.ofSeconds(30)));
+        Mockito.when(oidcClient.createTokenWithIAM(any(CreateTokenWithIamRequest.class))).thenReturn(
+            CreateTokenWithIamResponse.builder()
+                .expiresIn(3600)
+                .awsAdditionalDetails(AwsAdditionalDetails.builder().identityContext("idcontext").build())
+                .build());
+
+        try (IdentityAwareCredentialsProvider provider = providerBuilder().asyncCredentialUpdateEnabled(false).build()) {
+            provider.resolveCredentials();
+            provider.resolveCredentials();
+            provider.resolveCredentials();
+        }
+        verify(oidcClient, times(1)).createTokenWithIAM(any(CreateTokenWithIamRequest.class));
+        verify(stsClient, times(3)).assumeRole(any(AssumeRoleRequest.class));
+    }
+
+    @Test
+    public void resolveCredentials_renewsExpiredIdentityCenterTokenWithRefreshToken() {
+        stubAssumeRole(Instant.now().plus(Duration.ofSeconds(30)));
+        Mockito.when(oidcClient.createTokenWithIAM(any(CreateTokenWithIamRequest.class))).thenReturn(
+            CreateTokenWithIamResponse.builder()
+                .expiresIn(30)
+                .refreshToken("refresh-token")
+                .awsAdditionalDetails(AwsAdditionalDetails.builder().identityContext("idcontext").build())
+                .build());
+
+        try (IdentityAwareCredentialsProvider provider = providerBuilder().asyncCredentialUpdateEnabled(false).build()) {
+            provider.resolveCredentials();
+            provider.resolveCredentials();
+        }
+        verify(oidcClient, times(1)).createTokenWithIAM(
+            argThat((CreateTokenWithIamRequest r) -> Constants.JWT_BEARER_GRANT_URI.equals(r.grantType())));
+        verify(oidcClient, times(1)).createTokenWithIAM(
+            argThat((CreateTokenWithIamRequest r) -> Constants.REFRESH_TOKEN_GRANT.equals(r.grantType())
+                                                      && "refresh-token".equals(r.refreshToken())));
+        verify(stsClient, times(2)).assumeRole(any(AssumeRoleRequest.class));
+    }
+
+    @Test
+    public void resolveCredentials_createsNewIdentityCenterTokenWhenIdentityContextExpired() {
+        stubLongLivedIdentityCenterToken();
+        Mockito.when(stsClient.assumeRole(any(AssumeRoleRequest.class)))
+            .thenReturn(assumeRoleResponse(Instant.now().plus(Duration.ofSeconds(30))))
+            .thenThrow(stsException(400, "ExpiredTokenException", "The security token included in the request is expired"))
+            .thenReturn(assumeRoleResponse(Instant.now().plus(Duration.ofSeconds(30))));
+
+        try (IdentityAwareCredentialsProvider provider = providerBuilder().asyncCredentialUpdateEnabled(false).build()) {
+            provider.resolveCredentials();
+            provider.resolveCredentials();
+        }
+        verify(oidcClient, times(2)).createTokenWithIAM(any(CreateTokenWithIamRequest.class));
+        verify(stsClient, times(3)).assumeRole(any(AssumeRoleRequest.class));
+    }
+
+    @Test
+    public void resolveCredentials_doesNotCreateNewIdentityCenterTokenWhenAccessDenied() {
+        stubLongLivedIdentityCenterToken();
+        Mockito.when(stsClient.assumeRole(any(AssumeRoleRequest.class)))
+            .thenReturn(assumeRoleResponse(Instant.now().plus(Duration.ofSeconds(30))))
+            .thenThrow(stsException(403, "AccessDenied", "User is not authorized to perform: sts:AssumeRole"));
+
+        try (IdentityAwareCredentialsProvider provider = providerBuilder().asyncCredentialUpdateEnabled(false).build()) {
+            provider.resolveCredentials();
+            assertThatThrownBy(provider::resolveCredentials).isInstanceOf(StsException.class);
+        }
+        verify(oidcClient, times(1)).createTokenWithIAM(any(CreateTokenWithIamRequest.class));
+        verify(stsClient, times(2)).assumeRole(any(AssumeRoleRequest.class));
+    }
+
+    @Test
+    public void resolveCredentials_doesNotCreateNewIdentityCenterTokenWhenParameterInvalid() {
+        stubLongLivedIdentityCenterToken();
+        Mockito.when(stsClient.assumeRole(any(AssumeRoleRequest.class)))
+            .thenReturn(assumeRoleResponse(Instant.now().plus(Duration.ofSeconds(30))))
+            .thenThrow(stsException(400, "InvalidParameterValue", "The provided context assertion is malformed"));
+
+        try (IdentityAwareCredentialsProvider provider = providerBuilder().asyncCredentialUpdateEnabled(false).build()) {
+            provider.resolveCredentials();
+            assertThatThrownBy(provider::resolveCredentials).isInstanceOf(StsException.class);
+        }
+        verify(oidcClient, times(1)).createTokenWithIAM(any(CreateTokenWithIamRequest.class));
+        verify(stsClient, times(2)).assumeRole(any(AssumeRoleRequest.class));
+    }
+
+    @Test
+    public void resolveCredentials_concurrentColdCallersShareOneExchange() throws Exception {
+        stubAssumeRole(Instant.now().plus(Duration.ofHours(1)));
+        Mockito.when(oidcClient.createTokenWithIAM(any(CreateTokenWithIamRequest.class))).thenAnswer(i -> {
+            Thread.sleep(200);
+            return CreateTokenWithIamResponse.builder()
+                .awsAdditionalDetails(AwsAdditionalDetails.builder().identityContext("idcontext").build())
+                .build();
+        });
+
+        int threads = 200;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        try (IdentityAwareCredentialsProvider provider = providerBuilder().build()) {
+            List<Future<AwsCredentials>> results = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    return provider.resolveCredentials();
+                }));
+            }
+            start.countDown();
+
+            AwsCredentials first = results.get(0).get();
+            for (Future<AwsCredentials> result : results) {
+                assertThat(result.get()).isSameAs(first);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        verify(oidcClient, times(1)).createTokenWithIAM(any(CreateTokenWithIamRequest.class));
+        verify(stsClient, times(1)).assumeRole(any(AssumeRoleRequest.class));
+    }
+
+    @Test
+    public void resolveIdentity_chainsAsyncClientsWithoutCallingSyncClients() {
+        Mockito.when(oidcAsyncClient.serviceClientConfiguration()).thenReturn(
+            SsoOidcServiceClientConfiguration.builder().build());
+        Mockito.when(oidcAsyncClient.createTokenWithIAM(any(CreateTokenWithIamRequest.class))).thenReturn(
+            CompletableFuture.completedFuture(CreateTokenWithIamResponse.builder()
+                .awsAdditionalDetails(AwsAdditionalDetails.builder().identityContext("idcontext").build())
+                .build()));
+        Mockito.when(stsAsyncClient.assumeRole(any(AssumeRoleRequest.class))).thenReturn(
+            CompletableFuture.completedFuture(assumeRoleResponse(Instant.now().plus(Duration.ofHours(1)))));
+
+        try (IdentityAwareCredentialsProvider provider = providerBuilder()
+            .stsAsyncClient(stsAsyncClient)
+            .ssoOidcAsyncClient(oidcAsyncClient)
+            .build()) {
+            AwsCredentialsIdentity first = provider.resolveIdentity(ResolveIdentityRequest.builder().build()).join();
+            AwsCredentialsIdentity second = provider.resolveIdentity(ResolveIdentityRequest.builder().build()).join();
+
+            assertThat(second).isSameAs(first);
+        }
+        verify(oidcAsyncClient, times(1)).createTokenWithIAM(any(CreateTokenWithIamRequest.class));
+        verify(stsAsyncClient, times(1)).assumeRole(any(AssumeRoleRequest.class));
+        verify(oidcClient, never()).createTokenWithIAM(any(CreateTokenWithIamRequest.class));
+        verify(stsClient, never()).assumeRole(any(AssumeRoleRequest.class));
+    }
+
+    @Test
+    public void identityCache_cachesCredentialsPerToken() {
+        stubAssumeRole(Instant.now().plus(Duration.ofHours(1)));
+        String alice = webToken("alice");
+        AtomicReference<String> currentToken = new AtomicReference<>();
+
+        try (IdentityAwareCredentialsProvider provider = providerBuilder()
+            .webTokenProvider(currentToken::get)
+            .identityCacheEnabled(true)
+            .build()) {
+            currentToken.set(alice);
+            provider.resolveCredentials();
+            currentToken.set(webToken("bob"));
+            provider.resolveCredentials();
+            currentToken.set(alice);
+            provider.resolveCredentials();
+        }
+        verify(oidcClient, times(2)).createTokenWithIAM(any(CreateTokenWithIamRequest.class));
+        verify(stsClient, times(2)).assumeRole(any(AssumeRoleRequest.class));
+    }
+
+    @Test
+    public void identityCache_doesNotServeCredentialsToTokenClaimingSameSubject() {
+        stubAssumeRole(Instant.now().plus(Duration.ofHours(1)));
+        String alice = webToken("alice");
+        String forged = webToken("alice");
+        AtomicReference<String> currentToken = new AtomicReference<>();
+
+        try (IdentityAwareCredentialsProvider provider = providerBuilder()
+            .webTokenProvider(currentToken::get)
+            .identityCacheEnabled(true)
+            .build()) {
+            currentToken.set(alice);
+            provider.resolveCredentials();
+            currentToken.set(forged);
+            provider.resolveCredentials();
+            currentToken.set(alice);
+            provider.resolveCredentials();
+        }
+        verify(oidcClient, times(1)).createTokenWithIAM(argThat((CreateTokenWithIamRequest r) ->
+            forged.equals(r.assertion())));
+        verify(oidcClient, times(1)).createTokenWithIAM(argThat((CreateTokenWithIamRequest r) ->
+            alice.equals(r.assertion())));
+        verify(stsClient, times(2)).assumeRole(any(AssumeRoleRequest.class));
+    }
+
+    @Test
+    public void identityCache_evictsLeastRecentlyUsedIdentity() {
+        stubAssumeRole(Instant.now().plus(Duration.ofHours(1)));
+        String alice = webToken("alice");
+        AtomicReference<String> currentToken = new AtomicReference<>();
+
+        try (IdentityAwareCredentialsProvider provider = providerBuilder()
+            .webTokenProvider(currentToken::get)
+            .identityCacheEnabled(true)
+            .identityCacheMaxEntries(1)
+            .build()) {
+            currentToken.set(alice);
+            provider.resolveCredentials();
+            currentToken.set(webToken("bob"));
+            provider.resolveCredentials();
+            currentToken.set(alice);
+            provider.resolveCredentials();
+        }
+        verify(oidcClient, times(3)).createTokenWithIAM(any(CreateTokenWithIamRequest.class));
+        verify(stsClient, times(3)).assumeRole(any(AssumeRoleRequest.class));
+    }
+
+    @Test
+    public void identityCache_servesPrefetchedCredentials() {
+        stubAssumeRole(Instant.now().plus(Duration.ofHours(1)));
+        String alice = webToken("alice");
+        AtomicReference<String> currentToken = new AtomicReference<>();
+
+        try (IdentityAwareCredentialsProvider provider = providerBuilder()
+            .webTokenProvider(currentToken::get)
+            .identityCacheEnabled(true)
+            .build()) {
+            provider.prefetch(alice).join();
+            currentToken.set(alice);
+            provider.resolveCredentials();
+        }
+        verify(oidcClient, times(1)).createTokenWithIAM(any(CreateTokenWithIamRequest.class));
+        verify(stsClient, times(1)).assumeRole(any(AssumeRoleRequest.class));
+    }
+
+    @Test
+    public void metrics_publishesExchangesAndCacheCounters() {
+        stubAssumeRole(Instant.now().plus(Duration.ofHours(1)));
+        List<MetricCollection> published = new CopyOnWriteArrayList<>();
+        MetricPublisher publisher = new MetricPublisher() {
+            @Override
+            public void publish(MetricCollection metricCollection) {
+                published.add(metricCollection);
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        try (IdentityAwareCredentialsProvider provider = providerBuilder()
+            .metricPublishers(Collections.singletonList(publisher))
+            .build()) {
+            provider.resolveCredentials();
+            provider.resolveCredentials();
+        }
+
+        assertThat(published).hasSize(2);
+        MetricCollection exchange = published.get(0);
+        assertThat(exchange.name()).isEqualTo(TrustedIdentityPropagationMetric.EXCHANGE_COLLECTION_NAME);
+        assertThat(exchange.metricValues(OIDC_EXCHANGE_DURATION)).hasSize(1);
+        assertThat(exchange.metricValues(STS_EXCHANGE_DURATION)).hasSize(1);
+
+        MetricCollection cache = published.get(1);
+        assertThat(cache.name()).isEqualTo(TrustedIdentityPropagationMetric.CACHE_COLLECTION_NAME);
+        assertThat(cache.metricValues(CACHE_HIT_COUNT)).containsExactly(1L);
+        assertThat(cache.metricValues(CACHE_MISS_COUNT)).containsExactly(1L);
+        assertThat(cache.metricValues(REFRESH_COUNT)).containsExactly(1L);
+    }
+
+    @Test
+    public void sessionDuration_stepsDownToDurationAcceptedByRole() {
+        Mockito.when(stsClient.assumeRole(any(AssumeRoleRequest.class))).thenAnswer(i -> {
+            AssumeRoleRequest request = i.getArgument(0);
+            if (request.durationSeconds() > 3600) {
+                throw StsException.builder()
+                    .statusCode(400)
+                    .awsErrorDetails(AwsErrorDetails.builder()
+                        .errorCode("ValidationError")
+                        .errorMessage("The requested DurationSeconds exceeds the MaxSessionDuration set for this role.")
+                        .build())
+                    .build();
+            }
+            return assumeRoleResponse(Instant.now().plus(Duration.ofSeconds(30)));
+        });
+
+        try (IdentityAwareCredentialsProvider provider = providerBuilder()
+            .sessionDuration(Duration.ofHours(12))
+            .adaptiveSessionDurationEnabled(true)
+            .asyncCredentialUpdateEnabled(false)
+            .build()) {
+            provider.resolveCredentials();
+            provider.resolveCredentials();
+        }
+        verify(stsClient, times(1)).assumeRole(argThat((AssumeRoleRequest r) -> r.durationSeconds() == 43200));
+        verify(stsClient, times(1)).assumeRole(argThat((AssumeRoleRequest r) -> r.durationSeconds() == 7200));
+        verify(stsClient, times(2)).assumeRole(argThat((AssumeRoleRequest r) -> r.durationSeconds() == 3600));
+        verify(stsClient, times(8)).assumeRole(any(AssumeRoleRequest.class));
+    }
+
+    @Test
+    public void sessionDuration_throwsValidationErrorThatDoesNotNameDuration() {
+        Mockito.when(stsClient.assumeRole(any(AssumeRoleRequest.class))).thenThrow(
+            StsException.builder()
+                .statusCode(400)
+                .awsErrorDetails(AwsErrorDetails.builder()
+                    .errorCode("ValidationError")
+                    .errorMessage("1 validation error detected: Value at 'roleArn' failed to satisfy constraint.")
+                    .build())
+                .build());
+
+        try (IdentityAwareCredentialsProvider provider = providerBuilder()
+            .sessionDuration(Duration.ofHours(12))
+            .adaptiveSessionDurationEnabled(true)
+            .asyncCredentialUpdateEnabled(false)
+            .build()) {
+            assertThatThrownBy(provider::resolveCredentials).isInstanceOf(StsException.class)
+                                                            .hasMessageContaining("roleArn");
+        }
+        verify(stsClient, times(1)).assumeRole(any(AssumeRoleRequest.class));
+    }
+
+    @Test
+    public void resolveCredentials_backsOffAfterFailedRefresh() {
+        Mockito.when(stsClient.assumeRole(any(AssumeRoleRequest.class))).thenThrow(throttlingException());
+
+        try (IdentityAwareCredentialsProvider provider = providerBuilder().asyncCredentialUpdateEnabled(false).build()) {
+            assertThatThrownBy(provider::resolveCredentials).isInstanceOf(StsException.class);
+            assertThatThrownBy(provider::resolveCredentials).hasCauseInstanceOf(StsException.class);
+        }
+        verify(stsClient, times(1)).assumeRole(any(AssumeRoleRequest.class));
+    }
+
+    @Test
+    public void resolveCredentials_servesStaleCredentialsInGracePeriodWhenRefreshFails() {
+        Mockito.when(stsClient.assumeRole(any(AssumeRoleRequest.class)))
+            .thenReturn(assumeRoleResponse(Instant.now().plus(Duration.ofSeconds(50))))
+            .thenThrow(throttlingException());
+
+        try (IdentityAwareCredentialsProvider provider = providerBuilder()
+            .staleTime(Duration.ofMinutes(1))
+            .staleCredentialsGracePeriod(Duration.ofSeconds(30))
+            .asyncCredentialUpdateEnabled(false)
+            .build()) {
+            AwsCredentials first = provider.resolveCredentials();
+            AwsCredentials second = provider.resolveCredentials();
+
+            assertThat(second).isSameAs(first);
+        }
+        verify(stsClient, times(2)).assumeRole(any(AssumeRoleRequest.class));
+    }
+
+    @Test
+    public void rateLimiter_acquiresPermitBeforeEachCall() {
+        stubAssumeRole(Instant.now().plus(Duration.ofHours(1)));
+        List<ExchangeApi> permits = new CopyOnWriteArrayList<>();
+
+        try (IdentityAwareCredentialsProvider provider = providerBuilder()
+            .rateLimiter(api -> {
+                permits.add(api);
+                return CompletableFuture.completedFuture(null);
+            })
+            .build()) {
+            provider.resolveCredentials();
+        }
+        assertThat(permits).containsExactly(ExchangeApi.CREATE_TOKEN_WITH_IAM, ExchangeApi.ASSUME_ROLE);
+    }
+
+    @Test
+    public void processWideSharing_exchangesOnceForProvidersOfSameIdentity() {
+        stubAssumeRole(Instant.now().plus(Duration.ofHours(1)));
+
+        try (IdentityAwareCredentialsProvider first = providerBuilder().processWideSharingEnabled(true).build();
+             IdentityAwareCredentialsProvider second = providerBuilder().processWideSharingEnabled(true).build()) {
+            AwsCredentials credentials = first.resolveCredentials();
+
+            assertThat(second.resolveCredentials()).isSameAs(credentials);
+            assertThat(SharedCredentialsRegistry.INSTANCE.size()).isEqualTo(1);
+        }
+        assertThat(SharedCredentialsRegistry.INSTANCE.size()).isZero();
+        verify(oidcClient, times(1)).createTokenWithIAM(any(CreateTokenWithIamRequest.class));
+        verify(stsClient, times(1)).assumeRole(any(AssumeRoleRequest.class));
+    }
+
+    @Test
+    public void processWideSharing_exchangesAgainForCredentialsInPrefetchWindow() {
+        stubAssumeRole(Instant.now().plus(Duration.ofMinutes(3)));
+        IdentityAwareCredentialsProvider.Builder builder = providerBuilder()
+            .processWideSharingEnabled(true)
+            .asyncCredentialUpdateEnabled(false);
+
+        try (IdentityAwareCredentialsProvider first = builder.build();
+             IdentityAwareCredentialsProvider second = builder.build()) {
+            first.resolveCredentials();
+            second.resolveCredentials();
+        }
+        verify(stsClient, times(2)).assumeRole(any(AssumeRoleRequest.class));
+    }
+
+    @Test
+    public void distributedCredentialsStore_servesCredentialsExchangedByAnotherNode() throws Exception {
+        stubAssumeRole(Instant.now().plus(Duration.ofHours(1)));
+        InMemoryDistributedCredentialsStore store = InMemoryDistributedCredentialsStore.create();
+        IdentityAwareCredentialsProvider.Builder builder = providerBuilder()
+            .distributedCredentialsStore(store)
+            .distributedCredentialsEncryptionKey(aesKey());
+
+        try (IdentityAwareCredentialsProvider first = builder.build();
+             IdentityAwareCredentialsProvider second = builder.build()) {
+            AwsCredentials credentials = first.resolveCredentials();
+
+            assertThat(second.resolveCredentials().secretAccessKey()).isEqualTo(credentials.secretAccessKey());
+            assertThat(store.size()).isEqualTo(1);
+        }
+        verify(oidcClient, times(1)).createTokenWithIAM(any(CreateTokenWithIamRequest.class));
+        verify(stsClient, times(1)).assumeRole(any(AssumeRoleRequest.class));
+    }
+
+    @Test
+    public void distributedCredentialsStore_sharesCredentialsOverNetwork() throws Exception {
+        stubAssumeRole(Instant.now().plus(Duration.ofHours(1)));
+        SecretKey encryptionKey = aesKey();
+
+        try (LocalCredentialsStoreServer server = LocalCredentialsStoreServer.create();
+             IdentityAwareCredentialsProvider first = providerBuilder()
+                 .distributedCredentialsStore(server.store())
+                 .distributedCredentialsEncryptionKey(encryptionKey)
+                 .build();
+             IdentityAwareCredentialsProvider second = providerBuilder()
+                 .distributedCredentialsStore(server.store())
+                 .distributedCredentialsEncryptionKey(encryptionKey)
+                 .build()) {
+            first.resolveCredentials();
+            second.resolveCredentials();
+
+            assertThat(server.size()).isEqualTo(1);
+        }
+        verify(stsClient, times(1)).assumeRole(any(AssumeRoleRequest.class));
+    }
+
+    @Test
+    public void distributedCredentialsStore_runsBlockingExchangeOnCallingThread() throws Exception {
+        List<Thread> exchangeThreads = new CopyOnWriteArrayList<>();
+        Mockito.when(stsClient.assumeRole(any(AssumeRoleRequest.class))).thenAnswer(invocation -> {
+            exchangeThreads.add(Thread.currentThread());
+            return assumeRoleResponse(Instant.now().plus(Duration.ofHours(1)));
+        });
+
+        try (LocalCredentialsStoreServer server = LocalCredentialsStoreServer.create();
+             IdentityAwareCredentialsProvider provider = providerBuilder()
+                 .distributedCredentialsStore(server.store())
+                 .distributedCredentialsEncryptionKey(aesKey())
+                 .build()) {
+            provider.resolveCredentials();
+        }
+        assertThat(exchangeThreads).containsExactly(Thread.currentThread());
+    }
+
+    @Test
+    public void distributedCredentialsStore_exchangesWhenStoreFails() throws Exception {
+        stubAssumeRole(Instant.now().plus(Duration.ofHours(1)));
+        DistributedCredentialsStore store = Mockito.mock(DistributedCredentialsStore.class);
+        Mockito.when(store.get(any())).thenReturn(
+            CompletableFutureUtils.failedFuture(new IllegalStateException("unavailable")));
+        Mockito.when(store.compareAndSet(any(), any(), any())).thenThrow(new IllegalStateException("unavailable"));
+
+        try (IdentityAwareCredentialsProvider provider = providerBuilder()
+            .distributedCredentialsStore(store)
+            .distributedCredentialsEncryptionKey(aesKey())
+            .build()) {
+            assertThat(provider.resolveCredentials().accessKeyId()).isNotNull();
+        }
+        verify(stsClient, times(1)).assumeRole(any(AssumeRoleRequest.class));
+    }
+
+    @Test
+    public void distributedCredentialsStore_exchangesWhenStoreDoesNotAnswer() throws Exception {
+        stubAssumeRole(Instant.now().plus(Duration.ofHours(1)));
+        DistributedCredentialsStore store = Mockito.mock(DistributedCredentialsStore.class);
+        Mockito.when(store.get(any())).thenReturn(new CompletableFuture<>());
+        Mockito.when(store.compareAndSet(any(), any(), any())).thenReturn(new CompletableFuture<>());
+
+        try (IdentityAwareCredentialsProvider provider = providerBuilder()
+            .distributedCredentialsStore(store)
+            .distributedCredentialsEncryptionKey(aesKey())
+            .build()) {
+            assertThat(provider.resolveCredentials().accessKeyId()).isNotNull();
+        }
+        verify(stsClient, times(1)).assumeRole(any(AssumeRoleRequest.class));
+    }
+
+    @Test
+    public void distributedCredentialsStore_requiresEncryptionKey() {
+        assertThatThrownBy(() -> providerBuilder()
+            .distributedCredentialsStore(InMemoryDistributedCredentialsStore.create())
+            .build())
+            .isInstanceOf(NullPointerException.class)
+            .hasMessageContaining("distributedCredentialsEncryptionKey");
+    }
+
+    @Test
+    public void exchangeListener_reportsPhasesAndCacheEvents() {
+        stubAssumeRole(Instant.now().plus(Duration.ofHours(1)));
+        List<String> events = new CopyOnWriteArrayList<>();
+        ExchangeListener listener = new ExchangeListener() {
+            @Override
+            public ExchangeSpan phaseStarted(ExchangePhase phase, ExchangeSpan parent) {
+                events.add("start " + phase + (parent == null ? "" : " in " + parent));
+                return new ExchangeSpan() {
+                    @Override
+                    public void end(Duration duration, Throwable failure) {
+                        events.add("end " + phase + (failure == null ? "" : " failed"));
+                    }
+
+                    @Override
+                    public String toString() {
+                        return phase.toString();
+                    }
+                };
+            }
+
+            @Override
+            public void cacheEvent(CredentialsCacheEvent event, Duration duration) {
+                events.add(event.toString());
+            }
+        };
+
+        try (IdentityAwareCredentialsProvider provider = providerBuilder().exchangeListener(listener).build()) {
+            provider.resolveCredentials();
+            provider.resolveCredentials();
+        }
+        assertThat(events).containsExactly("start EXCHANGE",
+                                           "start CREATE_TOKEN_WITH_IAM in EXCHANGE",
+                                           "end CREATE_TOKEN_WITH_IAM",
+                                           "start ASSUME_ROLE in EXCHANGE",
+                                           "end ASSUME_ROLE",
+                                           "end EXCHANGE",
+                                           "REFRESH_SUCCEEDED",
+                                           "MISS",
+                                           "HIT");
+    }
+
+    @Test
+    public void exchangeListener_reportsFailedPhases() {
+        Mockito.when(stsClient.assumeRole(any(AssumeRoleRequest.class))).thenThrow(throttlingException());
+        List<String> ended = new CopyOnWriteArrayList<>();
+        ExchangeListener listener = new ExchangeListener() {
+            @Override
+            public ExchangeSpan phaseStarted(ExchangePhase phase, ExchangeSpan parent) {
+                return (duration, failure) -> ended.add(phase + (failure instanceof StsException ? " failed" : ""));
+            }
+        };
+
+        try (IdentityAwareCredentialsProvider provider = providerBuilder().exchangeListener(listener).build()) {
+            assertThatThrownBy(provider::resolveCredentials).isInstanceOf(StsException.class);
+        }
+        assertThat(ended).containsExactly("CREATE_TOKEN_WITH_IAM", "ASSUME_ROLE failed", "EXCHANGE failed");
+    }
+
+    @Test
+    public void credentialsStore_servesStoredCredentialsAfterRestart() {
+        stubAssumeRole(Instant.now().plus(Duration.ofHours(1)));
+        Map<IdentityAwareCredentialsKey, AwsSessionCredentials> stored = new ConcurrentHashMap<>();
+        IdentityAwareCredentialsStore store = new IdentityAwareCredentialsStore() {
+            @Override
+            public Optional<AwsSessionCredentials> load(IdentityAwareCredentialsKey key) {
+                return Optional.ofNullable(stored.get(key));
+            }
+
+            @Override
+            public void store(IdentityAwareCredentialsKey key, AwsSessionCredentials credentials) {
+                stored.put(key, credentials);
+            }
+        };
+
+        AwsCredentials exchanged;
+        try (IdentityAwareCredentialsProvider provider = providerBuilder().credentialsStore(store).build()) {
+            exchanged = provider.resolveCredentials();
+        }
+        assertThat(stored).hasSize(1);
+        assertThat(stored.keySet().iterator().next().roleArn()).isEqualTo(roleArn);
+
+        try (IdentityAwareCredentialsProvider restarted = providerBuilder().credentialsStore(store).build()) {
+            assertThat(restarted.resolveCredentials()).isSameAs(exchanged);
+        }
+        verify(oidcClient, times(1)).createTokenWithIAM(any(CreateTokenWithIamRequest.class));
+        verify(stsClient, times(1)).assumeRole(any(AssumeRoleRequest.class));
+    }
+
+    @Test
+    public void credentialsStore_servesStoredCredentialsAfterRestartWithDifferentToken() {
+        stubAssumeRole(Instant.now().plus(Duration.ofHours(1)));
+        Map<IdentityAwareCredentialsKey, AwsSessionCredentials> stored = new ConcurrentHashMap<>();
+        IdentityAwareCredentialsStore store = new IdentityAwareCredentialsStore() {
+            @Override
+            public Optional<AwsSessionCredentials> load(IdentityAwareCredentialsKey key) {
+                return Optional.ofNullable(stored.get(key));
+            }
+
+            @Override
+            public void store(IdentityAwareCredentialsKey key, AwsSessionCredentials credentials) {
+                stored.put(key, credentials);
+            }
+        };
+
+        AwsCredentials exchanged;
+        try (IdentityAwareCredentialsProvider provider = providerBuilder()
+            .webTokenProvider(() -> webToken("service"))
+            .identityLabel("service")
+            .credentialsStore(store)
+            .build()) {
+            exchanged = provider.resolveCredentials();
+        }
+        assertThat(stored.keySet().iterator().next().identity()).isEqualTo("service");
+
+        AtomicInteger webTokenRequests = new AtomicInteger();
+        try (IdentityAwareCredentialsProvider restarted = providerBuilder()
+            .webTokenProvider(() -> {
+                webTokenRequests.incrementAndGet();
+                return webToken("service");
+            })
+            .identityLabel("service")
+            .credentialsStore(store)
+            .build()) {
+            assertThat(restarted.resolveCredentials()).isSameAs(exchanged);
+        }
+        assertThat(webTokenRequests.get()).isZero();
+        verify(oidcClient, times(1)).createTokenWithIAM(any(CreateTokenWithIamRequest.class));
+        verify(stsClient, times(1)).assumeRole(any(AssumeRoleRequest.class));
+    }
+
+    private static String webToken(String subject) {
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        String header = encoder.encodeToString("{\"alg\":\"none\"}".getBytes(StandardCharsets.UTF_8));
+        String payload = encoder.encodeToString(
+            ("{\"iss\":\"https://idp.example.com\",\"sub\":\"" + subject + "\",\"iat\":" + System.nanoTime() + "}")
+                .getBytes(StandardCharsets.UTF_8));
+        return header + "." + payload + ".";
+    }
+
+    private static SecretKey aesKey() throws Exception {
+        KeyGenerator generator = KeyGenerator.getInstance("AES");
+        generator.init(256);
+        return generator.generateKey();
+    }
+
+    private static StsException throttlingException() {
+        return stsException(400, "Throttling", "Rate exceeded");
+    }
+
+    private static StsException stsException(int statusCode, String errorCode, String errorMessage) {
+        return (StsException) StsException.builder()
+            .statusCode(statusCode)
+            .awsErrorDetails(AwsErrorDetails.builder().errorCode(errorCode).errorMessage(errorMessage).build())
+            .build();
+    }
+
+    private void stubLongLivedIdentityCenterToken() {
+        Mockito.when(oidcClient.createTokenWithIAM(any(CreateTokenWithIamRequest.class))).thenReturn(
+            CreateTokenWithIamResponse.builder()
+                .expiresIn(3600)
+                .awsAdditionalDetails(AwsAdditionalDetails.builder().identityContext("idcontext").build())
+                .build());
+    }
+
+    private void stubAssumeRole(Instant expiration) {
+        Mockito.when(stsClient.assumeRole(any(AssumeRoleRequest.class))).thenReturn(assumeRoleResponse(expiration));
+    }
+
+    private static AssumeRoleResponse assumeRoleResponse(Instant expiration) {
+        return AssumeRoleResponse.builder()
+            .credentials(Credentials.builder()
+                .accessKeyId("akid")
+                .secretAccessKey("skid")
+                .sessionToken("st")
+                .expiration(expiration)
+                .build())
+            .build();
+    }
+
+    private IdentityAwareCredentialsProvider.Builder providerBuilder() {
+        return IdentityAwareCredentialsProvider.builder()
+            .stsClient(stsClient)
+            .ssoOidcClient(oidcClient)
+            .webTokenProvider(() -> idToken)
+            .applicationArn(applicationArn)
+            .accessRoleArn(roleArn);
+    }
+}
@@ -0,0 +1,109 @@
+package software.amazon.awssdk.trustedidentitypropagation.internal;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.auth.credentials.AwsSessionCredentials;
+
+public class IdentityCredentialsCacheTest {
+    private final MutableClock clock = new MutableClock(Instant.parse("2025-01-01T00:00:00Z"));
+    private final List<String> closed = new CopyOnWriteArrayList<>();
+
+    @Test
+    public void sweep_evictsIdleEntriesBelowMaxEntries() {
+        try (IdentityCredentialsCache cache = cache(10, Duration.ofMinutes(1), Duration.ofHours(1))) {
+            cache.get("alice", "alice-token");
+            clock.advance(Duration.ofMinutes(2));
+            cache.get("bob", "bob-token");
+            cache.sweep();
+
+            assertThat(cache.size()).isEqualTo(1);
+            assertThat(closed).containsExactly("alice");
+        }
+    }
+
+    @Test
+    public void get_evictsLeastRecentlyUsedEntryWithoutExceedingMaxEntries() {
+        try (IdentityCredentialsCache cache = cache(2, Duration.ofHours(1), Duration.ofHours(1))) {
+            cache.get("alice", "alice-token");
+            clock.advance(Duration.ofSeconds(1));
+            cache.get("bob", "bob-token");
+            clock.advance(Duration.ofSeconds(1));
+            cache.get("alice", "alice-token");
+            clock.advance(Duration.ofSeconds(1));
+            cache.get("carol", "carol-token");
+
+            assertThat(cache.size()).isEqualTo(2);
+            assertThat(closed).containsExactly("bob");
+        }
+    }
+
+    @Test
+    public void sweep_evictsEntriesWhoseCredentialsWentStaleUnused() {
+        try (IdentityCredentialsCache cache = cache(10, Duration.ofHours(1), Duration.ofMinutes(2))) {
+            cache.get("alice", "alice-token");
+            clock.advance(Duration.ofSeconds(90));
+            cache.get("bob", "bob-token");
+            cache.sweep();
+
+            assertThat(cache.size()).isEqualTo(1);
+            assertThat(closed).containsExactly("alice");
+        }
+    }
+
+    private IdentityCredentialsCache cache(int maxEntries, Duration idleTimeout, Duration credentialsLifetime) {
+        return new IdentityCredentialsCache(
+            entry -> RefreshableCredentials.builder(() -> credentials(entry.webToken(), credentialsLifetime))
+                                           .staleTime(Duration.ofMinutes(1))
+                                           .prefetchTime(Duration.ofMinutes(1))
+                                           .asyncCredentialUpdateEnabled(false)
+                                           .scheduledPrefetchEnabled(false)
+                                           .clock(clock)
+                                           .closeListener(() -> closed.add(entry.identityKey()))
+                                           .build(),
+            maxEntries, idleTimeout, clock);
+    }
+
+    private AwsSessionCredentials credentials(String webToken, Duration lifetime) {
+        return AwsSessionCredentials.builder()
+                                    .accessKeyId(webToken)
+                                    .secretAccessKey("skid")
+                                    .sessionToken("st")
+                                    .expirationTime(clock.instant().plus(lifetime))
+                                    .build();
+    }
+
+    private static final class MutableClock extends Clock {
+        private volatile Instant now;
+
+        private MutableClock(Instant now) {
+            this.now = now;
+        }
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package software.amazon.awssdk.trustedidentitypropagation.internal;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.auth.credentials.AwsSessionCredentials;
+
+public class RefreshableCredentialsTest {
+    private static final Executor SATURATED = r -> {
+        throw new RejectedExecutionException("saturated");
+    };
+
+    private final MutableClock clock = new MutableClock(Instant.parse("2025-01-01T00:00:00Z"));
+    private final AtomicInteger supplierCalls = new AtomicInteger();
+    private final List<Thread> supplierThreads = new CopyOnWriteArrayList<>();
+
+    @Test
+    public void getAsync_runsBlockingSupplierOnCallingThreadWhenExecutorIsSaturated() {
+        try (RefreshableCredentials credentials = credentials(Duration.ofHours(1))) {
+            AwsSessionCredentials resolved = credentials.getAsync().join();
+
+            assertThat(resolved.accessKeyId()).isEqualTo("akid-1");
+            assertThat(supplierThreads).containsExactly(Thread.currentThread());
+        }
+    }
+
+    @Test
+    public void get_servesCachedCredentialsWhenBackgroundRefreshIsRejected() {
+        try (RefreshableCredentials credentials = credentials(Duration.ofMinutes(4))) {
+            credentials.get();
+            clock.advance(Duration.ofMinutes(1));
+
+            assertThat(credentials.get().accessKeyId()).isEqualTo("akid-1");
+            assertThat(credentials.getAsync().join().accessKeyId()).isEqualTo("akid-1");
+            assertThat(supplierCalls.get()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    public void get_refreshesStaleCredentialsAfterBackgroundRefreshWasRejected() {
+        try (RefreshableCredentials credentials = credentials(Duration.ofMinutes(4))) {
+            credentials.get();
+            clock.advance(Duration.ofMinutes(1));
+            credentials.get();
+            clock.advance(Duration.ofSeconds(150));
+
+            assertThat(credentials.get().accessKeyId()).isEqualTo("akid-2");
+            assertThat(supplierCalls.get()).isEqualTo(2);
+        }
+    }
+
+    private RefreshableCredentials credentials(Duration lifetime) {
+        return RefreshableCredentials.builder(() -> {
+            supplierThreads.add(Thread.currentThread());
+            return AwsSessionCredentials.builder()
+                                        .accessKeyId("akid-" + supplierCalls.incrementAndGet())
+                                        .secretAccessKey("skid")
+                                        .sessionToken("st")
+                                        .expirationTime(clock.instant().plus(lifetime))
+                                        .build();
+        })
+                                     .staleTime(Duration.ofMinutes(1))
+                                     .prefetchTime(Duration.ofMinutes(5))
+                                     .scheduledPrefetchEnabled(false)
+                                     .refreshExecutor(SATURATED)
+                                     .clock(clock)
+                                     .build();
+    }
+
+    private static final class MutableClock extends Clock {
+        private volatile Instant now;
+
+        private MutableClock(Instant now) {
+            this.now = now;
+        }
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
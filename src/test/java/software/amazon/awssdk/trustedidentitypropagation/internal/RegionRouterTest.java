@@ -0,0 +1,171 @@
+package software.amazon.awssdk.trustedidentitypropagation.internal;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.exception.SdkServiceException;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.utils.SdkAutoCloseable;
+
+public class RegionRouterTest {
+    private static final Region NEAR = Region.US_WEST_2;
+    private static final Region FAR = Region.EU_WEST_1;
+
+    private AtomicLong nanoTime = new AtomicLong();
+    private List<Region> calls = new ArrayList<>();
+
+    @Test
+    public void call_prefersFastestRegionOnceEachWasTried() {
+        FakeClient near = new FakeClient(NEAR, Duration.ofMillis(20));
+        FakeClient far = new FakeClient(FAR, Duration.ofMillis(150));
+        RegionRouter<FakeClient> router = router(far, near);
+
+        for (int i = 0; i < 5; i++) {
+            router.call("Call", FakeClient::call);
+        }
+
+        assertThat(calls).containsExactly(FAR, NEAR, NEAR, NEAR, NEAR);
+        assertThat(router.ranking()).containsExactly(NEAR, FAR);
+    }
+
+    @Test
+    public void call_failsOverOnServerErrorsAndThrottling() {
+        FakeClient near = new FakeClient(NEAR, Duration.ofMillis(20));
+        FakeClient far = new FakeClient(FAR, Duration.ofMillis(150));
+        RegionRouter<FakeClient> router = router(near, far);
+
+        near.failure = SdkServiceException.builder().statusCode(503).build();
+        assertThat(router.call("Call", FakeClient::call)).isEqualTo(FAR);
+        near.failure = SdkServiceException.builder().statusCode(429).build();
+        assertThat(router.call("Call", FakeClient::call)).isEqualTo(FAR);
+
+        assertThat(router.ranking()).containsExactly(FAR, NEAR);
+    }
+
+    @Test
+    public void call_runsBeforeFailoverForEachRegionAfterFirst() {
+        FakeClient near = new FakeClient(NEAR, Duration.ofMillis(20));
+        FakeClient far = new FakeClient(FAR, Duration.ofMillis(150));
+        RegionRouter<FakeClient> router = router(near, far);
+        AtomicInteger failovers = new AtomicInteger();
+
+        router.call("Call", FakeClient::call, failovers::incrementAndGet);
+        assertThat(failovers.get()).isEqualTo(0);
+
+        near.failure = SdkServiceException.builder().statusCode(503).build();
+        assertThat(router.call("Call", FakeClient::call, failovers::incrementAndGet)).isEqualTo(FAR);
+        assertThat(failovers.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void call_throwsBeforeFailoverFailureWithRegionFailureSuppressed() {
+        FakeClient near = new FakeClient(NEAR, Duration.ofMillis(20));
+        FakeClient far = new FakeClient(FAR, Duration.ofMillis(150));
+        near.failure = SdkClientException.create("near unavailable");
+
+        RegionRouter<FakeClient> router = router(near, far);
+        Runnable noPermit = () -> {
+            throw new IllegalStateException("No permit");
+        };
+        IllegalStateException failure =
+            assertThrows(IllegalStateException.class, () -> router.call("Call", FakeClient::call, noPermit));
+
+        assertThat(failure.getSuppressed()).hasSize(1);
+        assertThat(calls).containsExactly(NEAR);
+    }
+
+    @Test
+    public void call_returnsToRecoveredRegionOnceFailuresDecay() {
+        FakeClient near = new FakeClient(NEAR, Duration.ofMillis(20));
+        FakeClient far = new FakeClient(FAR, Duration.ofMillis(150));
+        RegionRouter<FakeClient> router = router(near, far);
+        router.call("Call", FakeClient::call);
+        router.call("Call", FakeClient::call);
+        near.failure = SdkClientException.create("Connection timed out");
+        router.call("Call", FakeClient::call);
+        near.failure = null;
+
+        assertThat(router.ranking()).containsExactly(FAR, NEAR);
+        nanoTime.addAndGet(RegionRouter.FAILURE_RATE_HALF_LIFE.multipliedBy(10).toNanos());
+        assertThat(router.ranking()).containsExactly(NEAR, FAR);
+    }
+
+    @Test
+    public void call_throwsServiceErrorWithoutFailingOver() {
+        FakeClient near = new FakeClient(NEAR, Duration.ofMillis(20));
+        FakeClient far = new FakeClient(FAR, Duration.ofMillis(150));
+        near.failure = SdkServiceException.builder().statusCode(400).message("Invalid grant").build();
+
+        assertThatThrownBy(() -> router(near, far).call("Call", FakeClient::call)).hasMessageContaining("Invalid grant");
+        assertThat(calls).containsExactly(NEAR);
+    }
+
+    @Test
+    public void call_throwsLastFailureOnceAllRegionsFailed() {
+        FakeClient near = new FakeClient(NEAR, Duration.ofMillis(20));
+        FakeClient far = new FakeClient(FAR, Duration.ofMillis(150));
+        near.failure = SdkClientException.create("near unavailable");
+        far.failure = SdkClientException.create("far unavailable");
+
+        RegionRouter<FakeClient> router = router(near, far);
+        SdkClientException failure = assertThrows(SdkClientException.class, () -> router.call("Call", FakeClient::call));
+
+        assertThat(failure).hasMessageContaining("far unavailable");
+        assertThat(failure.getSuppressed()).hasSize(1);
+    }
+
+    @Test
+    public void close_closesClientOfEveryRegion() {
+        FakeClient near = new FakeClient(NEAR, Duration.ofMillis(20));
+        FakeClient far = new FakeClient(FAR, Duration.ofMillis(150));
+
+        router(near, far).close();
+
+        assertThat(near.closed).isTrue();
+        assertThat(far.closed).isTrue();
+    }
+
+    private RegionRouter<FakeClient> router(FakeClient... clients) {
+        Map<Region, FakeClient> byRegion = new LinkedHashMap<>();
+        for (FakeClient client : clients) {
+            byRegion.put(client.region, client);
+        }
+        return new RegionRouter<>(byRegion, nanoTime::get);
+    }
+
+    private final class FakeClient implements SdkAutoCloseable {
+        private final Region region;
+        private final Duration latency;
+        private RuntimeException failure;
+        private boolean closed;
+
+        private FakeClient(Region region, Duration latency) {
+            this.region = region;
+            this.latency = latency;
+        }
+
+        Region call() {
+            calls.add(region);
+            nanoTime.addAndGet(latency.toNanos());
+            if (failure != null) {
+                throw failure;
+            }
+            return region;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
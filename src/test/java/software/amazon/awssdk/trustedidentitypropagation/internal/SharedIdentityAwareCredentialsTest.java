@@ -0,0 +1,34 @@
+package software.amazon.awssdk.trustedidentitypropagation.internal;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+public class SharedIdentityAwareCredentialsTest {
+    private final IdentityAwareCredentialsProvider provider = Mockito.mock(IdentityAwareCredentialsProvider.class);
+    private final SharedIdentityAwareCredentials sharedCredentials = new SharedIdentityAwareCredentials(() -> provider);
+    private final List<SharedIdentityAwareCredentials.Reference> released = new CopyOnWriteArrayList<>();
+
+    @Test
+    public void close_notifiesReleaseListenerOncePerReference() {
+        SharedIdentityAwareCredentials.Reference first = sharedCredentials.acquire(released::add);
+        SharedIdentityAwareCredentials.Reference second = sharedCredentials.acquire(released::add);
+
+        first.close();
+        first.close();
+
+        assertThat(released).containsExactly(first);
+        verify(provider, never()).close();
+
+        second.close();
+
+        assertThat(released).containsExactly(first, second);
+        verify(provider, times(1)).close();
+    }
+}